@@ -0,0 +1,88 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils;
+
+import fr.wseduc.webutils.data.FileResolver;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Translation of a message with arguments, precompiled when the bundle is added against the previous
+ * replaceAll of each argument on the raw text.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class I18nBenchmark {
+
+	private static final String MODULE = "bench";
+	private static final String DOMAIN = "bench.example.org";
+	private static final String KEY = "timeline.share";
+	private static final String TEXT = "{0} a partagé le document {1} avec vous dans le dossier {2}.";
+	private static final String[] ARGS = { "Marie Dupont", "Compte rendu du conseil de classe", "Documents" };
+
+	private I18n i18n;
+	private JsonObject bundle;
+
+	@Setup
+	public void setUp() throws IOException {
+		// the bundles of the domains are created over the bundles of the default domain, loaded from disk
+		final Path main = Files.createTempDirectory("i18n-bench");
+		Files.createDirectory(main.resolve("i18n"));
+		Files.write(main.resolve("i18n").resolve("fr.json"),
+				new JsonObject().put("other.key", "Autre").encode().getBytes(StandardCharsets.UTF_8));
+		FileResolver.getInstance().setBasePath(MODULE, main.toString());
+		final Vertx vertx = Vertx.vertx();
+		try {
+			i18n = I18n.getInstance(MODULE);
+			i18n.init(vertx, new JsonObject().put("main", MODULE));
+		} finally {
+			vertx.close();
+		}
+		i18n.add(DOMAIN, Locale.FRENCH, new JsonObject().put(KEY, TEXT));
+		if (KEY.equals(precompiled())) {
+			throw new IllegalStateException("Message " + KEY + " not loaded");
+		}
+		bundle = new JsonObject().put(KEY, TEXT);
+	}
+
+	@Benchmark
+	public String precompiled() {
+		return i18n.translate(KEY, DOMAIN, Locale.FRENCH, ARGS);
+	}
+
+	@Benchmark
+	public String replaceAll() {
+		String text = bundle.getString(KEY);
+		for (int i = 0; i < ARGS.length; i++) {
+			text = text.replaceAll("\\{" + i + "\\}", ARGS[i]);
+		}
+		return text;
+	}
+
+}
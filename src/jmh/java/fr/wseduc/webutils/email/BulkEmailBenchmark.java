@@ -0,0 +1,147 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.email;
+
+import fr.wseduc.webutils.data.FileResolver;
+import fr.wseduc.webutils.http.Renders;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Send of the same template to 10 000 recipients in 4 languages through the SendInBlue sender and a local stub
+ * of its API : one bulk send, rendering the template once per language and batching the recipients in message
+ * versions, against one rendering and one send per recipient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BulkEmailBenchmark {
+
+	private static final int RECIPIENTS = 10000;
+	private static final String MODULE = "bulk-email-benchmark";
+	private static final String TEMPLATE = "mail.html";
+	private static final String[] LANGUAGES = { "fr", "en", "de", "es" };
+	private static final JsonObject PARAMS = new JsonObject()
+			.put("class", "4e B")
+			.put("date", "12 novembre")
+			.put("link", "/conseil/classe/4eB");
+
+	private final AtomicLong requests = new AtomicLong();
+	private Vertx vertx;
+	private HttpServer server;
+	private Path directory;
+	private JsonObject config;
+	private SendInBlueSender sender;
+	private Renders render;
+	private List<BulkRecipient> recipients;
+
+	@Setup
+	public void setUp() throws Exception {
+		vertx = Vertx.vertx();
+		directory = Files.createTempDirectory("bulk-email-benchmark");
+		Files.createDirectories(directory.resolve("view"));
+		Files.write(directory.resolve("view").resolve(TEMPLATE), ("<p>{{#i18n}}mail.hello{{/i18n}},</p>" +
+				"<p>Le conseil de classe de la {{class}} aura lieu le {{date}}.</p>" +
+				"<p><a href=\"{{link}}\"><img src=\"{{#static}}img/logo.png{{/static}}\"/></a></p>")
+				.getBytes(StandardCharsets.UTF_8));
+		FileResolver.getInstance().setBasePath(MODULE, directory.toString());
+		config = new JsonObject()
+				.put("main", MODULE)
+				.put("template-cache", new JsonObject().put("enabled", true));
+		server = vertx.createHttpServer()
+				.requestHandler(request -> request.body().onComplete(ar -> {
+					requests.incrementAndGet();
+					request.response().setStatusCode(201).end("{\"messageId\":\"<bench@example.org>\"}");
+				}))
+				.listen(0).toCompletionStage().toCompletableFuture().get();
+		sender = new SendInBlueSender(vertx, config.copy()
+				.put("uri", "http://localhost:" + server.actualPort())
+				.put("api-key", "bench")
+				.put("email", "noreply@example.org")
+				.put("host", "https://ent.example.org"));
+		render = new Renders(vertx, config);
+		recipients = new ArrayList<>(RECIPIENTS);
+		for (int i = 0; i < RECIPIENTS; i++) {
+			recipients.add(new BulkRecipient("user" + i + "@example.org", LANGUAGES[i % LANGUAGES.length]));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		System.out.println("requests to the stub during the trial : " + requests.getAndSet(0));
+		vertx.close();
+		Files.deleteIfExists(directory.resolve("view").resolve(TEMPLATE));
+		Files.deleteIfExists(directory.resolve("view"));
+		Files.deleteIfExists(directory);
+	}
+
+	@Benchmark
+	public Message<JsonObject> bulk() throws Exception {
+		final CompletableFuture<Message<JsonObject>> done = new CompletableFuture<>();
+		vertx.runOnContext(v -> sender.sendBulkEmail(config, null, recipients.iterator(),
+				"Conseil de classe", TEMPLATE, PARAMS, false, complete(done)));
+		return done.get();
+	}
+
+	@Benchmark
+	public Integer perRecipient() throws Exception {
+		final CompletableFuture<Integer> done = new CompletableFuture<>();
+		final AtomicInteger remaining = new AtomicInteger(RECIPIENTS);
+		vertx.runOnContext(v -> {
+			for (BulkRecipient recipient : recipients) {
+				render.processTemplate("https://ent.example.org", TEMPLATE, PARAMS, recipient.getLanguage(), body ->
+						sender.sendEmail(config, null, recipient.getTo(), null, null, "Conseil de classe", body,
+								null, false, ar -> {
+									if (ar.failed()) {
+										done.completeExceptionally(ar.cause());
+									} else if (remaining.decrementAndGet() == 0) {
+										done.complete(RECIPIENTS);
+									}
+								}));
+			}
+		});
+		return done.get();
+	}
+
+	private static Handler<AsyncResult<Message<JsonObject>>> complete(CompletableFuture<Message<JsonObject>> done) {
+		return ar -> {
+			if (ar.succeeded()) {
+				done.complete(ar.result());
+			} else {
+				done.completeExceptionally(ar.cause());
+			}
+		};
+	}
+
+}
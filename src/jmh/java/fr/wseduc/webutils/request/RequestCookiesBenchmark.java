@@ -0,0 +1,74 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.request;
+
+import io.netty.handler.codec.http.Cookie;
+import io.netty.handler.codec.http.CookieDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of the session cookie in a 3 KB Cookie header, by the scan of {@link RequestCookies} and by the Netty
+ * decoder previously used for each lookup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RequestCookiesBenchmark {
+
+	private static final String SESSION = "oneSessionId";
+
+	private String header;
+
+	@Setup
+	public void setUp() {
+		final StringBuilder sb = new StringBuilder("authenticated=true; XSRF-TOKEN=3b7c9e1f-2d4a-4c8e-9f21-7c8d5e0b1a23");
+		for (int i = 0; sb.length() < 3000; i++) {
+			sb.append("; _ga_").append(i).append("=GA1.2.1234567890.").append(1700000000 + i);
+			sb.append("; pref").append(i).append("=%7B%22lang%22%3A%22fr%22%2C%22theme%22%3A%22dark%22%7D");
+		}
+		sb.append("; ").append(SESSION).append("=6f1c2a8e-4b3d-4e6a-9f21-7c8d5e0b1a23:1f0e9a7b5c3d");
+		header = sb.toString();
+	}
+
+	@Benchmark
+	public Cookie find() {
+		return RequestCookies.find(header, SESSION);
+	}
+
+	@Benchmark
+	public String decodeOnce() {
+		// the session and xsrf cookies read from the same request
+		final RequestCookies cookies = new RequestCookies(header);
+		cookies.get("XSRF-TOKEN");
+		return cookies.get(SESSION);
+	}
+
+	@Benchmark
+	public Cookie nettyDecoder() {
+		for (Cookie cookie : CookieDecoder.decode(header, false)) {
+			if (SESSION.equals(cookie.getName())) {
+				return cookie;
+			}
+		}
+		return null;
+	}
+
+}
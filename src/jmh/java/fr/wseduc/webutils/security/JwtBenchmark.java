@@ -0,0 +1,92 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.security;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signature and verification of the tokens, with the per thread Mac and Signature instances
+ * against a new instance for each operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JwtBenchmark {
+
+	private static final String SECRET = "a-shared-secret-of-the-oauth-clients";
+
+	private KeyPair keyPair;
+	private JsonObject payload;
+	private byte[] content;
+	private String rsaToken;
+	private String hmacToken;
+
+	@Setup
+	public void setUp() throws Exception {
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		keyPair = generator.generateKeyPair();
+		payload = new JsonObject()
+				.put("iss", "https://ent.example.org")
+				.put("sub", "0b5b7ac7-7f5c-4bd5-9b4a-2c0d6c7f3e8a")
+				.put("aud", "app-e")
+				.put("exp", System.currentTimeMillis() / 1000 + 3600)
+				.put("scope", "userinfo timeline conversation");
+		content = payload.encode().getBytes(StandardCharsets.UTF_8);
+		rsaToken = JWT.encodeAndSign(payload, "kid-1", keyPair.getPrivate());
+		hmacToken = new JWT(null, SECRET, null).encodeAndSignHmac(payload);
+	}
+
+	@Benchmark
+	public byte[] hmacCachedMac() throws Exception {
+		return HmacSha256.sign(content, SECRET.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public byte[] hmacNewMac() throws Exception {
+		final Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+		return mac.doFinal(content);
+	}
+
+	@Benchmark
+	public String encodeAndSignRsa() throws Exception {
+		return JWT.encodeAndSign(payload, "kid-1", keyPair.getPrivate());
+	}
+
+	@Benchmark
+	public JsonObject verifyRsa() {
+		return JWT.verifyAndGet(rsaToken, keyPair.getPublic());
+	}
+
+	@Benchmark
+	public JsonObject verifyHmac() {
+		return JWT.verifyAndGet(hmacToken, SECRET);
+	}
+
+}
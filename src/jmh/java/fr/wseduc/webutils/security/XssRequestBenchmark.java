@@ -0,0 +1,127 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.security;
+
+import io.vertx.core.MultiMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of the headers and params of a request, as done by a controller and the helpers it calls, through the
+ * XSS wrapper against the previous sanitizing of every value on each call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class XssRequestBenchmark {
+
+	private static final String[][] HEADERS = {
+			{ "Host", "ent.example.org" },
+			{ "User-Agent", "Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0" },
+			{ "Accept", "application/json, text/plain, */*" },
+			{ "Accept-Language", "fr,fr-FR;q=0.8,en-US;q=0.5,en;q=0.3" },
+			{ "Accept-Encoding", "gzip, deflate, br" },
+			{ "Referer", "https://ent.example.org/workspace/workspace" },
+			{ "X-Requested-With", "XMLHttpRequest" },
+			{ "X-Forwarded-For", "192.0.2.17" },
+			{ "X-Forwarded-Proto", "https" },
+			{ "Connection", "keep-alive" },
+			{ "Cookie", "oneSessionId=6f1c2a8e-4b3d-4e6a-9f21-7c8d5e0b1a23; authenticated=true; XSRF-TOKEN=3b7c9e1f-2d4a" },
+			{ "X-XSRF-TOKEN", "3b7c9e1f-2d4a" }
+	};
+	private static final String[][] PARAMS = {
+			{ "filter", "owner" },
+			{ "search", "compte rendu <b>conseil</b>" },
+			{ "page", "2" },
+			{ "includeall", "true" }
+	};
+
+	@Benchmark
+	public int wrapper() {
+		return read(new XssHttpServerRequest(new BenchRequest()));
+	}
+
+	@Benchmark
+	public int sanitizeEveryCall() {
+		return read(new BenchRequest() {
+			@Override
+			public MultiMap headers() {
+				return legacySafeMultiMap(super.headers());
+			}
+
+			@Override
+			public MultiMap params() {
+				return legacySafeMultiMap(super.params());
+			}
+		});
+	}
+
+	private static int read(WrappedHttpServerRequest request) {
+		// host, language, xsrf check, theme, then the controller params
+		int length = request.headers().get("Host").length();
+		length += request.headers().get("Accept-Language").length();
+		length += request.headers().get("X-XSRF-TOKEN").length();
+		length += request.headers().size();
+		length += request.params().get("filter").length();
+		length += request.params().get("search").length();
+		return length;
+	}
+
+	private static MultiMap legacySafeMultiMap(MultiMap m) {
+		for (String name : m.names()) {
+			List<String> values = m.getAll(name);
+			List<String> safeValues = new ArrayList<>();
+			for (String value : values) {
+				safeValues.add(XSSUtils.stripXSS(value));
+			}
+			m.set(name, safeValues);
+		}
+		return m;
+	}
+
+	static class BenchRequest extends WrappedHttpServerRequest {
+
+		private final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+		private final MultiMap params = MultiMap.caseInsensitiveMultiMap();
+
+		BenchRequest() {
+			super(null);
+			for (String[] header : HEADERS) {
+				headers.add(header[0], header[1]);
+			}
+			for (String[] param : PARAMS) {
+				params.add(param[0], param[1]);
+			}
+		}
+
+		@Override
+		public MultiMap headers() {
+			return headers;
+		}
+
+		@Override
+		public MultiMap params() {
+			return params;
+		}
+	}
+
+}
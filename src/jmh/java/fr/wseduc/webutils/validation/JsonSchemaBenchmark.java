@@ -0,0 +1,102 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.validation;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of a request body with a schema compiled in process, against the round trip to a validator
+ * verticle which replies without validating : the lower bound of the bus validation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JsonSchemaBenchmark {
+
+	private static final String ADDRESS = "json.schema.validator";
+
+	private Vertx vertx;
+	private LocalJsonSchema schema;
+	private JsonObject valid;
+	private JsonObject invalid;
+
+	@Setup
+	public void setUp() {
+		vertx = Vertx.vertx();
+		vertx.eventBus().consumer(ADDRESS, (Message<JsonObject> message) ->
+				message.reply(new JsonObject().put("status", "ok")));
+		schema = new LocalJsonSchema("bench.share", new JsonObject()
+				.put("type", "object")
+				.put("required", new JsonArray().add("users").add("groups"))
+				.put("properties", new JsonObject()
+						.put("users", new JsonObject().put("type", "object")
+								.put("additionalProperties", new JsonObject().put("type", "array")
+										.put("items", new JsonObject().put("type", "string"))))
+						.put("groups", new JsonObject().put("type", "object")
+								.put("additionalProperties", new JsonObject().put("type", "array")
+										.put("items", new JsonObject().put("type", "string"))))
+						.put("bookmarks", new JsonObject().put("type", "object"))),
+				"DRAFT4");
+		final JsonArray rights = new JsonArray()
+				.add("org-entcore-workspace-controllers-WorkspaceController|getDocument")
+				.add("org-entcore-workspace-controllers-WorkspaceController|copyDocuments");
+		final JsonObject users = new JsonObject();
+		final JsonObject groups = new JsonObject();
+		for (int i = 0; i < 10; i++) {
+			users.put("user-" + i, rights.copy());
+			groups.put("group-" + i, rights.copy());
+		}
+		valid = new JsonObject().put("users", users).put("groups", groups);
+		invalid = new JsonObject().put("users", users).put("groups", "all");
+	}
+
+	@TearDown
+	public void tearDown() {
+		vertx.close();
+	}
+
+	@Benchmark
+	public JsonObject localValid() {
+		return schema.validate(valid);
+	}
+
+	@Benchmark
+	public JsonObject localInvalid() {
+		return schema.validate(invalid);
+	}
+
+	@Benchmark
+	public JsonObject busRoundTrip() throws Exception {
+		final JsonObject request = new JsonObject()
+				.put("action", "validate")
+				.put("key", "bench.share")
+				.put("json", valid);
+		return vertx.eventBus().<JsonObject>request(ADDRESS, request, new DeliveryOptions().setSendTimeout(10000))
+				.map(Message::body)
+				.toCompletionStage().toCompletableFuture().get();
+	}
+
+}
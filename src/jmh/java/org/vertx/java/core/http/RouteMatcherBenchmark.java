@@ -0,0 +1,106 @@
+package org.vertx.java.core.http;
+
+import fr.wseduc.webutils.security.WrappedHttpServerRequest;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolution of the routes of a platform, the "trie" flavour registering simple patterns and the "regex" one
+ * registering the same routes as regular expressions, which are resolved with the previous linear scan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RouteMatcherBenchmark {
+
+	private static final int APPS = 40;
+	private static final String[] PATTERNS = {
+			"/list", "/resource/:id", "/resource/:id/comment/:commentId", "/resource/:id/share/json",
+			"/folders/:folderId/resources", "/conf/public", "/i18n", "/search/:term"
+	};
+
+	@Param({"trie", "regex"})
+	public String flavour;
+
+	private RouteMatcher rm;
+	private BenchRequest first;
+	private BenchRequest last;
+	private BenchRequest miss;
+
+	@Setup
+	public void setUp() {
+		rm = new RouteMatcher();
+		rm.noMatch(request -> {});
+		for (int i = 0; i < APPS; i++) {
+			for (String pattern : PATTERNS) {
+				final String route = "/app" + i + pattern;
+				if ("trie".equals(flavour)) {
+					rm.get(route, request -> {});
+				} else {
+					rm.getWithRegEx(RouteMatcher.compilePattern(route).pattern(), request -> {});
+				}
+			}
+		}
+		first = new BenchRequest("/app0/resource/42");
+		last = new BenchRequest("/app" + (APPS - 1) + "/resource/42/comment/7");
+		miss = new BenchRequest("/unknown/resource/42");
+	}
+
+	@Benchmark
+	public MultiMap firstApp() {
+		return resolve(first);
+	}
+
+	@Benchmark
+	public MultiMap lastApp() {
+		return resolve(last);
+	}
+
+	@Benchmark
+	public MultiMap noMatch() {
+		return resolve(miss);
+	}
+
+	private MultiMap resolve(BenchRequest request) {
+		request.params.clear();
+		rm.handle(request);
+		return request.params;
+	}
+
+	static class BenchRequest extends WrappedHttpServerRequest {
+
+		private final String path;
+		private final MultiMap params = MultiMap.caseInsensitiveMultiMap();
+
+		BenchRequest(String path) {
+			super(null);
+			this.path = path;
+		}
+
+		@Override
+		public HttpMethod method() {
+			return HttpMethod.GET;
+		}
+
+		@Override
+		public String path() {
+			return path;
+		}
+
+		@Override
+		public MultiMap params() {
+			return params;
+		}
+
+		@Override
+		public String getParam(String paramName) {
+			return params.get(paramName);
+		}
+	}
+
+}
@@ -21,14 +21,22 @@ import fr.wseduc.rs.*;
 import fr.wseduc.security.ActionType;
 import fr.wseduc.security.MfaProtected;
 import fr.wseduc.security.SecuredAction;
+import fr.wseduc.webutils.http.ControllerRoutes;
 
 import javax.annotation.processing.*;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
 import javax.tools.StandardLocation;
 import java.io.*;
 import java.nio.file.NoSuchFileException;
@@ -40,6 +48,11 @@ import java.util.*;
 @SupportedSourceVersion(SourceVersion.RELEASE_8)
 public class ControllerAnnotationProcessor extends AbstractProcessor {
 
+	private static final String HTTP_REQUEST = "io.vertx.core.http.HttpServerRequest";
+	private static final String BUS_MESSAGE = "io.vertx.core.eventbus.Message";
+	private static final String CONTROLLER = "fr.wseduc.webutils.Controller";
+	private final Set<String> generatedRoutesClasses = new HashSet<>();
+
 	@Override
 	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
 		if (roundEnv.processingOver()) {
@@ -144,6 +157,9 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 
 	private void route(RoundEnvironment roundEnv) {
 		final Map<String,Set<String>> routes = new HashMap<>();
+		final Map<String,Map<String,String>> statements = new HashMap<>();
+		final Map<String,TypeElement> controllers = new HashMap<>();
+		final Set<String> reflectiveControllers = new HashSet<>();
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(Post.class)) {
 			Post annotation = element.getAnnotation(Post.class);
@@ -152,9 +168,12 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 				continue;
 			}
 			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"POST\", \"path\" : \"" +
+			String route = "{ \"httpMethod\" : \"POST\", \"path\" : \"" +
 					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"regex\" : " + annotation.regex() + ", \"mfaProtected\" : "+ isMfaProtected(element) +"}");
+					"\", \"regex\" : " + annotation.regex() + ", \"mfaProtected\" : "+ isMfaProtected(element) +"}";
+			controllerRoutes.add(route);
+			addStatement(statements, controllers, reflectiveControllers, clazz, element, route, HTTP_REQUEST,
+					httpStatement(element, "post", annotation.value(), annotation.regex()));
 		}
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(Get.class)) {
@@ -164,9 +183,12 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 				continue;
 			}
 			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"GET\", \"path\" : \"" +
+			String route = "{ \"httpMethod\" : \"GET\", \"path\" : \"" +
 					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"regex\" : " + annotation.regex() + ", \"mfaProtected\" : "+ isMfaProtected(element) + "}");
+					"\", \"regex\" : " + annotation.regex() + ", \"mfaProtected\" : "+ isMfaProtected(element) + "}";
+			controllerRoutes.add(route);
+			addStatement(statements, controllers, reflectiveControllers, clazz, element, route, HTTP_REQUEST,
+					httpStatement(element, "get", annotation.value(), annotation.regex()));
 		}
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(Put.class)) {
@@ -176,9 +198,12 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 				continue;
 			}
 			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"PUT\", \"path\" : \"" +
+			String route = "{ \"httpMethod\" : \"PUT\", \"path\" : \"" +
 					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"regex\" : " + annotation.regex() + ", \"mfaProtected\" : "+ isMfaProtected(element) + "}");
+					"\", \"regex\" : " + annotation.regex() + ", \"mfaProtected\" : "+ isMfaProtected(element) + "}";
+			controllerRoutes.add(route);
+			addStatement(statements, controllers, reflectiveControllers, clazz, element, route, HTTP_REQUEST,
+					httpStatement(element, "put", annotation.value(), annotation.regex()));
 		}
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(Delete.class)) {
@@ -188,9 +213,12 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 				continue;
 			}
 			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"DELETE\", \"path\" : \"" +
+			String route = "{ \"httpMethod\" : \"DELETE\", \"path\" : \"" +
 					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"regex\" : " + annotation.regex() + ", \"mfaProtected\" : "+ isMfaProtected(element) + "}");
+					"\", \"regex\" : " + annotation.regex() + ", \"mfaProtected\" : "+ isMfaProtected(element) + "}";
+			controllerRoutes.add(route);
+			addStatement(statements, controllers, reflectiveControllers, clazz, element, route, HTTP_REQUEST,
+					httpStatement(element, "delete", annotation.value(), annotation.regex()));
 		}
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(BusAddress.class)) {
@@ -200,12 +228,127 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 				continue;
 			}
 			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"BUS\", \"path\" : \"" +
+			String route = "{ \"httpMethod\" : \"BUS\", \"path\" : \"" +
 					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"local\" : " + annotation.local() + ", \"mfaProtected\" : false}");
+					"\", \"local\" : " + annotation.local() + ", \"mfaProtected\" : false}";
+			controllerRoutes.add(route);
+			addStatement(statements, controllers, reflectiveControllers, clazz, element, route, BUS_MESSAGE,
+					"controller.registerMethod(" + literal(annotation.value()) + ", " +
+					literal(element.getSimpleName().toString()) + ", " + annotation.local() +
+					", message -> controller." + element.getSimpleName() + "((Message) message));");
 		}
 
 		writeFile("", routes);
+		for (String controller : reflectiveControllers) {
+			statements.remove(controller);
+		}
+		writeRoutesClasses(controllers, statements);
+	}
+
+	private String httpStatement(Element element, String verb, String path, boolean regex) {
+		final String method = element.getSimpleName().toString();
+		String statement = "controller." + verb + (regex ? "WithRegEx(" : "(") + literal(path) + ", " +
+				literal(method) + ", controller::" + method + ");";
+		if (isMfaProtected(element)) {
+			statement += "\n\t\tcontroller.addMfaProtectedMethod(" + literal(method) + ");";
+		}
+		return statement;
+	}
+
+	/**
+	 * Keep the registration statement of a route, ordered like the lines of the routes JSON file so that
+	 * the generated class registers the patterns in the same order.
+	 * Controllers with a method which can't be referenced from the generated class keep using the JSON file :
+	 * a method declaring a checked exception doesn't match the handler interface, and the routes of a class
+	 * which isn't a {@link fr.wseduc.webutils.Controller} are registered by its own code.
+	 */
+	private void addStatement(Map<String, Map<String, String>> statements, Map<String, TypeElement> controllers,
+			Set<String> reflectiveControllers, TypeElement clazz, Element element, String route,
+			String parameterType, String statement) {
+		final String controller = clazz.getQualifiedName().toString();
+		controllers.put(controller, clazz);
+		final List<? extends VariableElement> parameters = ((ExecutableElement) element).getParameters();
+		if (!NestingKind.TOP_LEVEL.equals(clazz.getNestingKind()) ||
+				element.getModifiers().contains(Modifier.PRIVATE) ||
+				element.getModifiers().contains(Modifier.STATIC) ||
+				parameters.size() != 1 || !parameterType.equals(
+						processingEnv.getTypeUtils().erasure(parameters.get(0).asType()).toString()) ||
+				!isController(clazz) || throwsCheckedException((ExecutableElement) element)) {
+			reflectiveControllers.add(controller);
+			return;
+		}
+		Map<String, String> controllerStatements = statements.get(controller);
+		if (controllerStatements == null) {
+			controllerStatements = new TreeMap<>(Collections.reverseOrder());
+			statements.put(controller, controllerStatements);
+		}
+		controllerStatements.put(route, statement);
+	}
+
+	private boolean isController(TypeElement clazz) {
+		final TypeElement controller = processingEnv.getElementUtils().getTypeElement(CONTROLLER);
+		final Types types = processingEnv.getTypeUtils();
+		return controller != null && types.isAssignable(types.erasure(clazz.asType()), types.erasure(controller.asType()));
+	}
+
+	private boolean throwsCheckedException(ExecutableElement method) {
+		final Types types = processingEnv.getTypeUtils();
+		final TypeMirror runtimeException = processingEnv.getElementUtils()
+				.getTypeElement(RuntimeException.class.getName()).asType();
+		final TypeMirror error = processingEnv.getElementUtils().getTypeElement(Error.class.getName()).asType();
+		for (TypeMirror thrown : method.getThrownTypes()) {
+			if (!types.isAssignable(thrown, runtimeException) && !types.isAssignable(thrown, error)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void writeRoutesClasses(Map<String, TypeElement> controllers, Map<String, Map<String, String>> statements) {
+		Filer filer = processingEnv.getFiler();
+		for (Map.Entry<String, Map<String, String>> e : statements.entrySet()) {
+			final TypeElement clazz = controllers.get(e.getKey());
+			final String pkg = processingEnv.getElementUtils().getPackageOf(clazz).getQualifiedName().toString();
+			final String simpleName = clazz.getSimpleName().toString();
+			final String routesName = simpleName + ControllerRoutes.CLASS_SUFFIX;
+			if (!generatedRoutesClasses.add(e.getKey())) {
+				// already generated in a previous round
+				continue;
+			}
+			try {
+				processingEnv.getMessager().printMessage(Kind.NOTE, "Writing " + e.getKey() + ControllerRoutes.CLASS_SUFFIX);
+				JavaFileObject f = filer.createSourceFile(e.getKey() + ControllerRoutes.CLASS_SUFFIX, clazz);
+				PrintWriter pw = new PrintWriter(new OutputStreamWriter(f.openOutputStream(), "UTF-8"));
+				if (!pkg.isEmpty()) {
+					pw.println("package " + pkg + ";");
+					pw.println();
+				}
+				pw.println("import fr.wseduc.webutils.http.ControllerRoutes;");
+				pw.println("import io.vertx.core.eventbus.Message;");
+				pw.println();
+				pw.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+				pw.println("public final class " + routesName + " implements ControllerRoutes<" + simpleName + "> {");
+				pw.println();
+				pw.println("\t@Override");
+				pw.println("\tpublic void register(final " + simpleName + " controller) {");
+				for (String statement : e.getValue().values()) {
+					pw.println("\t\t" + statement);
+				}
+				pw.println("\t}");
+				pw.println();
+				pw.println("}");
+				pw.close();
+			} catch (FilerException ex) {
+				// the name clashes with another source : fail, a stale class would override the routes JSON file
+				error("Failed to write routes class " + e.getKey() + ControllerRoutes.CLASS_SUFFIX + " : " + ex);
+			} catch (IOException ex) {
+				error("Failed to write routes class : " + ex);
+			}
+		}
+	}
+
+	private String literal(String value) {
+		return processingEnv.getElementUtils().getConstantExpression(value);
 	}
 
 	private Set<String> getController(Map<String, Set<String>> routes, TypeElement clazz) {
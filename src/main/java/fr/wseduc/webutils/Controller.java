@@ -20,15 +20,16 @@ import java.io.*;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import fr.wseduc.webutils.request.AccessLogger;
@@ -41,8 +42,10 @@ import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
 
 import fr.wseduc.webutils.http.Binding;
+import fr.wseduc.webutils.http.ControllerRoutes;
 import fr.wseduc.webutils.http.HttpMethod;
 import fr.wseduc.webutils.http.Renders;
+import fr.wseduc.webutils.request.filter.Filter;
 import fr.wseduc.webutils.request.filter.SecurityHandler;
 import fr.wseduc.webutils.security.ActionType;
 import fr.wseduc.webutils.security.SecuredAction;
@@ -99,6 +102,9 @@ public abstract class Controller extends Renders {
 	}
 
 	protected synchronized void loadRoutes() {
+		if (loadGeneratedRoutes()) {
+			return;
+		}
 		String vertxServicesPath = System.getProperty("vertx.services.path", "/open-ent/data/mods");
 		Path routePath = Paths.get(vertxServicesPath, config.getString("main") + File.separator + "routes" + File.separator + this.getClass().getName() + ".json");
 		if (Files.exists(routePath)) {
@@ -156,8 +162,7 @@ public abstract class Controller extends Renders {
 							break;
 					}
 					if( route.getBoolean("mfaProtected", false) ) {
-						String serviceMethod = this.getClass().getName() + "|" + method;
-						mfaProtectedMethods.add(serviceMethod);
+						addMfaProtectedMethod(method);
 					}
 				}
 			} catch (IOException | NoSuchMethodException | IllegalAccessException e) {
@@ -177,27 +182,27 @@ public abstract class Controller extends Renders {
 		}
 	}
 
-	private Handler<HttpServerRequest> execute(final String method) {
+	@SuppressWarnings("unchecked")
+	private boolean loadGeneratedRoutes() {
+		final ControllerRoutes<Controller> routes;
 		try {
-			final MethodHandle mh = lookup.bind(this, method,
-					MethodType.methodType(void.class, HttpServerRequest.class));
-			return new XSSHandler() {
+			final Class<?> routesClass = Class.forName(this.getClass().getName() + ControllerRoutes.CLASS_SUFFIX,
+					true, this.getClass().getClassLoader());
+			routes = (ControllerRoutes<Controller>) routesClass.getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			log.error("Unable to load generated routes in controller " + this.getClass().getName(), e);
+			return false;
+		}
+		routes.register(this);
+		return true;
+	}
 
-				@Override
-				public void filter(final HttpServerRequest request) {
-					accessLogger.log(request, v -> {
-						try {
-							mh.invokeExact(request);
-						} catch (Throwable e) {
-							if (!(e instanceof IllegalStateException) ||
-									!"Response is closed".equals(e.getMessage())) {
-								log.error("Error invoking secured method : " + method, e);
-								request.response().setStatusCode(500).end();
-							}
-						}
-					});
-				}
-			};
+	private Handler<HttpServerRequest> execute(final String method, final Handler<HttpServerRequest> action) {
+		final Handler<HttpServerRequest> a;
+		try {
+			a = (action != null) ? action : lookupAction(method);
 		} catch (NoSuchMethodException | IllegalAccessException e) {
 
 			return new Handler<HttpServerRequest>() {
@@ -209,30 +214,22 @@ public abstract class Controller extends Renders {
 				}
 			};
 		}
+		return new XSSHandler() {
+
+			@Override
+			public void filter(final HttpServerRequest request) {
+				accessLogger.log(request, v -> invoke(a, method, request));
+			}
+		};
 	}
 
-	private Handler<HttpServerRequest> executeSecure(final String method) {
+	private Handler<HttpServerRequest> executeSecure(final String method, final Handler<HttpServerRequest> action) {
+		final Handler<HttpServerRequest> a;
 		try {
-			final MethodHandle mh = lookup.bind(this, method,
-					MethodType.methodType(void.class, HttpServerRequest.class));
-			return new SecurityHandler(vertx) {
-
-				@Override
-				public void filter(HttpServerRequest request) {
-					try {
-						mh.invokeExact(request);
-					} catch (Throwable e) {
-						if (!(e instanceof IllegalStateException) ||
-								!"Response is closed".equals(e.getMessage())) {
-							log.error("Error invoking secured method : " + method, e);
-							request.response().setStatusCode(500).end();
-						}
-					}
-				}
-			};
+			a = (action != null) ? action : lookupAction(method);
 		} catch (NoSuchMethodException | IllegalAccessException e) {
 
-			return new SecurityHandler(vertx) {
+			return new SecurityHandler(vertx, securityFilters()) {
 
 				@Override
 				public void filter(HttpServerRequest request) {
@@ -241,18 +238,72 @@ public abstract class Controller extends Renders {
 				}
 			};
 		}
+		return new SecurityHandler(vertx, securityFilters()) {
+
+			@Override
+			public void filter(HttpServerRequest request) {
+				invoke(a, method, request);
+			}
+		};
+	}
+
+	/**
+	 * Chain of filters of the secured actions, the default one of {@link SecurityHandler} unless overridden.
+	 * Called once for each secured action.
+	 */
+	protected List<Filter> securityFilters() {
+		return SecurityHandler.defaultFilters();
+	}
+
+	private Handler<HttpServerRequest> lookupAction(String method) throws NoSuchMethodException, IllegalAccessException {
+		final MethodHandle mh = lookup.bind(this, method,
+				MethodType.methodType(void.class, HttpServerRequest.class));
+		return request -> {
+			try {
+				mh.invokeExact(request);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		};
+	}
+
+	private void invoke(Handler<HttpServerRequest> action, String method, HttpServerRequest request) {
+		try {
+			action.handle(request);
+		} catch (Throwable e) {
+			if (!(e instanceof IllegalStateException) ||
+					!"Response is closed".equals(e.getMessage())) {
+				log.error("Error invoking secured method : " + method, e);
+				request.response().setStatusCode(500).end();
+			}
+		}
 	}
 
 	public void registerMethod(String address, String method, boolean local)
 			throws NoSuchMethodException, IllegalAccessException {
 		final MethodHandle mh = lookup.bind(this, method,
 				MethodType.methodType(void.class, Message.class));
+		registerMethod(address, method, local, message -> {
+			try {
+				mh.invokeExact(message);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		});
+	}
+
+	public void registerMethod(String address, String method, boolean local,
+			final Handler<Message<JsonObject>> action) {
 		Handler<Message<JsonObject>> handler = new Handler<Message<JsonObject>>() {
 
 			@Override
 			public void handle(Message<JsonObject> message) {
 				try {
-					mh.invokeExact(message);
+					action.handle(message);
 				} catch (Throwable e) {
 					log.error(e.getMessage(), e);
 					JsonObject json = new JsonObject().put("status", "error")
@@ -268,14 +319,18 @@ public abstract class Controller extends Renders {
 		}
 	}
 
-	private Handler<HttpServerRequest> bindHandler(String method) {
+	private Handler<HttpServerRequest> bindHandler(String method, Handler<HttpServerRequest> action) {
 		if (method == null || method.trim().isEmpty()) {
 			throw new NullPointerException();
 		}
 		if (securedActions.containsKey(this.getClass().getName() + "|" + method)) {
-			return executeSecure(method);
+			return executeSecure(method, action);
 		}
-		return execute(method);
+		return execute(method, action);
+	}
+
+	public void addMfaProtectedMethod(String method) {
+		mfaProtectedMethods.add(this.getClass().getName() + "|" + method);
 	}
 
 	public Set<Binding> getMfaProtectedBindings() {
@@ -314,82 +369,101 @@ public abstract class Controller extends Renders {
 	}
 
 	public Controller get(String pattern, String method) {
+		return get(pattern, method, null);
+	}
+
+	public Controller get(String pattern, String method, Handler<HttpServerRequest> action) {
 		pattern = addPathPrefix(pattern);
 		addPattern(pattern, HttpMethod.GET, method);
-		rm.get(pattern, bindHandler(method));
+		rm.get(pattern, bindHandler(method, action));
 		return this;
 	}
 
 	public Controller put(String pattern, String method) {
+		return put(pattern, method, null);
+	}
+
+	public Controller put(String pattern, String method, Handler<HttpServerRequest> action) {
 		pattern = addPathPrefix(pattern);
 		addPattern(pattern, HttpMethod.PUT, method);
-		rm.put(pattern, bindHandler(method));
+		rm.put(pattern, bindHandler(method, action));
 		return this;
 	}
 
 	public Controller post(String pattern, String method) {
+		return post(pattern, method, null);
+	}
+
+	public Controller post(String pattern, String method, Handler<HttpServerRequest> action) {
 		pattern = addPathPrefix(pattern);
 		addPattern(pattern, HttpMethod.POST, method);
-		rm.post(pattern, bindHandler(method));
+		rm.post(pattern, bindHandler(method, action));
 		return this;
 	}
 
 	public Controller delete(String pattern, String method) {
+		return delete(pattern, method, null);
+	}
+
+	public Controller delete(String pattern, String method, Handler<HttpServerRequest> action) {
 		pattern = addPathPrefix(pattern);
 		addPattern(pattern, HttpMethod.DELETE, method);
-		rm.delete(pattern, bindHandler(method));
+		rm.delete(pattern, bindHandler(method, action));
 		return this;
 	}
 
 	public Controller getWithRegEx(String regex, String method) {
+		return getWithRegEx(regex, method, null);
+	}
+
+	public Controller getWithRegEx(String regex, String method, Handler<HttpServerRequest> action) {
 		regex = addPathPrefix(regex).replaceAll("\\/", "\\/");
 		addRegEx(regex, HttpMethod.GET, method);
-		rm.getWithRegEx(regex, bindHandler(method));
+		rm.getWithRegEx(regex, bindHandler(method, action));
 		return this;
 	}
 
 	public Controller putWithRegEx(String regex, String method) {
+		return putWithRegEx(regex, method, null);
+	}
+
+	public Controller putWithRegEx(String regex, String method, Handler<HttpServerRequest> action) {
 		regex = addPathPrefix(regex).replaceAll("\\/", "\\/");
 		addRegEx(regex, HttpMethod.PUT, method);
-		rm.putWithRegEx(regex, bindHandler(method));
+		rm.putWithRegEx(regex, bindHandler(method, action));
 		return this;
 	}
 
 	public Controller postWithRegEx(String regex, String method) {
+		return postWithRegEx(regex, method, null);
+	}
+
+	public Controller postWithRegEx(String regex, String method, Handler<HttpServerRequest> action) {
 		regex = addPathPrefix(regex).replaceAll("\\/", "\\/");
 		addRegEx(regex, HttpMethod.POST, method);
-		rm.postWithRegEx(regex, bindHandler(method));
+		rm.postWithRegEx(regex, bindHandler(method, action));
 		return this;
 	}
 
 	public Controller deleteWithRegEx(String regex, String method) {
+		return deleteWithRegEx(regex, method, null);
+	}
+
+	public Controller deleteWithRegEx(String regex, String method, Handler<HttpServerRequest> action) {
 		regex = addPathPrefix(regex).replaceAll("\\/", "\\/");
 		addRegEx(regex, HttpMethod.DELETE, method);
-		rm.deleteWithRegEx(regex, bindHandler(method));
+		rm.deleteWithRegEx(regex, bindHandler(method, action));
 		return this;
 	}
 
 	private void addPattern(String input, HttpMethod httpMethod, String method) {
 		String serviceMethod = this.getClass().getName() + "|" + method;
-		Matcher m = Pattern.compile(":([A-Za-z][A-Za-z0-9_]*)").matcher(input);
-		StringBuffer sb = new StringBuffer();
-		Set<String> groups = new HashSet<>();
-		while (m.find()) {
-			String group = m.group().substring(1);
-			if (groups.contains(group)) {
-				throw new IllegalArgumentException("Cannot use identifier " + group + " more than once in pattern string");
-			}
-			m.appendReplacement(sb, "(?<$1>[^\\/]+)");
-			groups.add(group);
-		}
-		m.appendTail(sb);
-		String regex = sb.toString();
 		Set<Binding> bindings = uriBinding.get(serviceMethod);
 		if (bindings == null) {
 			bindings = new HashSet<>();
 			uriBinding.put(serviceMethod, bindings);
 		}
-		bindings.add(new Binding(httpMethod, Pattern.compile(regex), serviceMethod, actionType(serviceMethod)));
+		bindings.add(new Binding(httpMethod, RouteMatcher.compilePattern(input), serviceMethod, actionType(serviceMethod)));
 	}
 
 	private void addRegEx(String input, HttpMethod httpMethod, String method) {
@@ -16,16 +16,25 @@
 
 package fr.wseduc.webutils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
 
 import fr.wseduc.webutils.data.FileResolver;
 import fr.wseduc.webutils.http.Renders;
 import fr.wseduc.webutils.security.SecureHttpServerRequest;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonArray;
@@ -44,8 +53,12 @@ public class I18n {
 	// Map pour stocker les instances de I18n par module
 	private static final ConcurrentHashMap<String, I18n> instancesByModule = new ConcurrentHashMap<>();
 
-	private Map<String, Map<Locale, JsonObject>> messagesByDomains = new HashMap<>();
-	private Map<String, Map<Locale, JsonObject>> messagesByThemes = new HashMap<>();
+	private static final int MAX_CACHED_LANGUAGES = 512;
+	private static final ConcurrentHashMap<String, Locale> localesByAcceptLanguage = new ConcurrentHashMap<>();
+
+	// immutable, replaced as a whole by init and add so readers never see a partial update
+	private volatile Snapshot snapshot = new Snapshot(
+			Collections.<String, Map<Locale, Bundle>>emptyMap(), Collections.<String, Map<Locale, Bundle>>emptyMap());
 
 	private I18n() {}
 
@@ -60,22 +73,21 @@ public class I18n {
 	/**
 	 * Initialise l'instance I18n pour un module spécifique.
 	 */
-	public void init(Vertx vertx, JsonObject config) {
+	public synchronized void init(Vertx vertx, JsonObject config) {
 		try {
 			String messagesDir = FileResolver.absolutePath(config.getString("main"), "i18n");
 			if (vertx.fileSystem().existsBlocking(messagesDir)) {
-				Map<Locale, JsonObject> messages = messagesByDomains.get(DEFAULT_DOMAIN);
-				if (messages == null) {
-					messages = new HashMap<>();
-					messagesByDomains.put(DEFAULT_DOMAIN, messages);
-				}
+				final Snapshot s = snapshot;
+				final Map<Locale, Bundle> current = s.byDomains.get(DEFAULT_DOMAIN);
+				final Map<Locale, Bundle> messages = current != null ? new HashMap<>(current) : new HashMap<>();
 				for (String path : vertx.fileSystem().readDirBlocking(messagesDir)) {
 					if (vertx.fileSystem().propsBlocking(path).isRegularFile()) {
 						Locale l = Locale.forLanguageTag(new File(path).getName().split("\\.")[0]);
 						JsonObject jo = new JsonObject(vertx.fileSystem().readFileBlocking(path).toString());
-						messages.put(l, jo);
+						messages.put(l, new Bundle(jo));
 					}
 				}
+				snapshot = s.with(false, DEFAULT_DOMAIN, messages);
 			} else {
 				log.warn("I18n directory " + messagesDir + " doesn't exist.");
 			}
@@ -86,7 +98,7 @@ public class I18n {
 
 	// Les autres méthodes restent inchangées...
 	public String translate(String key, String domain, String acceptLanguage, String... args) {
-		return translate(key, domain, getLocale(acceptLanguage), args);
+		return translate(key, domain, getLocale(acceptLanguage, domain), args);
 	}
 
 	@Deprecated
@@ -100,41 +112,37 @@ public class I18n {
 
 	public String translate(String key, String domain, String theme, Locale locale, String... args) {
 		if (key == null) return "";
-		Map<Locale, JsonObject> messages = getMessagesMap(theme != null ? theme : domain, theme != null);
+		final I18nMessage message = getMessage(key, domain, theme, locale);
+		return message != null ? message.format(args) : key;
+	}
+
+	/**
+	 * Lookup a precompiled translation unit, falling back from the theme to the domain.
+	 * @return the message, or null if the key is unknown
+	 */
+	public I18nMessage getMessage(String key, String domain, String theme, Locale locale) {
+		if (key == null) return null;
+		Map<Locale, Bundle> messages = getMessagesMap(snapshot, theme != null ? theme : domain, theme != null);
 
 		if (messages == null) {
-			return theme != null ? translate(key, domain, null, locale, args) : key;
+			return theme != null ? getMessage(key, domain, null, locale) : null;
 		}
-		JsonObject bundle = messages.get(locale) != null ? messages.get(locale) : messages.get(defaultLocale);
+		Bundle bundle = messages.get(locale) != null ? messages.get(locale) : messages.get(defaultLocale);
 		if (bundle == null) {
-			return theme != null ? translate(key, domain, null, locale, args) : key;
+			return theme != null ? getMessage(key, domain, null, locale) : null;
 		}
-		String text = bundle.getString(key);
-		if (text != null) {
-			if (args.length > 0) {
-				try {
-					for (int i = 0; i < args.length; i++) {
-						text = text.replaceAll("\\{" + i + "\\}", args[i]);
-					}
-				} catch (RuntimeException e) {
-					log.error("Error replacing i18n variable", e);
-				}
-			}
-		} else {
-			text = theme != null ? translate(key, domain, null, locale, args) : key;
+		final I18nMessage message = bundle.message(key);
+		if (message == null && theme != null) {
+			return getMessage(key, domain, null, locale);
 		}
-		return text;
-	}
-
-	private Map<Locale, JsonObject> getMessagesMap(String domain) {
-		return getMessagesMap(domain, false);
+		return message;
 	}
 
-	private Map<Locale, JsonObject> getMessagesMap(String domain, Boolean byTheme) {
-		final Map<String, Map<Locale, JsonObject>> map = byTheme ? messagesByThemes : messagesByDomains;
-		Map<Locale, JsonObject> messages = map.get(domain);
+	private static Map<Locale, Bundle> getMessagesMap(Snapshot s, String domain, boolean byTheme) {
+		final Map<String, Map<Locale, Bundle>> map = byTheme ? s.byThemes : s.byDomains;
+		Map<Locale, Bundle> messages = map.get(domain);
 		if (messages == null) {
-			messages = messagesByDomains.get(DEFAULT_DOMAIN);
+			messages = s.byDomains.get(DEFAULT_DOMAIN);
 		}
 		return messages;
 	}
@@ -147,16 +155,17 @@ public class I18n {
 
 	@Deprecated
 	public JsonObject load(String acceptLanguage, String domain) {
-		Map<Locale, JsonObject> messages = getMessagesMap(domain);
+		final Snapshot s = snapshot;
+		Map<Locale, Bundle> messages = getMessagesMap(s, domain, false);
 		if (messages == null) {
 			return new JsonObject();
 		}
-		Locale l = getLocale(acceptLanguage);
-		JsonObject bundle = messages.get(l) != null ? messages.get(l) : messages.get(defaultLocale);
+		Locale l = negotiate(s, messages, domain, acceptLanguage);
+		Bundle bundle = messages.get(l) != null ? messages.get(l) : messages.get(defaultLocale);
 		if (bundle == null) {
 			bundle = messages.get(defaultLocale2);
 		}
-		return bundle;
+		return bundle != null ? bundle.json() : null;
 	}
 
 	public JsonObject load(HttpServerRequest request) {
@@ -164,16 +173,32 @@ public class I18n {
 		final String acceptLanguage = I18n.acceptLanguage(request);
 		String themeName = I18n.getTheme(request);
 
-		Map<Locale, JsonObject> messages = themeName != null ? getMessagesMap(themeName, true) : getMessagesMap(domain);
+		final Snapshot s = snapshot;
+		Map<Locale, Bundle> messages = themeName != null ?
+				getMessagesMap(s, themeName, true) : getMessagesMap(s, domain, false);
 		if (messages == null) {
 			return new JsonObject();
 		}
-		Locale l = getLocale(acceptLanguage);
-		JsonObject bundle = messages.get(l) != null ? messages.get(l) : messages.get(defaultLocale);
-		if (bundle == null) {
-			bundle = messages.get(defaultLocale);
+		Locale l = negotiate(s, messages, themeName != null ? themeName : domain, acceptLanguage);
+		Bundle bundle = messages.get(l) != null ? messages.get(l) : messages.get(defaultLocale);
+		return bundle != null ? bundle.json() : null;
+	}
+
+	/**
+	 * Same lookup as {@link #load(HttpServerRequest)}, returning the bundle encoded once for all the requests.
+	 * @return the encoded bundle, or null if there is no bundle for the request
+	 */
+	public EncodedBundle loadEncoded(HttpServerRequest request) {
+		final String themeName = I18n.getTheme(request);
+		final String name = themeName != null ? themeName : Renders.getHost(request);
+		final Snapshot s = snapshot;
+		final Map<Locale, Bundle> messages = getMessagesMap(s, name, themeName != null);
+		if (messages == null) {
+			return null;
 		}
-		return bundle;
+		final Locale l = negotiate(s, messages, name, I18n.acceptLanguage(request));
+		final Bundle bundle = messages.get(l) != null ? messages.get(l) : messages.get(defaultLocale);
+		return bundle != null ? bundle.encoded() : null;
 	}
 
 	/* Dummy implementation. Just use the first langage option ...
@@ -183,8 +208,76 @@ public class I18n {
 		if (acceptLanguage == null) {
 			acceptLanguage = "fr";
 		}
-		String[] langs = acceptLanguage.split(",");
-		return Locale.forLanguageTag(langs[0].split("-")[0]);
+		Locale locale = localesByAcceptLanguage.get(acceptLanguage);
+		if (locale == null) {
+			String[] langs = acceptLanguage.split(",");
+			locale = Locale.forLanguageTag(langs[0].split("-")[0]);
+			if (localesByAcceptLanguage.size() >= MAX_CACHED_LANGUAGES) {
+				// header values are client controlled, don't let them grow the cache without bound
+				localesByAcceptLanguage.clear();
+			}
+			localesByAcceptLanguage.put(acceptLanguage, locale);
+		}
+		return locale;
+	}
+
+	/**
+	 * Choose the language of the domain with the highest quality in the Accept-Language header.
+	 * Example : "de,fr;q=0.8,en;q=0.5" gives french if the domain has no german bundle.
+	 * @return the negotiated locale, or the first language of the header if the domain has none of them
+	 */
+	public Locale getLocale(String acceptLanguage, String domain) {
+		final Snapshot s = snapshot;
+		final Map<Locale, Bundle> messages = getMessagesMap(s, domain, false);
+		return messages != null ? negotiate(s, messages, domain, acceptLanguage) : getLocale(acceptLanguage);
+	}
+
+	private static Locale negotiate(Snapshot s, Map<Locale, Bundle> messages, String name, String acceptLanguage) {
+		if (acceptLanguage == null) {
+			acceptLanguage = "fr";
+		}
+		// the negotiated locales are dropped with the snapshot, when the available languages change
+		final String key = name + '\u0000' + acceptLanguage;
+		Locale locale = s.negotiated.get(key);
+		if (locale == null) {
+			locale = negotiate(messages.keySet(), acceptLanguage);
+			if (s.negotiated.size() >= MAX_CACHED_LANGUAGES) {
+				s.negotiated.clear();
+			}
+			s.negotiated.put(key, locale);
+		}
+		return locale;
+	}
+
+	private static Locale negotiate(Set<Locale> available, String acceptLanguage) {
+		Locale best = null;
+		double bestQuality = 0;
+		for (String range : acceptLanguage.split(",")) {
+			final String[] parts = range.trim().split(";");
+			final String language = parts[0].trim().split("-")[0].toLowerCase(Locale.ROOT);
+			if (language.isEmpty() || "*".equals(language)) {
+				continue;
+			}
+			double quality = 1;
+			for (int i = 1; i < parts.length; i++) {
+				final String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(param.substring(2));
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if (quality > bestQuality) {
+				final Locale l = Locale.forLanguageTag(language);
+				if (available.contains(l)) {
+					best = l;
+					bestQuality = quality;
+				}
+			}
+		}
+		return best != null ? best : getLocale(acceptLanguage);
 	}
 
 	public static String acceptLanguage(HttpServerRequest request) {
@@ -251,30 +344,28 @@ public class I18n {
 		add(domain, locale, keys, false);
 	}
 
-	public void add(String domain, Locale locale, JsonObject keys, Boolean byTheme) {
-		Map<Locale, JsonObject> messages = byTheme ?
-				messagesByThemes.getOrDefault(domain, messagesByDomains.get(domain)) : messagesByDomains.get(domain);
+	public synchronized void add(String domain, Locale locale, JsonObject keys, Boolean byTheme) {
+		final Snapshot s = snapshot;
+		// a theme without bundle is merged in the domain of the same name, if there is one
+		final boolean inThemes = byTheme && (s.byThemes.containsKey(domain) || !s.byDomains.containsKey(domain));
+		Map<Locale, Bundle> messages = inThemes ? s.byThemes.get(domain) : s.byDomains.get(domain);
 		if (messages == null) {
-			HashMap<Locale, JsonObject> defaultMessages = (HashMap<Locale, JsonObject>)
-					messagesByDomains.get(DEFAULT_DOMAIN);
+			Map<Locale, Bundle> defaultMessages = s.byDomains.get(DEFAULT_DOMAIN);
 			if (defaultMessages == null) return;
 			messages = new HashMap<>();
 			for(Locale l : defaultMessages.keySet()){
-				messages.put(l, defaultMessages.get(l).copy());
+				messages.put(l, defaultMessages.get(l).overlay());
 			}
-			final Map<String, Map<Locale, JsonObject>> map = byTheme ? messagesByThemes : messagesByDomains;
-			map.put(domain, messages);
-		}
-		JsonObject m = messages.get(locale);
-		if (m == null) {
-			messages.put(locale, keys);
 		} else {
-			m.mergeIn(keys);
+			messages = new HashMap<>(messages);
 		}
+		Bundle m = messages.get(locale);
+		messages.put(locale, m == null ? new Bundle(keys.copy()) : m.merge(keys));
+		snapshot = s.with(inThemes, domain, messages);
 	}
 
 	public JsonArray getLanguages(String domain) {
-		final Map<Locale, JsonObject> messages = getMessagesMap(domain);
+		final Map<Locale, Bundle> messages = getMessagesMap(snapshot, domain, false);
 		final JsonArray languages = new JsonArray();
 		if (messages != null) {
 			for (Locale l : messages.keySet()) {
@@ -284,4 +375,155 @@ public class I18n {
 		return languages;
 	}
 
+	/**
+	 * Immutable state of the bundles, by domain and by theme.
+	 */
+	private static final class Snapshot {
+
+		private final Map<String, Map<Locale, Bundle>> byDomains;
+		private final Map<String, Map<Locale, Bundle>> byThemes;
+		private final Map<String, Locale> negotiated = new ConcurrentHashMap<>();
+
+		private Snapshot(Map<String, Map<Locale, Bundle>> byDomains, Map<String, Map<Locale, Bundle>> byThemes) {
+			this.byDomains = byDomains;
+			this.byThemes = byThemes;
+		}
+
+		private Snapshot with(boolean byTheme, String name, Map<Locale, Bundle> messages) {
+			final Map<String, Map<Locale, Bundle>> map = new HashMap<>(byTheme ? byThemes : byDomains);
+			map.put(name, Collections.unmodifiableMap(messages));
+			return byTheme ? new Snapshot(byDomains, Collections.unmodifiableMap(map)) :
+					new Snapshot(Collections.unmodifiableMap(map), byThemes);
+		}
+	}
+
+	/**
+	 * Messages of one (domain, locale) : the raw json, returned to the clients, and its precompiled messages.
+	 * The bundle of a domain other than the default one only holds its own keys and shares the bundle of the
+	 * default domain it was created from.
+	 */
+	private static final class Bundle {
+
+		private final Bundle parent;
+		private final JsonObject json;
+		private final Map<String, I18nMessage> messages;
+		private volatile JsonObject merged;
+		private volatile EncodedBundle encoded;
+
+		private Bundle(JsonObject json) {
+			this(null, json, compile(Collections.<String, I18nMessage>emptyMap(), json));
+		}
+
+		private Bundle(Bundle parent, JsonObject json, Map<String, I18nMessage> messages) {
+			this.parent = parent;
+			this.json = json;
+			this.messages = messages;
+		}
+
+		private I18nMessage message(String key) {
+			final I18nMessage message = messages.get(key);
+			return message == null && parent != null ? parent.message(key) : message;
+		}
+
+		private JsonObject json() {
+			if (parent == null) {
+				return json;
+			}
+			JsonObject m = merged;
+			if (m == null) {
+				m = parent.json().copy().mergeIn(json);
+				merged = m;
+			}
+			return m;
+		}
+
+		private EncodedBundle encoded() {
+			EncodedBundle e = encoded;
+			if (e == null) {
+				// concurrent first requests may encode twice, the results are identical
+				e = new EncodedBundle(json().toBuffer());
+				encoded = e;
+			}
+			return e;
+		}
+
+		private Bundle overlay() {
+			return new Bundle(this, new JsonObject(), Collections.<String, I18nMessage>emptyMap());
+		}
+
+		private Bundle merge(JsonObject keys) {
+			return new Bundle(parent, json.copy().mergeIn(keys), compile(messages, keys));
+		}
+
+		private static Map<String, I18nMessage> compile(Map<String, I18nMessage> base, JsonObject keys) {
+			final Map<String, I18nMessage> compiled = new HashMap<>(base);
+			for (Map.Entry<String, Object> entry : keys) {
+				if (entry.getValue() instanceof String) {
+					compiled.put(entry.getKey(), I18nMessage.parse((String) entry.getValue()));
+				} else {
+					compiled.remove(entry.getKey());
+				}
+			}
+			return Collections.unmodifiableMap(compiled);
+		}
+	}
+
+	/**
+	 * Json of a bundle serialized once, with its gzip version and a strong ETag computed from its content.
+	 */
+	public static final class EncodedBundle {
+
+		private final Buffer plain;
+		private final Buffer gzip;
+		private final String etag;
+
+		private EncodedBundle(Buffer plain) {
+			this.plain = plain;
+			this.etag = "\"" + sha256(plain.getBytes()) + "\"";
+			this.gzip = gzip(plain.getBytes());
+		}
+
+		public Buffer getPlain() {
+			return plain;
+		}
+
+		/**
+		 * @return the gzip encoded json, or null if it couldn't be compressed
+		 */
+		public Buffer getGzip() {
+			return gzip;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		/**
+		 * ETag of the gzip representation : strong validators must differ between content codings.
+		 */
+		public String getGzipEtag() {
+			return etag.substring(0, etag.length() - 1) + "-gzip\"";
+		}
+
+		private static String sha256(byte[] data) {
+			try {
+				final byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+				return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private static Buffer gzip(byte[] data) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+			try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+				gzip.write(data);
+			} catch (IOException e) {
+				log.error("Error compressing i18n bundle.", e);
+				return null;
+			}
+			return Buffer.buffer(out.toByteArray());
+		}
+	}
+
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translation unit parsed once when the i18n bundle is loaded.<p>
+ * The text is split in literal segments and <code>{n}</code> argument slots, so formatting a message is a
+ * single append pass. Messages containing mustache tags are also compiled once, to be rendered by the
+ * i18n template lambda.<p>
+ * Instances are immutable.
+ */
+public final class I18nMessage {
+
+	private static final Logger log = LoggerFactory.getLogger(I18nMessage.class);
+	private static final Mustache.Compiler compiler = Mustache.compiler();
+	private static final String[] NO_LITERALS = new String[0];
+	private static final int[] NO_SLOTS = new int[0];
+
+	private final String text;
+	// literals[i] is written before slots[i], literals[slots.length] at the end
+	private final String[] literals;
+	private final int[] slots;
+	private final Template template;
+
+	private I18nMessage(String text, String[] literals, int[] slots, Template template) {
+		this.text = text;
+		this.literals = literals;
+		this.slots = slots;
+		this.template = template;
+	}
+
+	public static I18nMessage parse(String text) {
+		final List<String> literals = new ArrayList<>();
+		final List<Integer> slots = new ArrayList<>();
+		int start = 0;
+		int open = text.indexOf('{');
+		while (open >= 0) {
+			int end = open + 1;
+			int index = 0;
+			while (end < text.length() && Character.isDigit(text.charAt(end)) && index < 100000) {
+				index = index * 10 + (text.charAt(end) - '0');
+				end++;
+			}
+			if (end > open + 1 && end < text.length() && text.charAt(end) == '}') {
+				literals.add(text.substring(start, open));
+				slots.add(index);
+				start = end + 1;
+				open = text.indexOf('{', start);
+			} else {
+				open = text.indexOf('{', open + 1);
+			}
+		}
+		Template template = null;
+		if (text.contains("{{")) {
+			try {
+				template = compiler.compile(text);
+			} catch (RuntimeException e) {
+				log.warn("Invalid mustache template in i18n text : " + text, e);
+			}
+		}
+		if (slots.isEmpty()) {
+			return new I18nMessage(text, NO_LITERALS, NO_SLOTS, template);
+		}
+		literals.add(text.substring(start));
+		final int[] s = new int[slots.size()];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = slots.get(i);
+		}
+		return new I18nMessage(text, literals.toArray(new String[0]), s, template);
+	}
+
+	/**
+	 * @return the raw text, with the argument slots and the mustache tags
+	 */
+	public String getText() {
+		return text;
+	}
+
+	public String format(String... args) {
+		if (args == null || args.length == 0 || slots.length == 0) {
+			return text;
+		}
+		return appendTo(new StringBuilder(text.length() + 16 * slots.length), args).toString();
+	}
+
+	/**
+	 * Append the message with its argument slots replaced. Slots without argument are kept as is.
+	 */
+	public StringBuilder appendTo(StringBuilder sb, String... args) {
+		if (slots.length == 0) {
+			return sb.append(text);
+		}
+		for (int i = 0; i < slots.length; i++) {
+			sb.append(literals[i]);
+			appendSlot(sb, slots[i], args);
+		}
+		return sb.append(literals[slots.length]);
+	}
+
+	private static void appendSlot(StringBuilder sb, int slot, String[] args) {
+		if (args != null && slot < args.length && args[slot] != null) {
+			sb.append(args[slot]);
+		} else {
+			sb.append('{').append(slot).append('}');
+		}
+	}
+
+	/**
+	 * Write the message, rendering its mustache tags against a template context.
+	 */
+	public void execute(Object context, Writer out) throws IOException {
+		if (template != null) {
+			template.execute(context, out);
+		} else {
+			out.write(text);
+		}
+	}
+
+}
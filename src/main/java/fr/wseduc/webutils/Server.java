@@ -20,19 +20,23 @@ import fr.wseduc.webutils.data.FileResolver;
 import static fr.wseduc.webutils.data.FileResolver.absolutePath;
 import fr.wseduc.webutils.http.BaseController;
 import fr.wseduc.webutils.http.Binding;
+import fr.wseduc.webutils.http.ETag;
 import fr.wseduc.webutils.http.Renders;
 import fr.wseduc.webutils.http.StaticResource;
 import fr.wseduc.webutils.logging.Tracer;
 import fr.wseduc.webutils.logging.TracerFactory;
 import fr.wseduc.webutils.request.CookieHelper;
+import fr.wseduc.webutils.request.JsonBodyDecoder;
 import fr.wseduc.webutils.request.filter.Filter;
 import fr.wseduc.webutils.request.filter.SecurityHandler;
 import fr.wseduc.webutils.security.SecuredAction;
+import fr.wseduc.webutils.security.XSSUtils;
 import io.vertx.core.*;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -66,13 +70,24 @@ public abstract class Server extends AbstractVerticle {
 		super.start(startPromise);
 		config = config();
 		FileResolver.getInstance().setBasePath(config.getString("main"), config);
-		rm = new RouteMatcher();
+		rm = createRouteMatcher();
 		trace = TracerFactory.getTracer(this.getClass().getSimpleName());
 		i18n = I18n.getInstance(config.getString("main"));
 		i18n.init(vertx, config);
 		CookieHelper.getInstance().init((String) vertx
 				.sharedData().getLocalMap("server").get("signKey"),
 				(String) vertx.sharedData().getLocalMap("server").get("sameSiteValue"), log);
+		final JsonArray xssSkippedHeaders = config.getJsonArray("xss-skipped-headers");
+		if (xssSkippedHeaders != null) {
+			final List<String> headers = new ArrayList<>();
+			for (Object header : xssSkippedHeaders) {
+				headers.add(header.toString());
+			}
+			XSSUtils.setSkippedHeaders(headers);
+		}
+		if (config.containsKey("max-json-body-size")) {
+			JsonBodyDecoder.setDefaultMaxBodySize(config.getLong("max-json-body-size"));
+		}
 		staticRessources = vertx.sharedData().getLocalMap("staticRessources");
 		dev = "dev".equals(config.getString("mode"));
 
@@ -186,13 +201,60 @@ public abstract class Server extends AbstractVerticle {
 		return new HttpServerOptions(rawHttpServerOptions);
 	}
 
+	private RouteMatcher createRouteMatcher() {
+		JsonObject routeMatcherOptions = config().getJsonObject("routeMatcherOptions");
+		if(routeMatcherOptions == null) {
+			final LocalMap<Object, Object> server = vertx.sharedData().getLocalMap("server");
+			routeMatcherOptions = (JsonObject) server.get("routeMatcherOptions");
+		}
+		if(routeMatcherOptions == null) {
+			routeMatcherOptions = new JsonObject();
+		}
+		return new RouteMatcher()
+				.setLazyPathParams(routeMatcherOptions.getBoolean("lazyPathParams", false))
+				.setResolutionCacheMaxSize(routeMatcherOptions.getInteger("resolutionCacheMaxSize", 0));
+	}
+
 	protected JsonObject getCustomProperties() {
 		return null;
 	}
 
 	protected void i18nMessages(HttpServerRequest request) {
+		final I18n.EncodedBundle bundle = i18n.loadEncoded(request);
+		if (bundle == null) {
+			Controller.renderJson(request, i18n.load(request));
+			return;
+		}
+		final boolean gzip = bundle.getGzip() != null && acceptsGzip(request.headers().get("Accept-Encoding"));
+		final String etag = gzip ? bundle.getGzipEtag() : bundle.getEtag();
+		final HttpServerResponse response = request.response();
+		response.putHeader("Cache-Control", "no-cache, must-revalidate");
+		response.putHeader("Vary", "Accept-Encoding");
+		if (ETag.check(request, bundle.getEtag(), bundle.getGzipEtag())) {
+			Renders.notModified(request, etag);
+			return;
+		}
+		response.putHeader("content-type", "application/json");
+		ETag.addHeader(response, etag);
+		if (gzip) {
+			response.putHeader("Content-Encoding", "gzip");
+			response.end(bundle.getGzip());
+		} else {
+			response.end(bundle.getPlain());
+		}
+	}
 
-		Controller.renderJson(request, i18n.load(request));
+	private static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			final String[] parts = coding.trim().split(";");
+			if ("gzip".equalsIgnoreCase(parts[0].trim()) || "*".equals(parts[0].trim())) {
+				return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -0,0 +1,186 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.email;
+
+import fr.wseduc.webutils.eventbus.ResultMessage;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncError;
+import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncResult;
+
+/**
+ * Drive a bulk send : the recipients are pulled from the iterator one batch at a time, only when
+ * a batch slot is free, so at most batch-size * concurrency messages are held in memory.
+ * The messages of a batch share the subject, body, attachments and headers instances of their rendering,
+ * only their "to" differ. All the state is confined to the context the send was started on.
+ */
+final class BulkEmail {
+
+	private static final int MAX_ERRORS = 10;
+
+	private final NotificationHelper sender;
+	private final Context context;
+	private final Iterator<BulkRecipient> recipients;
+	private final Function<BulkRecipient, Future<JsonObject>> contents;
+	private final JsonObject message;
+	private final int batchSize;
+	private final int concurrency;
+	private final Handler<AsyncResult<Message<JsonObject>>> handler;
+	private final JsonArray errors = new JsonArray();
+	private int inFlight = 0;
+	private long sent = 0;
+	private long failed = 0;
+	private boolean completed = false;
+
+	/**
+	 * @param contents resolve the "subject" and "body" of a recipient
+	 * @param message the fields shared by all the messages ("from", "attachments", "headers")
+	 */
+	BulkEmail(NotificationHelper sender, Context context, Iterator<BulkRecipient> recipients,
+			Function<BulkRecipient, Future<JsonObject>> contents, JsonObject message, int batchSize,
+			int concurrency, Handler<AsyncResult<Message<JsonObject>>> handler) {
+		this.sender = sender;
+		this.context = context;
+		this.recipients = recipients;
+		this.contents = contents;
+		this.message = message;
+		this.batchSize = Math.max(1, batchSize);
+		this.concurrency = Math.max(1, concurrency);
+		this.handler = handler;
+	}
+
+	void start() {
+		context.runOnContext(v -> pump());
+	}
+
+	private void pump() {
+		while (inFlight < concurrency) {
+			final List<BulkRecipient> batch = nextBatch();
+			if (batch.isEmpty()) {
+				break;
+			}
+			inFlight++;
+			dispatch(batch);
+		}
+		if (inFlight == 0 && !completed) {
+			completed = true;
+			final JsonObject result = new JsonObject().put("sent", sent).put("failed", failed);
+			if (failed == 0) {
+				handleAsyncResult(new ResultMessage(result), handler);
+			} else {
+				handleAsyncError(result.put("errors", errors).encode(), handler);
+			}
+		}
+	}
+
+	private List<BulkRecipient> nextBatch() {
+		final List<BulkRecipient> batch = new ArrayList<>(batchSize);
+		while (batch.size() < batchSize && recipients.hasNext()) {
+			final BulkRecipient recipient = recipients.next();
+			if (recipient == null || recipient.getTo() == null || recipient.getTo().trim().isEmpty()) {
+				failed(1, "invalid.recipient");
+				continue;
+			}
+			batch.add(recipient);
+		}
+		return batch;
+	}
+
+	private void dispatch(final List<BulkRecipient> batch) {
+		final List<Future<JsonObject>> futures = new ArrayList<>(batch.size());
+		for (BulkRecipient recipient : batch) {
+			Future<JsonObject> content;
+			try {
+				content = contents.apply(recipient);
+			} catch (RuntimeException e) {
+				// counted as a failed recipient, the batch must still complete
+				content = Future.failedFuture(e);
+			}
+			futures.add(content);
+		}
+		Future.join(futures).onComplete(ar -> context.runOnContext(v -> {
+			final List<JsonObject> messages = new ArrayList<>(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				final Future<JsonObject> content = futures.get(i);
+				if (content.failed()) {
+					failed(1, content.cause().getMessage());
+					continue;
+				}
+				// shallow copy : the attachments and headers arrays are shared, not duplicated
+				messages.add(new JsonObject(new HashMap<>(message.getMap()))
+						.put("to", new JsonArray().add(batch.get(i).getTo()))
+						.put("subject", content.result().getString("subject"))
+						.put("body", content.result().getString("body")));
+			}
+			if (messages.isEmpty()) {
+				done();
+				return;
+			}
+			sender.sendEmails(messages, res -> context.runOnContext(v2 -> {
+				if (res.failed()) {
+					failed(messages.size(), res.cause().getMessage());
+				} else {
+					final JsonObject body = res.result().body();
+					final int f = body != null ? body.getInteger("failed", 0) : 0;
+					sent += messages.size() - f;
+					if (f > 0) {
+						failed(f, null);
+						final JsonArray errs = body.getJsonArray("errors");
+						if (errs != null) {
+							for (Object e : errs) {
+								error(String.valueOf(e));
+							}
+						}
+					}
+				}
+				done();
+			}));
+		}));
+	}
+
+	private void done() {
+		inFlight--;
+		pump();
+	}
+
+	private void failed(int count, String error) {
+		failed += count;
+		if (error != null) {
+			error(error);
+		}
+	}
+
+	private void error(String error) {
+		if (errors.size() < MAX_ERRORS && !errors.contains(error)) {
+			errors.add(error);
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.email;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A recipient of {@link NotificationHelper#sendBulkEmail}. Recipients without params share the rendering
+ * of their language, the params of a recipient are merged over the shared ones and trigger its own rendering.
+ */
+public final class BulkRecipient {
+
+	private final String to;
+	private final String language;
+	private final JsonObject params;
+
+	public BulkRecipient(String to) {
+		this(to, null, null);
+	}
+
+	public BulkRecipient(String to, String language) {
+		this(to, language, null);
+	}
+
+	/**
+	 * @param to the email address
+	 * @param language the Accept-Language to render with, the one of the request when null
+	 * @param params the template params specific to this recipient, may be null
+	 */
+	public BulkRecipient(String to, String language, JsonObject params) {
+		this.to = to;
+		this.language = language;
+		this.params = params;
+	}
+
+	public String getTo() {
+		return to;
+	}
+
+	public String getLanguage() {
+		return language;
+	}
+
+	public JsonObject getParams() {
+		return params;
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.email;
+
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of the mails of a {@link QueuedEmailSender}.<p>
+ * Each line is a JSON record : <code>{"add":id,"mail":{...},"at":timestamp}</code> when a mail is queued,
+ * <code>{"retry":id,"attempts":n}</code> after a failed attempt, with <code>"to":[...]</code> when only some
+ * recipients are sent again, and <code>{"done":id}</code> when the mail
+ * left the queue. Replaying the lines gives the mails still queued. The journal is rewritten with these mails
+ * only when it grows too much.<p>
+ * Every method is blocking.
+ */
+final class EmailJournal {
+
+	private static final Logger log = LoggerFactory.getLogger(EmailJournal.class);
+
+	private final Path file;
+	private final Path failed;
+	private final boolean sync;
+	private FileChannel channel;
+	private FileLock lock;
+
+	EmailJournal(Path directory, boolean sync) {
+		this.file = directory.resolve("queue.log");
+		this.failed = directory.resolve("failed.log");
+		this.sync = sync;
+	}
+
+	/**
+	 * Open the journal and lock it, so two senders can't share it.
+	 * @return the mails queued, by id, or null if the journal is used by another sender
+	 */
+	Map<String, JsonObject> open() throws IOException {
+		Files.createDirectories(file.getParent());
+		// the channel only appends, the records are replayed with a reader
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			channel.close();
+			channel = null;
+			return null;
+		}
+		final Map<String, JsonObject> queued = replay();
+		endLastLine();
+		return queued;
+	}
+
+	/**
+	 * End the last line when a crash tore it, otherwise the next record would be appended to it and lost.
+	 */
+	private void endLastLine() throws IOException {
+		final long size = channel.size();
+		if (size == 0) {
+			return;
+		}
+		final ByteBuffer last = ByteBuffer.allocate(1);
+		try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+			reader.read(last, size - 1);
+		}
+		if (last.get(0) != '\n') {
+			channel.write(ByteBuffer.wrap(new byte[] { '\n' }));
+			if (sync) {
+				channel.force(false);
+			}
+		}
+	}
+
+	private Map<String, JsonObject> replay() throws IOException {
+		final Map<String, JsonObject> queued = new LinkedHashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) continue;
+				final JsonObject record;
+				try {
+					record = new JsonObject(line);
+				} catch (DecodeException e) {
+					// last line of a journal written during a crash
+					log.warn("Skip invalid line in mail journal " + file);
+					continue;
+				}
+				if (record.containsKey("add")) {
+					queued.put(record.getString("add"), record);
+				} else if (record.containsKey("retry")) {
+					final JsonObject add = queued.get(record.getString("retry"));
+					if (add != null) {
+						add.put("attempts", record.getInteger("attempts", 0));
+						if (record.getJsonArray("to") != null) {
+							add.getJsonObject("mail").put("to", record.getJsonArray("to"));
+						}
+					}
+				} else if (record.containsKey("done")) {
+					queued.remove(record.getString("done"));
+				}
+			}
+		}
+		return queued;
+	}
+
+	static JsonObject add(String id, JsonObject mail, long at, int attempts) {
+		final JsonObject record = new JsonObject().put("add", id).put("mail", mail).put("at", at);
+		if (attempts > 0) {
+			record.put("attempts", attempts);
+		}
+		return record;
+	}
+
+	static JsonObject retry(String id, int attempts, JsonArray to) {
+		final JsonObject record = new JsonObject().put("retry", id).put("attempts", attempts);
+		if (to != null) {
+			record.put("to", to);
+		}
+		return record;
+	}
+
+	static JsonObject done(String id) {
+		return new JsonObject().put("done", id);
+	}
+
+	void append(JsonObject record, boolean force) throws IOException {
+		write(channel, record);
+		if (force && sync) {
+			channel.force(false);
+		}
+	}
+
+	void appendFailed(JsonObject record) throws IOException {
+		try (FileChannel c = FileChannel.open(failed, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND)) {
+			write(c, record);
+		}
+	}
+
+	/**
+	 * Rewrite the journal with the given records only.
+	 */
+	void compact(Collection<JsonObject> records) throws IOException {
+		final Path tmp = file.resolveSibling("queue.log.tmp");
+		try (FileChannel c = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (JsonObject record : records) {
+				write(c, record);
+			}
+			c.force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		final FileChannel previous = channel;
+		channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		lock = channel.tryLock();
+		previous.close();
+	}
+
+	private static void write(FileChannel c, JsonObject record) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap((record.encode() + "\n").getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			c.write(buffer);
+		}
+	}
+
+	void close() {
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			log.error("Error closing mail journal " + file, e);
+		}
+	}
+
+}
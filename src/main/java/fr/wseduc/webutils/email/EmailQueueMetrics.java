@@ -0,0 +1,87 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.email;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static fr.wseduc.webutils.metrics.MetricsUtils.setTimerSla;
+import static java.util.Collections.emptyList;
+
+/**
+ * Depth, latency and outcomes of the queue of a {@link QueuedEmailSender}.
+ */
+final class EmailQueueMetrics {
+
+	private final Timer latency;
+	private final Counter sent;
+	private final Counter retried;
+	private final Counter failed;
+
+	private EmailQueueMetrics(MeterRegistry registry, String provider, Supplier<Number> depth) {
+		Gauge.builder("email.queue.size", depth)
+				.tag("provider", provider)
+				.description("number of mails waiting to be sent")
+				.register(registry);
+		latency = setTimerSla(
+				Timer.builder("email.queue.latency")
+				.tag("provider", provider)
+				.description("time between the queuing of a mail and its sending"),
+				emptyList(), 60000
+		).register(registry);
+		sent = Counter.builder("email.queue.sent")
+				.tag("provider", provider)
+				.description("number of mails sent from the queue")
+				.register(registry);
+		retried = Counter.builder("email.queue.retried")
+				.tag("provider", provider)
+				.description("number of failed attempts to send a mail which will be retried")
+				.register(registry);
+		failed = Counter.builder("email.queue.failed")
+				.tag("provider", provider)
+				.description("number of mails given up after the last attempt")
+				.register(registry);
+	}
+
+	/**
+	 * @return the metrics of the queue, or null if Micrometer isn't configured
+	 */
+	static EmailQueueMetrics create(String provider, Supplier<Number> depth) {
+		final MeterRegistry registry = BackendRegistries.getDefaultNow();
+		return registry != null ? new EmailQueueMetrics(registry, provider, depth) : null;
+	}
+
+	void sent(long queuedAt) {
+		sent.increment();
+		latency.record(System.currentTimeMillis() - queuedAt, TimeUnit.MILLISECONDS);
+	}
+
+	void retried() {
+		retried.increment();
+	}
+
+	void failed() {
+		failed.increment();
+	}
+
+}
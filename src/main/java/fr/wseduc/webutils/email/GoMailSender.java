@@ -43,6 +43,7 @@ import java.text.SimpleDateFormat;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -54,7 +55,7 @@ import static fr.wseduc.webutils.Utils.isNotEmpty;
 public class GoMailSender extends NotificationHelper implements EmailSender {
 
 	private static final Logger log = LoggerFactory.getLogger(GoMailSender.class);
-	private final HttpClient httpClient;
+	private final MailHttpClient httpClient;
 	private final String platform;
 	private final String basicAuthHeader;
 	private final ObjectMapper mapper;
@@ -76,13 +77,7 @@ public class GoMailSender extends NotificationHelper implements EmailSender {
 			}
 			basicAuthHeader = "Basic " + Base64.getEncoder().encodeToString(userAndPassword.toByteArray());
 			final URI uri = new URI(config.getString("uri"));
-			final HttpClientOptions options = new HttpClientOptions()
-					.setDefaultHost(uri.getHost())
-					.setDefaultPort(uri.getPort())
-					.setSsl("https".equals(uri.getScheme()))
-					.setMaxPoolSize(16)
-					.setKeepAlive(false);
-			httpClient = vertx.createHttpClient(options);
+			httpClient = new MailHttpClient(vertx, uri, config, "gomail");
 			platform = config.getString("platform");
 			mapper = new ObjectMapper();
 			mapper.setDateFormat(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX"));
@@ -119,7 +114,8 @@ public class GoMailSender extends NotificationHelper implements EmailSender {
 				}
 			};
 			for (Object to : json.getJsonArray("to")) {
-				send(json.copy().put("to", new JsonArray().add(to.toString())), h);
+				// shallow copy, the body and attachments are shared by the recipients
+				send(new JsonObject(new HashMap<>(json.getMap())).put("to", new JsonArray().add(to.toString())), h);
 			}
 		} else {
 			send(json, handler);
@@ -186,7 +182,10 @@ public class GoMailSender extends NotificationHelper implements EmailSender {
 						handler.handle(new DefaultAsyncResult<>(new AsyncResultException("GoMail HTTP status: " + resp.statusMessage())));
 					}
 				})
-				.onFailure(e -> log.error("Error sending to gomail.", e));
+				.onFailure(e -> {
+					log.error("Error sending to gomail.", e);
+					handleAsyncError(e.getMessage(), handler);
+				});
 	}
 
 	@Override
@@ -0,0 +1,193 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.email;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.FileProps;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.WriteStream;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The attachments of a mail are json objects with a "name", an optional "contentType" and their content as either :
+ * <ul>
+ *     <li>"content" : the base64 encoded content, kept for compatibility</li>
+ *     <li>"data" : a {@link io.vertx.core.buffer.Buffer} of the raw content</li>
+ *     <li>"path" : the path of a file holding the raw content, read only when the mail is written</li>
+ * </ul>
+ * The sizes are computed from the lengths and the file properties, without decoding nor reading the contents.
+ */
+final class MailAttachments {
+
+	/** Multiple of 3, so that the encoded chunks can be concatenated without padding. */
+	static final int CHUNK_SIZE = 3 * 16 * 1024;
+
+	private static final Pattern LINE_BREAKS = Pattern.compile("[\\r\\n]");
+
+	private MailAttachments() {}
+
+	static boolean isValid(Object o) {
+		if (!(o instanceof JsonObject)) return false;
+		final JsonObject att = (JsonObject) o;
+		return att.getString("name") != null &&
+				(att.getValue("content") instanceof String || rawData(att) != null ||
+				att.getValue("path") instanceof String);
+	}
+
+	/**
+	 * @return whether the attachment has to be encoded when written, i.e. is not given as base64 "content".
+	 */
+	static boolean isStreamed(JsonObject att) {
+		return !(att.getValue("content") instanceof String);
+	}
+
+	static boolean isFile(JsonObject att) {
+		return isStreamed(att) && rawData(att) == null;
+	}
+
+	/**
+	 * @return the raw sizes of the attachments, in the order of the array.
+	 */
+	static Future<long[]> sizes(FileSystem fs, JsonArray attachments) {
+		final long[] sizes = new long[attachments.size()];
+		final List<Future<FileProps>> props = new ArrayList<>();
+		for (int i = 0; i < sizes.length; i++) {
+			final JsonObject att = attachments.getJsonObject(i);
+			final Object data = rawData(att);
+			if (att.getValue("content") instanceof String) {
+				sizes[i] = decodedLength(att.getString("content"));
+			} else if (data instanceof Buffer) {
+				sizes[i] = ((Buffer) data).length();
+			} else if (data instanceof String) { // buffers are encoded as base64 strings once serialized
+				sizes[i] = decodedLength((String) data);
+			} else {
+				final int index = i;
+				props.add(fs.props(att.getString("path")).onSuccess(p -> sizes[index] = p.size()));
+			}
+		}
+		if (props.isEmpty()) {
+			return Future.succeededFuture(sizes);
+		}
+		return Future.all(props).map(sizes);
+	}
+
+	static long encodedLength(long size) {
+		return ((size + 2) / 3) * 4;
+	}
+
+	static long decodedLength(String base64) {
+		int length = base64.length();
+		while (length > 0 && base64.charAt(length - 1) == '=') {
+			length--;
+		}
+		return length * 3L / 4;
+	}
+
+	/**
+	 * @return the raw content of an attachment given as "content" or "data", null for a file.
+	 */
+	static Buffer data(JsonObject att) {
+		if (att.getValue("content") instanceof String) {
+			final String content = att.getString("content");
+			try {
+				// the MIME decoder would skip the invalid characters instead of failing
+				return Buffer.buffer(Base64.getDecoder().decode(LINE_BREAKS.matcher(content).replaceAll("")));
+			} catch (IllegalArgumentException e) {
+				// not base64, attach the text as is
+				return Buffer.buffer(content);
+			}
+		}
+		return rawData(att) != null ? att.getBuffer("data") : null;
+	}
+
+	static Future<AsyncFile> open(FileSystem fs, JsonObject att) {
+		return fs.open(att.getString("path"), new OpenOptions().setRead(true).setWrite(false).setCreate(false));
+	}
+
+	/**
+	 * Write the base64 encoded content of the attachment, files being read and encoded one chunk at a time
+	 * while respecting the back pressure of the output.
+	 */
+	static Future<Void> writeBase64(FileSystem fs, JsonObject att, WriteStream<Buffer> out) {
+		if (att.getValue("content") instanceof String) {
+			return out.write(Buffer.buffer(att.getString("content")));
+		}
+		if (rawData(att) != null) {
+			final Buffer data = att.getBuffer("data");
+			Future<Void> written = Future.succeededFuture();
+			for (int i = 0; i < data.length(); i += CHUNK_SIZE) {
+				final int start = i;
+				final int end = Math.min(i + CHUNK_SIZE, data.length());
+				written = written.compose(v -> out.write(encode(data.getBytes(start, end), 0, end - start)));
+			}
+			return written;
+		}
+		return open(fs, att).compose(file -> {
+			final Promise<Void> promise = Promise.promise();
+			final byte[] carry = new byte[2];
+			final int[] carried = { 0 };
+			file.setReadBufferSize(CHUNK_SIZE);
+			file.exceptionHandler(promise::tryFail);
+			file.handler(buffer -> {
+				final byte[] bytes = new byte[carried[0] + buffer.length()];
+				System.arraycopy(carry, 0, bytes, 0, carried[0]);
+				buffer.getBytes(bytes, carried[0]);
+				final int length = bytes.length - bytes.length % 3;
+				if (length > 0) {
+					out.write(encode(bytes, 0, length));
+				}
+				carried[0] = bytes.length - length;
+				System.arraycopy(bytes, length, carry, 0, carried[0]);
+				if (out.writeQueueFull()) {
+					file.pause();
+					out.drainHandler(v -> file.resume());
+				}
+			});
+			file.endHandler(v -> {
+				if (carried[0] > 0) {
+					out.write(encode(carry, 0, carried[0]));
+				}
+				promise.tryComplete();
+			});
+			return promise.future().onComplete(ar -> file.close());
+		});
+	}
+
+	/**
+	 * getValue would encode a buffer to base64.
+	 */
+	private static Object rawData(JsonObject att) {
+		return att.getMap().get("data");
+	}
+
+	private static Buffer encode(byte[] bytes, int offset, int length) {
+		return Buffer.buffer(Base64.getEncoder().encode(ByteBuffer.wrap(bytes, offset, length)).array());
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.email;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keep-alive HTTP client of the mail providers APIs.<p>
+ * The client is shared by the senders using the same provider uri, and negotiates HTTP/2 with ALPN on https
+ * when the provider supports it. Options, in the <code>http-client</code> object of the sender configuration :
+ * <pre>
+ * {
+ *   "pool-size" : 16,
+ *   "keep-alive-timeout" : 60,   // seconds an idle connection is kept
+ *   "request-timeout" : 30000,   // ms without data before a request fails
+ *   "http2" : true,
+ *   "pipelining" : false
+ * }
+ * </pre>
+ * The number of requests and of opened connections are counted, their difference is the number of requests
+ * which reused a connection. Like the client, the counters are shared by the senders using the same provider uri.
+ */
+final class MailHttpClient {
+
+	private static final Logger log = LoggerFactory.getLogger(MailHttpClient.class);
+
+	// counters of each shared client, by client name
+	private static final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<>();
+
+	private final HttpClient client;
+	private final long requestTimeout;
+	private final Counters shared;
+
+	MailHttpClient(Vertx vertx, URI uri, JsonObject config, String provider) {
+		final JsonObject conf = config.getJsonObject("http-client", new JsonObject());
+		final boolean ssl = "https".equals(uri.getScheme());
+		final HttpClientOptions options = new HttpClientOptions()
+				.setDefaultHost(uri.getHost())
+				.setDefaultPort(uri.getPort())
+				.setSsl(ssl)
+				.setMaxPoolSize(conf.getInteger("pool-size", 16))
+				.setKeepAlive(true)
+				.setKeepAliveTimeout(conf.getInteger("keep-alive-timeout", 60))
+				.setPipelining(conf.getBoolean("pipelining", false))
+				.setShared(true)
+				.setName(provider + "-" + uri.getHost() + ":" + uri.getPort());
+		this.shared = counters.computeIfAbsent(options.getName(), name -> new Counters(provider, name));
+		if (ssl && conf.getBoolean("http2", true)) {
+			options.setProtocolVersion(HttpVersion.HTTP_2)
+					.setUseAlpn(true)
+					.setHttp2KeepAliveTimeout(conf.getInteger("keep-alive-timeout", 60));
+		}
+		this.client = vertx.httpClientBuilder()
+				.with(options)
+				.withConnectHandler(connection -> shared.connections.incrementAndGet())
+				.build();
+		this.requestTimeout = conf.getLong("request-timeout", 30000L);
+	}
+
+	Future<HttpClientRequest> request(RequestOptions options) {
+		shared.requests.incrementAndGet();
+		if (requestTimeout > 0) {
+			options.setIdleTimeout(requestTimeout);
+		}
+		return client.request(options);
+	}
+
+	long getRequests() {
+		return shared.requests.get();
+	}
+
+	long getConnections() {
+		return shared.connections.get();
+	}
+
+	/**
+	 * Counters of a shared client, registered once : the meter registry returns the first counter registered
+	 * with a name and tags, so counters of each instance would not be exported.
+	 */
+	private static final class Counters {
+
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong connections = new AtomicLong();
+
+		private Counters(String provider, String client) {
+			try {
+				Metrics.bind(this, provider, client);
+			} catch (LinkageError e) {
+				log.debug("Micrometer isn't available, the mail http client won't be measured");
+			}
+		}
+	}
+
+	private static final class Metrics {
+
+		private static void bind(Counters counters, String provider, String client) {
+			final MeterRegistry registry = BackendRegistries.getDefaultNow();
+			if (registry == null) {
+				return;
+			}
+			FunctionCounter.builder("email.http.requests", counters.requests, AtomicLong::get)
+					.tag("provider", provider)
+					.tag("client", client)
+					.description("number of requests sent to the mail provider")
+					.register(registry);
+			FunctionCounter.builder("email.http.connections", counters.connections, AtomicLong::get)
+					.tag("provider", provider)
+					.tag("client", client)
+					.description("number of connections opened to the mail provider, each one with its handshakes")
+					.register(registry);
+		}
+	}
+
+}
@@ -17,11 +17,19 @@
 package fr.wseduc.webutils.email;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import fr.wseduc.webutils.I18n;
+import fr.wseduc.webutils.eventbus.ResultMessage;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
@@ -33,6 +41,7 @@ import io.vertx.core.logging.LoggerFactory;
 import fr.wseduc.webutils.http.Renders;
 
 import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncError;
+import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncResult;
 
 public abstract class NotificationHelper implements SendEmail {
 
@@ -40,8 +49,12 @@ public abstract class NotificationHelper implements SendEmail {
 	protected static final Logger log = LoggerFactory.getLogger(NotificationHelper.class);
 	protected final String senderEmail;
 	protected final String host;
+	private final Vertx vertx;
+	private final int bulkBatchSize;
+	private final int bulkConcurrency;
 
 	public NotificationHelper(Vertx vertx, JsonObject config) {
+		this.vertx = vertx;
 		this.render = new Renders(vertx, config);
 		final Object encodedEmailConfig = vertx.sharedData().getLocalMap("server").get("emailConfig");
 
@@ -56,6 +69,9 @@ public abstract class NotificationHelper implements SendEmail {
 
 		this.senderEmail = config.getString("email", defaultMail);
 		this.host = config.getString("host", defaultHost);
+		final JsonObject bulk = config.getJsonObject("bulk", new JsonObject());
+		this.bulkBatchSize = bulk.getInteger("batch-size", 50);
+		this.bulkConcurrency = bulk.getInteger("concurrency", 2);
 	}
 
 	public void sendEmail(JsonObject config, HttpServerRequest request, String to, String cc, String bcc,
@@ -146,14 +162,7 @@ public abstract class NotificationHelper implements SendEmail {
 		}
 
 		if(attachments != null){
-			JsonArray attList = new JsonArray();
-			for(Object o : attachments) {
-				if(!(o instanceof JsonObject)) continue;
-				JsonObject att = (JsonObject)o;
-				if(att.getString("name") == null || att.getString("content") == null) continue;
-				attList.add(att);
-			}
-			json.put("attachments", attList);
+			json.put("attachments", validAttachments(attachments));
 		}
 
 		if (translateSubject) {
@@ -184,6 +193,106 @@ public abstract class NotificationHelper implements SendEmail {
 		}
 	}
 
+	public void sendBulkEmail(JsonObject config, HttpServerRequest request, Iterator<BulkRecipient> recipients,
+			String subject, String templateBody, JsonObject templateParams, boolean translateSubject,
+			final Handler<AsyncResult<Message<JsonObject>>> handler) {
+		sendBulkEmail(config, request, recipients, senderEmail, subject, null, templateBody,
+				templateParams, translateSubject, null, handler);
+	}
+
+	/**
+	 * Send the same template to each recipient, in its own mail. The subject is translated and the template
+	 * rendered once for each language, recipients with their own params are rendered separately.
+	 * The recipients are consumed lazily, at most batch-size * concurrency of them (see the "bulk" config)
+	 * being pending at once, and the messages are handed over to {@link #sendEmails} one batch at a time.
+	 * The result carries the "sent" and "failed" counts, it is an error as soon as one of the mails failed.
+	 */
+	public void sendBulkEmail(JsonObject config, HttpServerRequest request, Iterator<BulkRecipient> recipients,
+			String from, String subject, JsonArray attachments, String templateBody, JsonObject templateParams,
+			boolean translateSubject, JsonArray headers, final Handler<AsyncResult<Message<JsonObject>>> handler) {
+		final JsonObject message = new JsonObject().put("from", from);
+		if (attachments != null) {
+			message.put("attachments", validAttachments(attachments));
+		}
+		if (headers != null) {
+			message.put("headers", headers);
+		}
+		// without request, e.g. for a scheduled send, the recipients without language get the default one
+		final String requestLanguage = request != null ? I18n.acceptLanguage(request) : "fr";
+		final Map<String, String> subjects = new HashMap<>();
+		final Map<String, Future<JsonObject>> renderings = new HashMap<>();
+		final Function<BulkRecipient, Future<JsonObject>> contents = recipient -> {
+			final String language = recipient.getLanguage() != null ? recipient.getLanguage() : requestLanguage;
+			final String s = !translateSubject ? subject : subjects.computeIfAbsent(language, l ->
+					I18n.getInstance(config.getString("main")).translate(subject, getHost(request), l));
+			if (recipient.getParams() == null) {
+				return renderings.computeIfAbsent(language, l -> renderContent(request, l, s, templateBody, templateParams));
+			}
+			final JsonObject params = templateParams != null ?
+					new JsonObject(new HashMap<>(templateParams.getMap())).mergeIn(recipient.getParams()) :
+					recipient.getParams();
+			return renderContent(request, language, s, templateBody, params);
+		};
+		new BulkEmail(this, vertx.getOrCreateContext(), recipients, contents, message,
+				bulkBatchSize, bulkConcurrency, handler).start();
+	}
+
+	private Future<JsonObject> renderContent(HttpServerRequest request, String language, String subject,
+			String templateBody, JsonObject params) {
+		if (params == null) {
+			return Future.succeededFuture(new JsonObject().put("subject", subject).put("body", templateBody));
+		}
+		final Promise<JsonObject> promise = Promise.promise();
+		final Handler<String> handler = body -> {
+			if (body != null) {
+				promise.complete(new JsonObject().put("subject", subject).put("body", body));
+			} else {
+				log.error("Message is null.");
+				promise.fail("Message is null.");
+			}
+		};
+		if (request != null) {
+			render.processTemplate(request, templateBody, params, language, handler);
+		} else {
+			render.processTemplate(host, templateBody, params, language, handler);
+		}
+		return promise.future();
+	}
+
+	/**
+	 * Send a batch of a bulk send, the messages only differ by their "to", "subject" and "body".
+	 * The result body may report partial failures with "failed" and "errors", a failed result means
+	 * that none of the messages were sent. Override it to use a batch endpoint of the provider.
+	 */
+	protected void sendEmails(List<JsonObject> messages, final Handler<AsyncResult<Message<JsonObject>>> handler) {
+		final AtomicInteger remaining = new AtomicInteger(messages.size());
+		final JsonArray errors = new JsonArray();
+		final Handler<AsyncResult<Message<JsonObject>>> h = ar -> {
+			if (ar.failed()) {
+				errors.add(ar.cause().getMessage());
+			}
+			if (remaining.decrementAndGet() == 0) {
+				if (errors.size() == messages.size()) {
+					handleAsyncError(errors.getString(0), handler);
+				} else {
+					handleAsyncResult(new ResultMessage().put("failed", errors.size()).put("errors", errors), handler);
+				}
+			}
+		};
+		for (JsonObject message : messages) {
+			sendEmail(message, h);
+		}
+	}
+
+	private static JsonArray validAttachments(JsonArray attachments) {
+		final JsonArray attList = new JsonArray();
+		for(Object o : attachments) {
+			if(!MailAttachments.isValid(o)) continue;
+			attList.add(o);
+		}
+		return attList;
+	}
+
 	protected abstract void sendEmail(JsonObject json, Handler<AsyncResult<Message<JsonObject>>> handler);
 
 	public String getSenderEmail() {
@@ -0,0 +1,430 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.email;
+
+import fr.wseduc.webutils.Either;
+import fr.wseduc.webutils.eventbus.ResultMessage;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncError;
+import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncResult;
+
+/**
+ * Sender putting the mails in a local queue before giving them to another sender.<p>
+ * The queue is an append-only journal on disk, so the mails queued survive a restart. The mails are sent by
+ * batches, within a rate limit (token bucket) and a maximum number of sends in flight. A failed send is retried
+ * with an exponential backoff, then written in <code>failed.log</code> after the last attempt. When the sender
+ * reports the recipients which failed (<code>{"errors":{recipient:message}}</code>, see {@link SMTPSender}),
+ * only these recipients are sent again.<p>
+ * The handler of a send is called once the mail is queued. Configuration, in the <code>queue</code> object of
+ * the sender configuration :
+ * <pre>
+ * {
+ *   "path" : "mail-queue",      // directory of the journal, one per sender instance
+ *   "rate" : 10,                // mails per second, 0 for no limit
+ *   "burst" : 20,
+ *   "max-in-flight" : 8,
+ *   "batch-size" : 50,
+ *   "max-attempts" : 5,
+ *   "retry-delay" : 1000,       // ms, doubled on each attempt
+ *   "max-retry-delay" : 600000,
+ *   "send-timeout" : 60000,
+ *   "sync" : true,              // fsync the journal when a mail is queued
+ *   "compact-threshold" : 1000
+ * }
+ * </pre>
+ * If the journal can't be opened or is used by another sender, the mails are given to the sender directly.
+ */
+public class QueuedEmailSender extends NotificationHelper implements EmailSender {
+
+	private static final Logger log = LoggerFactory.getLogger(QueuedEmailSender.class);
+
+	private final Vertx vertx;
+	private final Context context;
+	private final NotificationHelper sender;
+	private final EmailJournal journal;
+	private final TokenBucket bucket;
+	private final int maxInFlight;
+	private final int batchSize;
+	private final int maxAttempts;
+	private final long retryDelay;
+	private final long maxRetryDelay;
+	private final long sendTimeout;
+	private final int compactThreshold;
+	private final EmailQueueMetrics metrics;
+
+	private final Map<String, Entry> queued = new LinkedHashMap<>();
+	private final ArrayDeque<Entry> ready = new ArrayDeque<>();
+	private final PriorityQueue<Entry> retries = new PriorityQueue<>((a, b) -> Long.compare(a.due, b.due));
+	private boolean opened;
+	private boolean disabled;
+	private int inFlight;
+	private int doneSinceCompaction;
+	private long timer = -1L;
+
+	private static final class Entry {
+
+		private final String id;
+		private JsonObject mail;
+		private final long queuedAt;
+		private int attempts;
+		private long due;
+
+		private Entry(String id, JsonObject mail, long queuedAt, int attempts) {
+			this.id = id;
+			this.mail = mail;
+			this.queuedAt = queuedAt;
+			this.attempts = attempts;
+		}
+	}
+
+	/**
+	 * @param sender Sender of the mails, its hard bounces are also used when it is an {@link EmailSender}
+	 */
+	public QueuedEmailSender(Vertx vertx, JsonObject config, NotificationHelper sender) {
+		super(vertx, config);
+		final JsonObject queue = config.getJsonObject("queue", new JsonObject());
+		this.vertx = vertx;
+		this.context = vertx.getOrCreateContext();
+		this.sender = sender;
+		this.journal = new EmailJournal(Paths.get(queue.getString("path", "mail-queue")),
+				queue.getBoolean("sync", true));
+		this.bucket = new TokenBucket(queue.getDouble("rate", 10.0), queue.getInteger("burst", 20));
+		this.maxInFlight = queue.getInteger("max-in-flight", 8);
+		this.batchSize = queue.getInteger("batch-size", 50);
+		this.maxAttempts = queue.getInteger("max-attempts", 5);
+		this.retryDelay = queue.getLong("retry-delay", 1000L);
+		this.maxRetryDelay = queue.getLong("max-retry-delay", 600000L);
+		this.sendTimeout = queue.getLong("send-timeout", 60000L);
+		this.compactThreshold = queue.getInteger("compact-threshold", 1000);
+		EmailQueueMetrics m = null;
+		try {
+			m = EmailQueueMetrics.create(sender.getClass().getSimpleName(), this::size);
+		} catch (LinkageError e) {
+			log.debug("Micrometer isn't available, the mail queue won't be measured");
+		}
+		this.metrics = m;
+		blocking(journal::open).onComplete(ar -> {
+			if (ar.succeeded() && ar.result() != null) {
+				for (JsonObject record : ar.result().values()) {
+					final Entry entry = new Entry(record.getString("add"), record.getJsonObject("mail"),
+							record.getLong("at", System.currentTimeMillis()), record.getInteger("attempts", 0));
+					queued.put(entry.id, entry);
+					ready.add(entry);
+				}
+				if (!queued.isEmpty()) {
+					log.info("Resume sending " + queued.size() + " queued mails");
+				}
+				opened = true;
+				dispatch();
+			} else {
+				log.error("Mail queue journal unavailable, mails will be sent without queue",
+						ar.failed() ? ar.cause() : null);
+				disabled = true;
+			}
+		});
+	}
+
+	private <T> Future<T> blocking(Callable<T> action) {
+		// ordered, so the journal records are written in the order they are submitted
+		return context.executeBlocking(action, true);
+	}
+
+	@Override
+	protected void sendEmail(JsonObject json, Handler<AsyncResult<Message<JsonObject>>> handler) {
+		context.runOnContext(v -> enqueue(json, handler));
+	}
+
+	private void enqueue(JsonObject json, Handler<AsyncResult<Message<JsonObject>>> handler) {
+		if (disabled) {
+			sender.sendEmail(json, handler);
+			return;
+		}
+		final Entry entry = new Entry(UUID.randomUUID().toString(), json, System.currentTimeMillis(), 0);
+		queued.put(entry.id, entry);
+		final JsonObject record = EmailJournal.add(entry.id, json, entry.queuedAt, 0);
+		blocking(() -> {
+			journal.append(record, true);
+			return null;
+		}).onComplete(ar -> {
+			if (ar.failed()) {
+				queued.remove(entry.id);
+				if (disabled) {
+					// queued while the journal was opening
+					sender.sendEmail(json, handler);
+				} else {
+					log.error("Error writing mail in queue journal", ar.cause());
+					handleAsyncError("mail.queue.error", handler);
+				}
+				return;
+			}
+			handleAsyncResult(new ResultMessage(), handler);
+			if (queued.containsKey(entry.id)) {
+				ready.add(entry);
+				dispatch();
+			}
+		});
+	}
+
+	private void dispatch() {
+		if (!opened) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		while (!retries.isEmpty() && retries.peek().due <= now) {
+			ready.add(retries.poll());
+		}
+		int batch = 0;
+		while (!ready.isEmpty() && inFlight < maxInFlight && batch < batchSize) {
+			if (!bucket.tryAcquire(now)) {
+				schedule(bucket.delay());
+				return;
+			}
+			send(ready.poll());
+			batch++;
+		}
+		if (!ready.isEmpty() && inFlight < maxInFlight) {
+			// next batch, after the events already waiting on the context
+			schedule(1L);
+		} else if (ready.isEmpty() && !retries.isEmpty()) {
+			schedule(retries.peek().due - now);
+		}
+	}
+
+	private void schedule(long delay) {
+		if (timer != -1L) {
+			vertx.cancelTimer(timer);
+		}
+		timer = vertx.setTimer(Math.max(1L, delay), id -> {
+			timer = -1L;
+			dispatch();
+		});
+	}
+
+	private void send(Entry entry) {
+		inFlight++;
+		final AtomicBoolean completed = new AtomicBoolean();
+		final long timeout = vertx.setTimer(sendTimeout, id -> {
+			if (completed.compareAndSet(false, true)) {
+				sent(entry, false, "timeout");
+			}
+		});
+		sender.sendEmail(entry.mail, ar -> {
+			if (completed.compareAndSet(false, true)) {
+				vertx.cancelTimer(timeout);
+				context.runOnContext(v -> sent(entry, ar.succeeded(), ar.failed() ? ar.cause().getMessage() : null));
+			}
+		});
+	}
+
+	private void sent(Entry entry, boolean success, String error) {
+		inFlight--;
+		final JsonArray failed = success ? null : failedRecipients(entry.mail, error);
+		if (failed != null) {
+			// shallow copy, the mail given to the sender isn't modified
+			entry.mail = new JsonObject(new HashMap<>(entry.mail.getMap())).put("to", failed);
+		}
+		if (success) {
+			if (metrics != null) {
+				metrics.sent(entry.queuedAt);
+			}
+			done(entry, null);
+		} else if (entry.attempts + 1 >= maxAttempts) {
+			log.error("Give up sending mail " + entry.id + " after " + maxAttempts + " attempts : " + error);
+			if (metrics != null) {
+				metrics.failed();
+			}
+			done(entry, EmailJournal.add(entry.id, entry.mail, entry.queuedAt, entry.attempts + 1)
+					.put("error", error));
+		} else {
+			entry.attempts++;
+			entry.due = System.currentTimeMillis() + backoff(entry.attempts);
+			retries.add(entry);
+			if (metrics != null) {
+				metrics.retried();
+			}
+			final JsonObject record = EmailJournal.retry(entry.id, entry.attempts, failed);
+			blocking(() -> {
+				journal.append(record, false);
+				return null;
+			}).onFailure(t -> log.error("Error writing mail retry in queue journal", t));
+		}
+		dispatch();
+	}
+
+	/**
+	 * @return the recipients of the mail reported in the errors of a partial failure, or null when the error
+	 * isn't detailed by recipient or every recipient failed
+	 */
+	private static JsonArray failedRecipients(JsonObject mail, String error) {
+		final JsonArray to = mail.getJsonArray("to");
+		if (error == null || !error.startsWith("{") || to == null) {
+			return null;
+		}
+		final Object errors;
+		try {
+			errors = new JsonObject(error).getValue("errors");
+		} catch (DecodeException e) {
+			return null;
+		}
+		if (!(errors instanceof JsonObject) || ((JsonObject) errors).isEmpty()) {
+			return null;
+		}
+		final JsonArray failed = new JsonArray();
+		for (Object recipient : to) {
+			if (recipient != null && ((JsonObject) errors).containsKey(recipient.toString())) {
+				failed.add(recipient);
+			}
+		}
+		return failed.isEmpty() || failed.size() == to.size() ? null : failed;
+	}
+
+	private long backoff(int attempts) {
+		final long delay = retryDelay << Math.min(attempts - 1, 30);
+		return delay > 0 ? Math.min(delay, maxRetryDelay) : maxRetryDelay;
+	}
+
+	private void done(Entry entry, JsonObject failedRecord) {
+		queued.remove(entry.id);
+		final JsonObject record = EmailJournal.done(entry.id);
+		final boolean compact = ++doneSinceCompaction >= compactThreshold;
+		final List<JsonObject> remaining;
+		if (compact) {
+			doneSinceCompaction = 0;
+			remaining = new ArrayList<>(queued.size());
+			for (Entry e : queued.values()) {
+				remaining.add(EmailJournal.add(e.id, e.mail, e.queuedAt, e.attempts));
+			}
+		} else {
+			remaining = null;
+		}
+		blocking(() -> {
+			if (failedRecord != null) {
+				journal.appendFailed(failedRecord);
+			}
+			if (remaining != null) {
+				journal.compact(remaining);
+			} else {
+				journal.append(record, false);
+			}
+			return null;
+		}).onFailure(t -> log.error("Error writing mail state in queue journal", t));
+	}
+
+	/**
+	 * @return the number of mails queued, in flight or waiting for a retry
+	 */
+	public int size() {
+		return queued.size();
+	}
+
+	@Override
+	public void hardBounces(Date date, Handler<Either<String, List<Bounce>>> handler) {
+		if (sender instanceof EmailSender) {
+			((EmailSender) sender).hardBounces(date, handler);
+		} else {
+			handler.handle(new Either.Right<>(Collections.emptyList()));
+		}
+	}
+
+	@Override
+	public void hardBounces(Date startDate, Date endDate, Handler<Either<String, List<Bounce>>> handler) {
+		if (sender instanceof EmailSender) {
+			((EmailSender) sender).hardBounces(startDate, endDate, handler);
+		} else {
+			handler.handle(new Either.Right<>(Collections.emptyList()));
+		}
+	}
+
+	/**
+	 * Stop sending and release the journal. The mails still queued will be sent on the next start.
+	 * @return completed once the journal is released
+	 */
+	public Future<Void> close() {
+		final Promise<Void> promise = Promise.promise();
+		context.runOnContext(v -> {
+			opened = false;
+			if (timer != -1L) {
+				vertx.cancelTimer(timer);
+				timer = -1L;
+			}
+			blocking(() -> {
+				journal.close();
+				return (Void) null;
+			}).onComplete(promise);
+		});
+		return promise.future();
+	}
+
+	private static final class TokenBucket {
+
+		private final double rate;
+		private final double capacity;
+		private double tokens;
+		private long last;
+
+		private TokenBucket(double rate, int burst) {
+			this.rate = rate;
+			this.capacity = Math.max(1, burst);
+			this.tokens = capacity;
+			this.last = System.currentTimeMillis();
+		}
+
+		private boolean tryAcquire(long now) {
+			if (rate <= 0) {
+				return true;
+			}
+			tokens = Math.min(capacity, tokens + (now - last) * rate / 1000.0);
+			last = now;
+			if (tokens >= 1.0) {
+				tokens -= 1.0;
+				return true;
+			}
+			return false;
+		}
+
+		private long delay() {
+			return (long) Math.ceil((1.0 - tokens) * 1000.0 / rate);
+		}
+	}
+
+}
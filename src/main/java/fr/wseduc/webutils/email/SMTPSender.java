@@ -8,6 +8,8 @@ import fr.wseduc.webutils.exception.InvalidConfigurationException;
 import io.vertx.core.*;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.FileSystem;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -16,14 +18,31 @@ import io.vertx.ext.mail.*;
 import io.vertx.ext.mail.impl.MailAttachmentImpl;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SMTPSender extends NotificationHelper implements EmailSender {
     private static final Logger log = LoggerFactory.getLogger(SMTPSender.class);
+    private final Vertx vertx;
     private final MailClient client;
     private final boolean splitRecipients;
+    private final int maxConcurrent;
 
     public SMTPSender(Vertx vertx, JsonObject config) throws InvalidConfigurationException {
+        this(vertx, config, MailClient.create(vertx, mailConfig(config)));
+    }
+
+    /**
+     * @param client client of the SMTP relay, e.g. a stub in tests
+     */
+    SMTPSender(Vertx vertx, JsonObject config, MailClient client) {
         super(vertx, config);
+        this.vertx = vertx;
+        this.client = client;
+        this.maxConcurrent = maxConcurrent(config);
+        this.splitRecipients = config.getBoolean("split-recipients", false);
+    }
+
+    private static MailConfig mailConfig(JsonObject config) throws InvalidConfigurationException {
         if (Objects.isNull(config) || !config.containsKey("hostname") || !config.containsKey("port")) {
             throw new InvalidConfigurationException("missing.parameters");
         }
@@ -45,8 +64,13 @@ public class SMTPSender extends NotificationHelper implements EmailSender {
             smtpConfig.setStarttls(StartTLSOptions.REQUIRED);
         }
 
-        client = MailClient.create(vertx, smtpConfig);
-        splitRecipients = config.getBoolean("split-recipients", false);
+        // keep the connections open between transactions, and never open more than the relay accepts
+        return smtpConfig.setKeepAlive(true)
+                .setMaxPoolSize(config.getInteger("max-pool-size", maxConcurrent(config)));
+    }
+
+    private static int maxConcurrent(JsonObject config) {
+        return Math.max(1, config.getInteger("max-concurrent", 4));
     }
 
     @Override
@@ -67,15 +91,12 @@ public class SMTPSender extends NotificationHelper implements EmailSender {
             return;
         }
 
+        final MailMessage message = getMessage(json);
+        final JsonArray files = getFiles(json);
         if (splitRecipients && json.getJsonArray("to").size() > 1) {
-            List<MailMessage> messages = new ArrayList<>();
-            for (String recipient : (List<String>) json.getJsonArray("to").getList()) {
-                messages.add(getMessage(json.copy().put("to", new JsonArray().add(recipient))));
-            }
-
-            send(messages, handler);
+            new SplitSend(message, files, (List<String>) json.getJsonArray("to").getList(), handler).start();
         } else {
-            send(Collections.singletonList(getMessage(json)), handler);
+            send(message, files, handler);
         }
 
     }
@@ -91,17 +112,23 @@ public class SMTPSender extends NotificationHelper implements EmailSender {
             message.setCc((List<String>) json.getJsonArray("cc").getList());
         }
 
-        if (json.containsKey("bcc") && !json.getJsonArray("bdd").isEmpty()) {
+        if (json.containsKey("bcc") && !json.getJsonArray("bcc").isEmpty()) {
             message.setBcc((List<String>) json.getJsonArray("bcc").getList());
         }
 
         if (json.containsKey("attachments") && Objects.nonNull(json.getJsonArray("attachments"))
                 && !json.getJsonArray("attachments").isEmpty()) {
             List<MailAttachment> attachments = new ArrayList<>();
-            for (JsonObject att : (List<JsonObject>) json.getJsonArray("attachments").getList()) {
+            for (Object o : json.getJsonArray("attachments")) {
+                final JsonObject att = (JsonObject) o;
+                final Buffer data = MailAttachments.data(att);
+                if (data == null) {
+                    continue;
+                }
                 MailAttachment attachment = new MailAttachmentImpl()
                         .setName(att.getString("name"))
-                        .setData(Buffer.buffer(att.getString("content")));
+                        .setContentType(att.getString("contentType"))
+                        .setData(data);
 
                 attachments.add(attachment);
             }
@@ -112,23 +139,149 @@ public class SMTPSender extends NotificationHelper implements EmailSender {
         return message;
     }
 
-    private void send(List<MailMessage> messages, Handler<AsyncResult<Message<JsonObject>>> handler) {
-        List<Future> futures = new ArrayList<>();
-        for (MailMessage message : messages) {
-            Promise<Void> promise = Promise.promise();
-            futures.add(promise.future());
-            client.sendMail(message, ar -> {
+    private JsonArray getFiles(JsonObject json) {
+        final JsonArray files = new JsonArray();
+        if (Objects.nonNull(json.getJsonArray("attachments"))) {
+            for (Object o : json.getJsonArray("attachments")) {
+                if (MailAttachments.isFile((JsonObject) o)) {
+                    files.add(o);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * A stream can only be read once : the files are opened for each transaction, and the client
+     * reads and encodes them one chunk at a time while writing the message.
+     */
+    private void sendMail(MailMessage message, JsonArray files, Handler<AsyncResult<MailResult>> handler) {
+        if (files.isEmpty()) {
+            client.sendMail(message, handler);
+            return;
+        }
+        final FileSystem fs = vertx.fileSystem();
+        final List<Future<AsyncFile>> opened = new ArrayList<>();
+        MailAttachments.sizes(fs, files).compose(sizes -> {
+            for (int i = 0; i < files.size(); i++) {
+                opened.add(MailAttachments.open(fs, files.getJsonObject(i)));
+            }
+            return Future.all(opened).map(v -> {
+                final List<MailAttachment> attachments = new ArrayList<>();
+                if (message.getAttachment() != null) {
+                    attachments.addAll(message.getAttachment());
+                }
+                for (int i = 0; i < files.size(); i++) {
+                    attachments.add(new MailAttachmentImpl()
+                            .setName(files.getJsonObject(i).getString("name"))
+                            .setContentType(files.getJsonObject(i).getString("contentType"))
+                            .setStream(opened.get(i).result())
+                            .setSize((int) sizes[i]));
+                }
+                return shallowCopy(message).setAttachment(attachments);
+            });
+        }).compose(client::sendMail).onComplete(ar -> {
+            for (Future<AsyncFile> file : opened) {
+                if (file.succeeded()) {
+                    file.result().close();
+                }
+            }
+            handler.handle(ar);
+        });
+    }
+
+    private void send(MailMessage message, JsonArray files, Handler<AsyncResult<Message<JsonObject>>> handler) {
+        sendMail(message, files, ar -> {
+            if (ar.failed()) {
+                log.error("Failed to send mail from SMTP", ar.cause());
+                DefaultAsyncResult.handleAsyncError(ar.cause().getMessage(), handler);
+            } else {
+                DefaultAsyncResult.handleAsyncResult(new ResultMessage(), handler);
+            }
+        });
+    }
+
+    /**
+     * Send the message to each recipient in its own SMTP transaction, at most max-concurrent at a time.
+     * The transactions reuse the pooled connections of the client, and the messages share the body
+     * and attachments of the original one. The result reports the failed recipients.
+     */
+    private final class SplitSend {
+
+        private final MailMessage message;
+        private final JsonArray files;
+        private final List<String> recipients;
+        private final Handler<AsyncResult<Message<JsonObject>>> handler;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final JsonObject errors = new JsonObject();
+
+        private SplitSend(MailMessage message, JsonArray files, List<String> recipients,
+                Handler<AsyncResult<Message<JsonObject>>> handler) {
+            this.message = message;
+            this.files = files;
+            this.recipients = recipients;
+            this.handler = handler;
+            this.remaining = new AtomicInteger(recipients.size());
+        }
+
+        private void start() {
+            for (int i = 0; i < Math.min(maxConcurrent, recipients.size()); i++) {
+                sendNext();
+            }
+        }
+
+        private void sendNext() {
+            final int i = next.getAndIncrement();
+            if (i >= recipients.size()) {
+                return;
+            }
+            final String recipient = recipients.get(i);
+            sendMail(forRecipient(message, recipient), files, ar -> {
                 if (ar.failed()) {
-                    log.error("Failed to send mail from SMTP", ar.cause());
-                    promise.fail(ar.cause());
+                    log.error("Failed to send mail from SMTP to " + recipient, ar.cause());
+                    synchronized (errors) {
+                        errors.put(recipient, String.valueOf(ar.cause().getMessage()));
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    end();
                 } else {
-                    promise.complete();
+                    sendNext();
                 }
             });
         }
 
-        CompositeFuture.any(futures)
-                .onFailure(throwable -> DefaultAsyncResult.handleAsyncError(throwable.getMessage(), handler))
-                .onSuccess(unused -> DefaultAsyncResult.handleAsyncResult(new ResultMessage(), handler));
+        private void end() {
+            final int failed;
+            synchronized (errors) {
+                failed = errors.size();
+            }
+            if (failed == 0) {
+                DefaultAsyncResult.handleAsyncResult(new ResultMessage().put("sent", recipients.size()), handler);
+            } else {
+                DefaultAsyncResult.handleAsyncError(new JsonObject()
+                        .put("sent", recipients.size() - failed)
+                        .put("failed", failed)
+                        .put("errors", errors).encode(), handler);
+            }
+        }
+
+    }
+
+    private static MailMessage forRecipient(MailMessage message, String recipient) {
+        return shallowCopy(message).setTo(recipient);
+    }
+
+    private static MailMessage shallowCopy(MailMessage message) {
+        // the copy constructor of MailMessage duplicates the attachments data, share it instead
+        return new MailMessage()
+                .setFrom(message.getFrom())
+                .setTo(message.getTo())
+                .setCc(message.getCc())
+                .setBcc(message.getBcc())
+                .setSubject(message.getSubject())
+                .setHtml(message.getHtml())
+                .setAttachment(message.getAttachment());
     }
 }
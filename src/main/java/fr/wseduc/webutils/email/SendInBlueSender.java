@@ -29,12 +29,15 @@ import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncResult;
 import static fr.wseduc.webutils.Utils.isNotEmpty;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.file.FileSystem;
 import io.vertx.core.http.*;
 import io.vertx.core.http.impl.headers.HeadersMultiMap;
 import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -45,8 +48,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -54,30 +59,23 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class SendInBlueSender extends NotificationHelper implements EmailSender {
 
 	private static final Logger log = LoggerFactory.getLogger(SendInBlueSender.class);
-	private final HttpClient httpClient;
+	private final MailHttpClient httpClient;
 	private final String apiKey;
 	private final String dedicatedIp;
 	private final boolean splitRecipients;
 	private final ObjectMapper mapper;
 	private final int maxSize;
+	private final FileSystem fileSystem;
 	private static final String DATE_FORMAT = "yyyy-MM-dd";
+	private static final int MAX_MESSAGE_VERSIONS = 1000;
 
 	public SendInBlueSender(Vertx vertx, JsonObject config)
 			throws InvalidConfigurationException, URISyntaxException {
 		super(vertx, config);
 		if (config != null && isNotEmpty(config.getString("uri")) && isNotEmpty(config.getString("api-key"))) {
 			URI uri = new URI(config.getString("uri"));
-			HttpClientOptions options = new HttpClientOptions()
-					.setDefaultHost(uri.getHost())
-					.setDefaultPort(uri.getPort())
-					.setSsl("https".equals(uri.getScheme()))
-					.setMaxPoolSize(16)
-					.setKeepAlive(false);
-			httpClient = vertx.createHttpClient(options);
-//					.setPort()
-//					.setMaxPoolSize(16)
-//					.setSSL("https".equals(uri.getScheme()))
-//					.setKeepAlive(false);
+			httpClient = new MailHttpClient(vertx, uri, config, "sendinblue");
+			fileSystem = vertx.fileSystem();
 			apiKey = config.getString("api-key");
 			dedicatedIp = config.getString("ip");
 			splitRecipients = config.getBoolean("split-recipients", false);
@@ -165,21 +163,87 @@ public class SendInBlueSender extends NotificationHelper implements EmailSender
 				}
 			};
 			for (Object to: json.getJsonArray("to")) {
-				send(json.copy().put("to", new JsonArray().add(to.toString())), h);
+				// shallow copy, the body and attachments are shared by the recipients
+				send(new JsonObject(new HashMap<>(json.getMap())).put("to", new JsonArray().add(to.toString())), h);
 			}
 		} else {
 			send(json, handler);
 		}
 	}
 
-	private void send(JsonObject json, final Handler<AsyncResult<Message<JsonObject>>> handler) {
+	/**
+	 * Send the whole batch in one call, each message being a version of the first one : the versions only
+	 * carry the recipient, plus the subject and the content when they differ from the ones of the first message.
+	 */
+	@Override
+	protected void sendEmails(List<JsonObject> messages, final Handler<AsyncResult<Message<JsonObject>>> handler) {
+		if (messages.size() == 1) {
+			sendEmail(messages.get(0), handler);
+			return;
+		}
+		if (messages.size() > MAX_MESSAGE_VERSIONS) {
+			super.sendEmails(messages, handler);
+			return;
+		}
+		final JsonObject first = messages.get(0);
+		sizes(first).onSuccess(sizes -> {
+			final List<JsonObject> sources = new ArrayList<>();
+			final JsonObject payload = payload(first, sizes, sources);
+			payload.remove("to");
+			final JsonArray versions = new JsonArray();
+			for (JsonObject json : messages) {
+				final JsonObject version = new JsonObject().put("to", recipients(json));
+				if (!first.getString("subject").equals(json.getString("subject"))) {
+					version.put("subject", json.getString("subject"));
+				}
+				if (!first.getString("body").equals(json.getString("body"))) {
+					version.put("htmlContent", json.getString("body"));
+				}
+				versions.add(version);
+			}
+			payload.put("messageVersions", versions);
+			post(payload, sources, handler);
+		}).onFailure(e -> {
+			log.error("Error reading attachments sizes.", e);
+			handleAsyncError(e.getMessage(), handler);
+		});
+	}
 
+	private static JsonArray recipients(JsonObject json) {
 		JsonArray to = new JsonArray();
 
 		for(Object o : json.getJsonArray("to")) {
 			String email = o.toString();
 			to.add(new JsonObject().put("email", email));
 		}
+		return to;
+	}
+
+	private void send(JsonObject json, final Handler<AsyncResult<Message<JsonObject>>> handler) {
+		sizes(json).onSuccess(sizes -> {
+			final List<JsonObject> sources = new ArrayList<>();
+			post(payload(json, sizes, sources), sources, handler);
+		}).onFailure(e -> {
+			log.error("Error reading attachments sizes.", e);
+			handleAsyncError(e.getMessage(), handler);
+		});
+	}
+
+	private Future<long[]> sizes(JsonObject json) {
+		final JsonArray attachments = json.getJsonArray("attachments");
+		if (attachments == null || attachments.isEmpty()) {
+			return Future.succeededFuture(new long[0]);
+		}
+		return MailAttachments.sizes(fileSystem, attachments);
+	}
+
+	/**
+	 * @param sizes the raw sizes of the attachments
+	 * @param sources filled with the attachment of each entry of the "attachment" array of the payload,
+	 *                the ones not given as base64 "content" are only encoded when the payload is written
+	 */
+	private JsonObject payload(JsonObject json, long[] sizes, List<JsonObject> sources) {
+		final JsonArray to = recipients(json);
 
 		final JsonObject sender = new JsonObject().put("email", json.getString("from"));
 
@@ -223,15 +287,16 @@ public class SendInBlueSender extends NotificationHelper implements EmailSender
 			payload.put("bcc", bcc);
 		}
 
-		int mailSize = json.getString("body").getBytes().length;
+		long mailSize = utf8Length(json.getString("body"));
 
 		if (json.getJsonArray("attachments") != null && !json.getJsonArray("attachments").isEmpty()) {
 			JsonArray attachments = new JsonArray();
-			for (Object o : json.getJsonArray("attachments")) {
-				JsonObject att = (JsonObject) o;
+			for (int i = 0; i < json.getJsonArray("attachments").size(); i++) {
+				JsonObject att = json.getJsonArray("attachments").getJsonObject(i);
 
-				// Calculate the attachment size only once and store it in a variable
-				int attachmentSize = att.getString("content").getBytes().length;
+				// The encoded size, computed from the lengths without encoding the content
+				long attachmentSize = MailAttachments.isStreamed(att) ?
+						MailAttachments.encodedLength(sizes[i]) : att.getString("content").length();
 
 				// Check if adding this attachment would exceed the max size limit
 				if (maxSize > 0 && (mailSize + attachmentSize) > maxSize) {
@@ -257,19 +322,71 @@ public class SendInBlueSender extends NotificationHelper implements EmailSender
 						}
 					}
 					
-					attachments.add(new JsonObject()
-							.put("name", attachmentName)
-							.put("content", att.getString("content")));
+					final JsonObject attachment = new JsonObject().put("name", attachmentName);
+					if (!MailAttachments.isStreamed(att)) {
+						attachment.put("content", att.getString("content"));
+					}
+					attachments.add(attachment);
+					sources.add(att);
 				}
 			}
 			payload.put("attachment", attachments);
 		}
+		return payload;
+	}
+
+	private static long utf8Length(String s) {
+		long length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
 
+	/**
+	 * Write the payload in chunks, the attachments not given as base64 "content" being encoded while written.
+	 */
+	private Future<HttpClientResponse> write(HttpClientRequest request, JsonObject payload, List<JsonObject> sources) {
+		final JsonArray attachments = (JsonArray) payload.remove("attachment");
+		final String json = payload.encode();
+		request.setChunked(true);
+		Future<Void> written = request.write(json.substring(0, json.length() - 1) + ",\"attachment\":[");
+		for (int i = 0; i < attachments.size(); i++) {
+			final JsonObject attachment = attachments.getJsonObject(i);
+			final JsonObject source = sources.get(i);
+			final String separator = i > 0 ? "," : "";
+			if (attachment.containsKey("content")) {
+				written = written.compose(v -> request.write(separator + attachment.encode()));
+			} else {
+				written = written
+						.compose(v -> request.write(separator + "{\"name\":" + Json.encode(attachment.getString("name")) + ",\"content\":\""))
+						.compose(v -> MailAttachments.writeBase64(fileSystem, source, request))
+						.compose(v -> request.write("\"}"));
+			}
+		}
+		return written
+				.compose(v -> request.end("]}"))
+				.onFailure(e -> request.reset(0, e))
+				.compose(v -> request.response());
+	}
+
+	private void post(JsonObject payload, List<JsonObject> sources, final Handler<AsyncResult<Message<JsonObject>>> handler) {
+		final boolean streamed = sources.stream().anyMatch(MailAttachments::isStreamed);
 		httpClient.request(new RequestOptions()
 						.setMethod(HttpMethod.POST)
 						.setURI("/v3/smtp/email")
 						.setHeaders(new HeadersMultiMap().add("api-key", apiKey)))
-				.flatMap(request -> request.send(payload.encode()))
+				.flatMap(request -> streamed ? write(request, payload, sources) : request.send(payload.encode()))
 				.onSuccess(resp -> {
 					if (resp.statusCode() == 201) {
 						handleAsyncResult(new ResultMessage(), handler);
@@ -287,7 +404,10 @@ public class SendInBlueSender extends NotificationHelper implements EmailSender
 						});
 					}
 				})
-				.onFailure(except -> log.error("Error sending to sendinblue.", except));
+				.onFailure(except -> {
+					log.error("Error sending to sendinblue.", except);
+					handleAsyncError(except.getMessage(), handler);
+				});
 	}
 
 	public ObjectMapper getMapper() {
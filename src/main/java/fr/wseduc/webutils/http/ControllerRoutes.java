@@ -0,0 +1,32 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.http;
+
+import fr.wseduc.webutils.Controller;
+
+/**
+ * Route table of a controller, generated at build time by
+ * {@link fr.wseduc.processor.ControllerAnnotationProcessor} next to the controller class.
+ * When present, it replaces the routes JSON file read by {@link Controller#loadRoutes()}.
+ */
+public interface ControllerRoutes<T extends Controller> {
+
+	String CLASS_SUFFIX = "_Routes";
+
+	void register(T controller);
+
+}
@@ -28,7 +28,37 @@ public class ETag {
 	public static boolean check(HttpServerRequest request, String fileId) {
 		String inm = request.headers().get("If-None-Match");
 		if (inm != null) {
-			return inm.equals(fileId);
+			return inm.equals(fileId) || (inm.indexOf(',') >= 0 && containsTag(inm, fileId));
+		}
+		return false;
+	}
+
+	/**
+	 * Check the If-None-Match header against one of the tags of a resource.
+	 * A list of tags and weak tags (as sent back by proxies which compressed the response) are accepted.
+	 */
+	public static boolean check(HttpServerRequest request, String... etags) {
+		final String inm = request.headers().get("If-None-Match");
+		if (inm == null) {
+			return false;
+		}
+		for (String etag : etags) {
+			if (etag != null && containsTag(inm, etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean containsTag(String inm, String etag) {
+		for (String tag : inm.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals(etag) || "*".equals(tag)) {
+				return true;
+			}
 		}
 		return false;
 	}
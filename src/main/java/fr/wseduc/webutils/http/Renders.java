@@ -21,9 +21,14 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import fr.wseduc.webutils.http.response.ResponseWriter;
 import fr.wseduc.webutils.template.TemplateProcessor;
 import fr.wseduc.webutils.template.FileTemplateProcessor;
+import fr.wseduc.webutils.template.RenderContext;
+import fr.wseduc.webutils.template.TemplateCache;
 import fr.wseduc.webutils.template.lambdas.FormatBirthDateLambda;
 import fr.wseduc.webutils.template.lambdas.I18nLambda;
 import fr.wseduc.webutils.template.lambdas.InfraLambda;
@@ -56,6 +61,8 @@ public class Renders {
 	protected JsonObject config;
 	protected String staticHost;
 	protected FileTemplateProcessor templateProcessor;
+	private static final int MAX_RENDER_CONTEXTS = 1024;
+	private final Map<String, RenderContext> renderContexts = new ConcurrentHashMap<>();
 	protected static final List<String> allowedHosts = new ArrayList<>();
 
 	public Renders(Vertx vertx, JsonObject config) {
@@ -65,9 +72,7 @@ public class Renders {
 		}
 		this.vertx = vertx;
 		if (vertx != null) {
-			this.templateProcessor = new FileTemplateProcessor(vertx, config.getString("main"), "view/", false);
-			this.templateProcessor.setLambda("formatBirthDate", new FormatBirthDateLambda());
-			this.templateProcessor.setLambda("modVersion", new ModsLambda(vertx));
+			this.templateProcessor = createTemplateProcessor(vertx, config);
 		}
 	}
 
@@ -83,25 +88,76 @@ public class Renders {
 		this.staticHost = (String) server.get("static-host");
 
 		if (templateProcessor == null && vertx != null) {
-			this.templateProcessor = new FileTemplateProcessor(vertx, config.getString("main"), "view/", false);
-			this.templateProcessor.setLambda("formatBirthDate", new FormatBirthDateLambda());
-			this.templateProcessor.setLambda("modVersion", new ModsLambda(vertx));
+			this.templateProcessor = createTemplateProcessor(vertx, config);
 		}
 	}
 
-	protected void setLambdaTemplateRequest(final HttpServerRequest request)
+	private static FileTemplateProcessor createTemplateProcessor(Vertx vertx, JsonObject config) {
+		final FileTemplateProcessor processor = new FileTemplateProcessor(vertx, config.getString("main"), "view/", false);
+		processor.setLambda("formatBirthDate", new FormatBirthDateLambda());
+		processor.setLambda("modVersion", new ModsLambda(vertx));
+		final JsonObject cacheConfig = config.getJsonObject("template-cache");
+		if (cacheConfig != null && cacheConfig.getBoolean("enabled", true)) {
+			final TemplateCache cache = TemplateCache.getInstance();
+			if (cacheConfig.containsKey("max-size")) {
+				cache.setMaxSize(cacheConfig.getInteger("max-size"));
+			}
+			if (cacheConfig.containsKey("check-period")) {
+				cache.setCheckPeriod(cacheConfig.getLong("check-period"));
+			}
+			processor.setSharedCache(cache);
+		}
+		return processor;
+	}
+
+	/**
+	 * Get the request scoped lambdas of a rendering. The lambdas only depend on the host, the language,
+	 * the theme and on whether the request comes from a proxy, so they are built once for each of these tuples.
+	 */
+	protected RenderContext getRenderContext(final HttpServerRequest request)
+	{
+		return getRenderContext(request, I18n.acceptLanguage(request));
+	}
+
+	/**
+	 * Same as {@link #getRenderContext(HttpServerRequest)} but rendering in the given language
+	 * instead of the one of the request, e.g. for a mail sent to another user.
+	 * All the renderings get their lambdas from here : override it to add lambdas, with
+	 * {@code super.getRenderContext(request, language).withLambda(name, lambda)}.
+	 */
+	protected RenderContext getRenderContext(final HttpServerRequest request, final String language)
 	{
 		String host = Renders.getHost(request);
 		if(host == null) // This can happen for forged requests
 			host = "";
-		String sttcHost = this.staticHost != null ? this.staticHost : host;
-		this.templateProcessor.setLambda("i18n",
-			new I18nLambda(config.getString("main"), I18n.acceptLanguage(request), host, I18n.getTheme(request)));
-		this.templateProcessor.setLambda("static",
-			new StaticLambda(config.getBoolean("ssl", sttcHost.startsWith("https")), sttcHost, this.pathPrefix + "/public"));
-		this.templateProcessor.setLambda("infra",
-			new InfraLambda(config.getBoolean("ssl", sttcHost.startsWith("https")), sttcHost, "/infra/public", request.headers().get("X-Forwarded-For") == null));
-		this.templateProcessor.setLambda("datetime", new LocaleDateLambda(I18n.acceptLanguage(request)));
+		return getRenderContext(host, null, language, I18n.getTheme(request),
+				request.headers().get("X-Forwarded-For") == null);
+	}
+
+	/**
+	 * @param https whether the host is served over https, null to guess it from the static host
+	 */
+	private RenderContext getRenderContext(String host, Boolean https, String language, String theme,
+			boolean useDefaultPort)
+	{
+		final String sttcHost = this.staticHost != null ? this.staticHost : host;
+		final boolean ssl = config.getBoolean("ssl",
+				this.staticHost == null && https != null ? https : sttcHost.startsWith("https"));
+		final String key = host + '\u0000' + language + '\u0000' + theme + '\u0000' + useDefaultPort + '\u0000' + ssl;
+		RenderContext context = renderContexts.get(key);
+		if (context == null) {
+			context = RenderContext.EMPTY
+				.withLambda("i18n", new I18nLambda(config.getString("main"), language, host, theme))
+				.withLambda("static", new StaticLambda(ssl, sttcHost, this.pathPrefix + "/public"))
+				.withLambda("infra", new InfraLambda(ssl, sttcHost, "/infra/public", useDefaultPort))
+				.withLambda("datetime", new LocaleDateLambda(language));
+			if (renderContexts.size() >= MAX_RENDER_CONTEXTS) {
+				// header values are client controlled, don't let them grow the cache without bound
+				renderContexts.clear();
+			}
+			renderContexts.put(key, context);
+		}
+		return context;
 	}
 
 	public void renderView(HttpServerRequest request) {
@@ -122,6 +178,10 @@ public class Renders {
 
 	public void renderView(final HttpServerRequest request, JsonObject params,
 			String resourceName, Reader r, final int status) {
+		if (config != null && config.getBoolean("streaming-render", false)) {
+			streamView(request, params, resourceName, r, status);
+			return;
+		}
 		processTemplate(request, params, resourceName, r, new Handler<Writer>() {
 			@Override
 			public void handle(final Writer writer) {
@@ -145,6 +205,42 @@ public class Renders {
 		});
 	}
 
+	/*
+	 * Render the template straight into the response : the hooks are executed before rendering,
+	 * because the headers are sent with the first chunk.
+	 */
+	private void streamView(final HttpServerRequest request, final JsonObject params,
+			final String resourceName, final Reader r, final int status) {
+		request.response().putHeader("content-type", "text/html; charset=utf-8");
+		request.response().setStatusCode(status);
+		final Handler<Void> render = new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				final ResponseWriter writer = new ResponseWriter(request.response());
+				templateProcessor.escapeHTML(true);
+				templateProcessor.processTemplate(genTemplateName(resourceName, request), params, r,
+						getRenderContext(request), writer,
+						new Handler<Boolean>() {
+					@Override
+					public void handle(Boolean rendered) {
+						if (Boolean.TRUE.equals(rendered)) {
+							writer.close();
+						} else if (!writer.isStarted()) {
+							renderError(request);
+						} else {
+							request.response().reset();
+						}
+					}
+				});
+			}
+		};
+		if (hookRenderProcess != null) {
+			executeHandlersHookRender(request, render);
+		} else {
+			render.handle(null);
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	private void executeHandlersHookRender(final HttpServerRequest request, Handler<Void> endHandler) {
 		final Handler<Void>[] handlers = new Handler[hookRenderProcess.size() + 1];
@@ -163,21 +259,64 @@ public class Renders {
 
 	public void processTemplate(HttpServerRequest request, String template, JsonObject params, final Handler<String> handler)
 	{
-		this.setLambdaTemplateRequest(request);
-		this.templateProcessor.escapeHTML(true).processTemplate(this.genTemplateName(template, request), params, handler);
+		this.templateProcessor.escapeHTML(true).processTemplateToWriter(this.genTemplateName(template, request), params,
+				this.getRenderContext(request), new Handler<Writer>() {
+			@Override
+			public void handle(Writer w) {
+				handler.handle(w == null ? null : w.toString());
+			}
+		});
+	}
+
+	/**
+	 * Render the template in the given language, the request only provides the host and the theme.
+	 */
+	public void processTemplate(HttpServerRequest request, String template, JsonObject params, String language,
+			final Handler<String> handler)
+	{
+		this.templateProcessor.escapeHTML(true).processTemplateToWriter(this.genTemplateName(template, request), params,
+				this.getRenderContext(request, language), new Handler<Writer>() {
+			@Override
+			public void handle(Writer w) {
+				handler.handle(w == null ? null : w.toString());
+			}
+		});
+	}
+
+	/**
+	 * Render the template in the given language without request, e.g. for a mail sent by a scheduled task :
+	 * the lambdas use the given host, like "https://ent.example.org", and the default theme.
+	 */
+	public void processTemplate(String host, String template, JsonObject params, String language,
+			final Handler<String> handler)
+	{
+		final boolean https = host != null && host.startsWith("https://");
+		final String h = host == null ? "" : host.replaceFirst("^https?://", "");
+		this.templateProcessor.escapeHTML(true).processTemplateToWriter(template, params,
+				getRenderContext(h, https, language, null, true), new Handler<Writer>() {
+			@Override
+			public void handle(Writer w) {
+				handler.handle(w == null ? null : w.toString());
+			}
+		});
 	}
 
 	public void processTemplate(final HttpServerRequest request, JsonObject p, String resourceName, Reader r, final Handler<Writer> handler)
 	{
-		this.setLambdaTemplateRequest(request);
 		this.templateProcessor.escapeHTML(true);
-		this.templateProcessor.processTemplate(this.genTemplateName(resourceName, request), p, r, handler);
+		this.templateProcessor.processTemplate(this.genTemplateName(resourceName, request), p, r,
+				this.getRenderContext(request), handler);
 	}
 
 	public void processTemplate(final HttpServerRequest request, JsonObject p, String resourceName, boolean escapeHTML, final Handler<String> handler)
 	{
-		this.setLambdaTemplateRequest(request);
-		this.templateProcessor.escapeHTML(escapeHTML).processTemplate(this.genTemplateName(resourceName, request), p, handler);
+		this.templateProcessor.escapeHTML(escapeHTML).processTemplateToWriter(this.genTemplateName(resourceName, request), p,
+				this.getRenderContext(request), new Handler<Writer>() {
+			@Override
+			public void handle(Writer w) {
+				handler.handle(w == null ? null : w.toString());
+			}
+		});
 	}
 
 	private String genTemplateName(final String resourceName, final HttpServerRequest request)
@@ -0,0 +1,180 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.http.response;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * Writer encoding characters in UTF-8 and sending them to an {@link HttpServerResponse} as chunks,
+ * so that a rendered page is never materialized as a whole on the heap.<p>
+ * The response is switched to chunked transfer encoding on the first chunk. While the response write queue is
+ * full, the encoded chunks are kept aside and sent from the drain handler. {@link #close()} ends the response
+ * once all the chunks have been written.<p>
+ * Instances are not thread safe and must be used from the event loop of the response.
+ */
+public class ResponseWriter extends Writer {
+
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+	private final HttpServerResponse response;
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharBuffer chars;
+	private final ByteBuffer bytes;
+	private final ArrayDeque<Buffer> pending = new ArrayDeque<>();
+	private boolean started;
+	private boolean closed;
+	private boolean ended;
+
+	public ResponseWriter(HttpServerResponse response) {
+		this(response, DEFAULT_CHUNK_SIZE);
+	}
+
+	public ResponseWriter(HttpServerResponse response, int chunkSize) {
+		this.response = response;
+		this.chars = CharBuffer.allocate(chunkSize);
+		this.bytes = ByteBuffer.allocate((int) Math.ceil(chunkSize * encoder.maxBytesPerChar()) + 4);
+	}
+
+	/**
+	 * @return true if some bytes have already been sent, so the status and the headers can't be changed anymore
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+
+	@Override
+	public void write(int c) {
+		if (!chars.hasRemaining()) {
+			encode(false);
+		}
+		chars.put((char) c);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		while (len > 0) {
+			if (!chars.hasRemaining()) {
+				encode(false);
+			}
+			final int n = Math.min(len, chars.remaining());
+			chars.put(cbuf, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		while (len > 0) {
+			if (!chars.hasRemaining()) {
+				encode(false);
+			}
+			final int n = Math.min(len, chars.remaining());
+			final int position = chars.position();
+			str.getChars(off, off + n, chars.array(), chars.arrayOffset() + position);
+			chars.position(position + n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (!closed) {
+			encode(false);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		encode(true);
+		closed = true;
+		if (pending.isEmpty()) {
+			end();
+		}
+	}
+
+	private void encode(boolean endOfInput) {
+		chars.flip();
+		encoder.encode(chars, bytes, endOfInput);
+		if (endOfInput) {
+			encoder.flush(bytes);
+		}
+		// an unpaired high surrogate at the end of the chunk stays in the char buffer until the next write
+		chars.compact();
+		bytes.flip();
+		if (bytes.hasRemaining()) {
+			final Buffer chunk = Buffer.buffer(bytes.remaining());
+			chunk.appendBytes(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+			send(chunk);
+		}
+		bytes.clear();
+	}
+
+	private void send(Buffer chunk) {
+		if (!started) {
+			started = true;
+			if (!response.headers().contains("Content-Length")) {
+				response.setChunked(true);
+			}
+		}
+		if (!pending.isEmpty() || response.writeQueueFull()) {
+			if (pending.isEmpty()) {
+				response.drainHandler(v -> drain());
+			}
+			pending.add(chunk);
+		} else {
+			response.write(chunk);
+		}
+	}
+
+	private void drain() {
+		while (!pending.isEmpty() && !response.writeQueueFull()) {
+			response.write(pending.poll());
+		}
+		if (!pending.isEmpty()) {
+			response.drainHandler(v -> drain());
+		} else {
+			response.drainHandler(null);
+			if (closed) {
+				end();
+			}
+		}
+	}
+
+	private void end() {
+		if (!ended) {
+			ended = true;
+			response.end();
+		}
+	}
+
+}
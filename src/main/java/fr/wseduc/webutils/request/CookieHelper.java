@@ -18,21 +18,21 @@ package fr.wseduc.webutils.request;
 
 import fr.wseduc.webutils.http.Renders;
 import io.netty.handler.codec.http.Cookie;
-import io.netty.handler.codec.http.CookieDecoder;
 import io.netty.handler.codec.http.DefaultCookie;
 import io.netty.handler.codec.http.ServerCookieEncoder;
 import io.netty.handler.codec.http.cookie.CookieHeaderNames;
 
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Set;
 
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.ServerWebSocket;
 import io.vertx.core.logging.Logger;
 
 import fr.wseduc.webutils.security.HmacSha1;
+import fr.wseduc.webutils.security.SecureHttpServerRequest;
 
 public class CookieHelper {
 
@@ -70,15 +70,11 @@ public class CookieHelper {
 	}
 
 	public static String get(String name, HttpServerRequest request) {
-		if (request.headers().get("Cookie") != null) {
-			Set<Cookie> cookies = CookieDecoder.decode(request.headers().get("Cookie"), false);
-			for (Cookie c : cookies) {
-				if (c.getName().equals(name)) {
-					return c.getValue();
-				}
-			}
+		if (request instanceof SecureHttpServerRequest) {
+			return ((SecureHttpServerRequest) request).getCookies().get(name);
 		}
-		return null;
+		final Cookie cookie = RequestCookies.find(request.headers().get("Cookie"), name);
+		return cookie != null ? cookie.getValue() : null;
 	}
 
 	public static void set(String name, String value, HttpServerRequest request) {
@@ -164,11 +160,10 @@ public class CookieHelper {
 	}
 
 	public String getSigned(String name, String path, HttpServerRequest request) {
-		if (request.headers().get("Cookie") != null) {
-			Set<Cookie> cookies = CookieDecoder.decode(request.headers().get("Cookie"), false);
-			return getSignedCookie(name, path, cookies);
+		if (request instanceof SecureHttpServerRequest) {
+			return ((SecureHttpServerRequest) request).getCookies().getSigned(name, path, c -> getSignedCookie(path, c));
 		}
-		return null;
+		return getSignedCookie(path, RequestCookies.find(request.headers().get("Cookie"), name));
 	}
 
 	public String getSigned(String name, ServerWebSocket ws) {
@@ -176,36 +171,29 @@ public class CookieHelper {
 	}
 
 	public String getSigned(String name, String path, ServerWebSocket ws) {
-		if (ws.headers().get("Cookie") != null) {
-			Set<Cookie> cookies = CookieDecoder.decode(ws.headers().get("Cookie"), false);
-			return getSignedCookie(name, path, cookies);
-		}
-		return null;
-	}
-
-	private String getSignedCookie(String name, String path, Set<Cookie> cookies) {
-		for (Cookie c : cookies) {
-			if (c.getName().equals(name) && c.getValue().contains(":")) {
-				int idx = c.getValue().lastIndexOf(":");
-				if (idx > c.getValue().length() - 1) continue;
-				String value = c.getValue().substring(0, idx);
-				String signature = c.getValue().substring(idx+1);
-				String calcSign = null;
-				String cookiePath = path;
-				if (cookiePath == null || cookiePath.trim().isEmpty()) {
-					cookiePath = c.getPath();
-				}
-				try {
-					calcSign = HmacSha1.sign(
-							c.getDomain() + c.getName() +
-									cookiePath + value, signKey);
-				} catch (InvalidKeyException | NoSuchAlgorithmException
-						| IllegalStateException
-						| UnsupportedEncodingException e) {
-				}
-				if (calcSign != null && calcSign.equals(signature)) {
-					return value;
-				}
+		return getSignedCookie(path, RequestCookies.find(ws.headers().get("Cookie"), name));
+	}
+
+	private String getSignedCookie(String path, Cookie c) {
+		if (c != null && c.getValue().contains(":")) {
+			int idx = c.getValue().lastIndexOf(":");
+			String value = c.getValue().substring(0, idx);
+			String signature = c.getValue().substring(idx+1);
+			String calcSign = null;
+			String cookiePath = path;
+			if (cookiePath == null || cookiePath.trim().isEmpty()) {
+				cookiePath = c.getPath();
+			}
+			try {
+				calcSign = HmacSha1.sign(
+						c.getDomain() + c.getName() +
+								cookiePath + value, signKey);
+			} catch (InvalidKeyException | NoSuchAlgorithmException
+					| IllegalStateException
+					| UnsupportedEncodingException e) {
+			}
+			if (calcSign != null && MessageDigest.isEqual(calcSign.getBytes(), signature.getBytes())) {
+				return value;
 			}
 		}
 		return null;
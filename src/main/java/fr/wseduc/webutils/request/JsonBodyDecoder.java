@@ -0,0 +1,181 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.request;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import fr.wseduc.webutils.security.XSSUtils;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.jackson.DatabindCodec;
+
+import java.io.IOException;
+
+/**
+ * Incremental decoder of JSON request bodies.<p>
+ * The body is parsed chunk by chunk with the Jackson non blocking parser, without building the body as a
+ * String. XSS stripping is only applied to the keys and the string values, the structure is kept as is. The tokens
+ * are buffered in a {@link TokenBuffer} which is then bound to a Vert.x json or to a POJO with the Vert.x
+ * object mapper.<p>
+ * Bodies bigger than the maximum size fail with {@link BodyTooLargeException} as soon as the limit is reached.
+ */
+public class JsonBodyDecoder {
+
+	private static volatile long defaultMaxBodySize = -1;
+
+	private final ObjectMapper mapper = DatabindCodec.mapper();
+	private final Promise<JsonParser> promise = Promise.promise();
+	private final long maxBodySize;
+	private final boolean stripXSS;
+	private JsonParser parser;
+	private ByteArrayFeeder feeder;
+	private TokenBuffer tokens;
+	private long size;
+	private int depth;
+	private boolean started;
+	private boolean rootDone;
+
+	public JsonBodyDecoder(long maxBodySize, boolean stripXSS) {
+		this.maxBodySize = maxBodySize;
+		this.stripXSS = stripXSS;
+		try {
+			this.parser = mapper.getFactory().createNonBlockingByteArrayParser();
+			this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+			this.tokens = new TokenBuffer(mapper, false);
+		} catch (IOException e) {
+			promise.tryFail(e);
+		}
+	}
+
+	/**
+	 * @param maxBodySize Maximum size in bytes of the json bodies, a negative value means no limit
+	 */
+	public static void setDefaultMaxBodySize(long maxBodySize) {
+		defaultMaxBodySize = maxBodySize;
+	}
+
+	public static long getDefaultMaxBodySize() {
+		return defaultMaxBodySize;
+	}
+
+	/**
+	 * Read and decode the body of a request.
+	 * @return a parser over the sanitized tokens of the body, or null if the body is empty
+	 */
+	public static Future<JsonParser> decode(HttpServerRequest request) {
+		final JsonBodyDecoder decoder = new JsonBodyDecoder(defaultMaxBodySize, true);
+		request.handler(decoder::handle);
+		request.endHandler(v -> decoder.end());
+		request.exceptionHandler(decoder::fail);
+		return decoder.future();
+	}
+
+	public Future<JsonParser> future() {
+		return promise.future();
+	}
+
+	public void handle(Buffer chunk) {
+		if (promise.future().isComplete()) {
+			return;
+		}
+		size += chunk.length();
+		if (maxBodySize >= 0 && size > maxBodySize) {
+			fail(new BodyTooLargeException(maxBodySize));
+			return;
+		}
+		try {
+			feeder.feedInput(chunk.getBytes(), 0, chunk.length());
+			readAvailableTokens();
+		} catch (IOException | RuntimeException e) {
+			fail(e);
+		}
+	}
+
+	public void end() {
+		if (promise.future().isComplete()) {
+			return;
+		}
+		try {
+			feeder.endOfInput();
+			readAvailableTokens();
+			parser.close();
+			if (!rootDone) {
+				if (started) {
+					throw new DecodeException("Unexpected end of json body");
+				}
+				promise.complete(null);
+			} else {
+				promise.complete(tokens.asParser(mapper));
+			}
+		} catch (IOException | RuntimeException e) {
+			fail(e);
+		}
+	}
+
+	public void fail(Throwable cause) {
+		if (promise.tryFail(cause instanceof IOException ? new DecodeException(cause.getMessage(), cause) : cause)) {
+			try {
+				parser.close();
+			} catch (IOException | RuntimeException e) {
+				// the decoding has already failed
+			}
+		}
+	}
+
+	private void readAvailableTokens() throws IOException {
+		JsonToken token;
+		while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+			if (rootDone) {
+				throw new DecodeException("Unexpected trailing token in json body");
+			}
+			started = true;
+			if (stripXSS && token == JsonToken.VALUE_STRING) {
+				tokens.writeString(XSSUtils.stripXSS(parser.getText()));
+			} else if (stripXSS && token == JsonToken.FIELD_NAME) {
+				// keys are client controlled too, e.g. maps persisted then rendered
+				tokens.writeFieldName(XSSUtils.stripXSS(parser.getCurrentName()));
+			} else {
+				tokens.copyCurrentEvent(parser);
+			}
+			if (token.isStructStart()) {
+				depth++;
+			} else if (token.isStructEnd()) {
+				depth--;
+			}
+			if (depth == 0) {
+				rootDone = true;
+			}
+		}
+	}
+
+	public static class BodyTooLargeException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public BodyTooLargeException(long maxBodySize) {
+			super("Json body exceeds " + maxBodySize + " bytes.");
+		}
+
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.request;
+
+import io.netty.handler.codec.http.Cookie;
+import io.netty.handler.codec.http.CookieDecoder;
+import io.netty.handler.codec.http.DefaultCookie;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cookies of a request, decoded once from its Cookie header.<p>
+ * Signed cookies are verified at most once for each (name, path) and the result is kept, so the filters and
+ * the loggers reading the session cookie of a request don't compute its signature again.<p>
+ * Headers using the cookie attributes (<code>$Path</code>, <code>Domain</code>, <code>Secure</code>...) or quoted
+ * values are decoded with the Netty decoder, which gives the path and domain of the cookies, the others with a
+ * simple scan giving the same values.
+ */
+public final class RequestCookies {
+
+	private static final Map<String, Cookie> LEGACY = new HashMap<>(0);
+	private static final String UNVERIFIED = new String("");
+	// names read as attributes of the previous cookie by the Netty decoder
+	private static final String[] ATTRIBUTES = {
+			"Path", "Domain", "Secure", "HTTPOnly", "Version", "Max-Age", "Expires", "Comment", "CommentURL",
+			"Discard", "Port"
+	};
+
+	private final String header;
+	private Map<String, Cookie> cookies;
+	private Map<String, String> signed;
+
+	public RequestCookies(String header) {
+		this.header = header;
+	}
+
+	public boolean isDecodedFrom(String header) {
+		return this.header == header || (this.header != null && this.header.equals(header));
+	}
+
+	public String get(String name) {
+		final Cookie cookie = getCookie(name);
+		return cookie != null ? cookie.getValue() : null;
+	}
+
+	Cookie getCookie(String name) {
+		if (header == null) {
+			return null;
+		}
+		if (cookies == null) {
+			final Map<String, Cookie> all = new HashMap<>();
+			cookies = scan(header, null, all) == LEGACY ? legacy(header) : all;
+		}
+		return cookies.get(name);
+	}
+
+	/**
+	 * @param verifier Returns the value of a signed cookie, or null if its signature is invalid
+	 * @return the memoized result of the verifier
+	 */
+	String getSigned(String name, String path, Function<Cookie, String> verifier) {
+		final String key = name + '\0' + path;
+		if (signed == null) {
+			signed = new HashMap<>(4);
+		}
+		String value = signed.get(key);
+		if (value == null) {
+			final Cookie cookie = getCookie(name);
+			value = cookie != null ? verifier.apply(cookie) : null;
+			signed.put(key, value != null ? value : UNVERIFIED);
+		}
+		return value != UNVERIFIED ? value : null;
+	}
+
+	/**
+	 * Find one cookie without decoding the others.
+	 * @param header The Cookie header, may be null
+	 * @return the first cookie with this name, or null
+	 */
+	static Cookie find(String header, String name) {
+		if (header == null) {
+			return null;
+		}
+		final Object found = scan(header, name, null);
+		if (found == LEGACY) {
+			return legacy(header).get(name);
+		}
+		return (Cookie) found;
+	}
+
+	private static Map<String, Cookie> legacy(String header) {
+		final Map<String, Cookie> all = new HashMap<>();
+		for (Cookie c : CookieDecoder.decode(header, false)) {
+			all.putIfAbsent(c.getName(), c);
+		}
+		return all;
+	}
+
+	/**
+	 * Scan the header like the Netty decoder : names end at '=' or ';', unquoted values end at ';'.
+	 * @param wanted Name to look for, or null to put every cookie in <code>all</code>
+	 * @return the wanted cookie, null if it isn't there, or {@link #LEGACY} if the header must be decoded
+	 * by the Netty decoder
+	 */
+	private static Object scan(String header, String wanted, Map<String, Cookie> all) {
+		if (header.indexOf('$') >= 0) {
+			return LEGACY;
+		}
+		final int length = header.length();
+		// the whole header is scanned, an attribute after the wanted cookie changes its path or domain
+		Cookie found = null;
+		int i = 0;
+		while (i < length) {
+			final char c = header.charAt(i);
+			if (c == '\t' || c == '\n' || c == 0x0b || c == '\f' || c == '\r' || c == ' ' || c == ',' || c == ';') {
+				i++;
+				continue;
+			}
+			final int nameStart = i;
+			while (i < length && header.charAt(i) != '=' && header.charAt(i) != ';') {
+				i++;
+			}
+			final String name = header.substring(nameStart, i);
+			if (isAttribute(name)) {
+				return LEGACY;
+			}
+			String value = "";
+			if (i < length && header.charAt(i) == '=') {
+				i++;
+				if (i < length && (header.charAt(i) == '"' || header.charAt(i) == '\'')) {
+					return LEGACY;
+				}
+				final int semi = header.indexOf(';', i);
+				final int valueEnd = semi >= 0 ? semi : length;
+				if (wanted == null || (found == null && wanted.equals(name))) {
+					value = header.substring(i, valueEnd);
+				}
+				i = valueEnd;
+			}
+			if (wanted == null) {
+				if (!all.containsKey(name)) {
+					all.put(name, new DefaultCookie(name, value));
+				}
+			} else if (found == null && wanted.equals(name)) {
+				found = new DefaultCookie(name, value);
+			}
+		}
+		return found;
+	}
+
+	private static boolean isAttribute(String name) {
+		for (String attribute : ATTRIBUTES) {
+			if (attribute.equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
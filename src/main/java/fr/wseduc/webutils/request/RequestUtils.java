@@ -16,31 +16,32 @@
 
 package fr.wseduc.webutils.request;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import fr.wseduc.webutils.http.Renders;
-import fr.wseduc.webutils.security.XSSUtils;
 import fr.wseduc.webutils.validation.JsonSchemaValidator;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
 import io.vertx.core.Promise;
-import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerRequest;
-import io.vertx.core.json.Json;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.core.json.jackson.JacksonCodec;
+import io.vertx.core.json.jackson.DatabindCodec;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import static java.util.Collections.emptySet;
 import org.apache.commons.lang3.StringUtils;
 import static org.apache.commons.lang3.StringUtils.isEmpty;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Supplier;
@@ -65,38 +66,73 @@ public class RequestUtils {
 	}
 
 	public static void bodyToJson(final HttpServerRequest request, final Handler<JsonObject> handler) {
-		request.bodyHandler(new Handler<Buffer>() {
-			@Override
-			public void handle(Buffer event) {
-				try {
-					JsonObject json = new fr.wseduc.webutils.collections.JsonObject(XSSUtils.stripXSS(event.toString("UTF-8")));
-					handler.handle(json);
-				} catch (RuntimeException e) {
-					log.warn(e.getMessage(), e);
-					Renders.badRequest(request, e.getMessage());
+		JsonBodyDecoder.decode(request).onComplete(ar -> {
+			try {
+				if (ar.failed()) {
+					badBody(request, ar.cause());
+					return;
 				}
+				handler.handle(toJsonObject(ar.result()));
+			} catch (RuntimeException e) {
+				badBody(request, e);
 			}
 		});
 		resumeQuietly(request);
 	}
 
 	public static void bodyToJsonArray(final HttpServerRequest request, final Handler<JsonArray> handler) {
-		request.bodyHandler(new Handler<Buffer>() {
-			@Override
-			public void handle(Buffer event) {
-				try {
-					String obj = XSSUtils.stripXSS(event.toString("UTF-8"));
-					JsonArray json = new fr.wseduc.webutils.collections.JsonArray(obj);
-					handler.handle(json);
-				} catch (RuntimeException e) {
-					log.warn(e.getMessage(), e);
-					Renders.badRequest(request, e.getMessage());
+		JsonBodyDecoder.decode(request).onComplete(ar -> {
+			try {
+				if (ar.failed()) {
+					badBody(request, ar.cause());
+					return;
 				}
+				handler.handle(new fr.wseduc.webutils.collections.JsonArray(readValue(ar.result(), List.class)));
+			} catch (RuntimeException e) {
+				badBody(request, e);
 			}
 		});
 		resumeQuietly(request);
 	}
 
+	@SuppressWarnings("unchecked")
+	private static JsonObject toJsonObject(JsonParser parser) {
+		return new fr.wseduc.webutils.collections.JsonObject(readValue(parser, Map.class));
+	}
+
+	private static <T> T readValue(JsonParser parser, Class<T> clazz) {
+		if (parser == null) {
+			throw new DecodeException("Empty json body");
+		}
+		try {
+			return DatabindCodec.mapper().readValue(parser, clazz);
+		} catch (IOException e) {
+			throw new DecodeException(e.getMessage(), e);
+		}
+	}
+
+	private static <T> T readValue(JsonParser parser, TypeReference<T> typeReference) {
+		if (parser == null) {
+			throw new DecodeException("Empty json body");
+		}
+		try {
+			return DatabindCodec.mapper().readValue(parser, typeReference);
+		} catch (IOException e) {
+			throw new DecodeException(e.getMessage(), e);
+		}
+	}
+
+	private static void badBody(final HttpServerRequest request, Throwable e) {
+		log.warn(e.getMessage(), e);
+		if (e instanceof JsonBodyDecoder.BodyTooLargeException) {
+			if (!request.response().ended()) {
+				request.response().setStatusCode(413).setStatusMessage("Payload Too Large").end();
+			}
+		} else {
+			Renders.badRequest(request, e.getMessage());
+		}
+	}
+
 	public static <T> Future<T> bodyToClass(final HttpServerRequest request, final Class<T> clazz) {
 		return bodyToClass(request, clazz, null);
 	}
@@ -112,30 +148,22 @@ public class RequestUtils {
 	 */
 	public static <T> Future<T> bodyToClass(final HttpServerRequest request, final Class<T> clazz, final Supplier<T> onEmptyBody) {
 		final Promise<T> promise = Promise.promise();
-		request.bodyHandler(new Handler<Buffer>() {
-			@Override
-			public void handle(Buffer event) {
-				try {
-					final T body;
-					if(event == null) {
-						body = null;
-					} else {
-						final String content = event.toString("UTF-8");
-						if(content == null) {
-							body = null;
-						} else if(isEmpty(content) && onEmptyBody != null) {
-							body = onEmptyBody.get();
-						} else {
-							String obj = XSSUtils.stripXSS(content);
-							body = Json.decodeValue(obj, clazz);
-						}
-					}
-					promise.complete(body);
-				} catch (RuntimeException e) {
-					log.warn(e.getMessage(), e);
-					promise.fail(e);
-					Renders.badRequest(request, e.getMessage());
+		JsonBodyDecoder.decode(request).onComplete(ar -> {
+			try {
+				if (ar.failed()) {
+					throw ar.cause() instanceof RuntimeException ?
+							(RuntimeException) ar.cause() : new DecodeException(ar.cause().getMessage(), ar.cause());
+				}
+				final T body;
+				if (ar.result() == null && onEmptyBody != null) {
+					body = onEmptyBody.get();
+				} else {
+					body = readValue(ar.result(), clazz);
 				}
+				promise.complete(body);
+			} catch (RuntimeException e) {
+				promise.fail(e);
+				badBody(request, e);
 			}
 		});
 		return promise.future();
@@ -143,19 +171,16 @@ public class RequestUtils {
 
 	public static <T> Future<T> bodyToClass(final HttpServerRequest request, final TypeReference<T> typeReference) {
 		final Promise<T> promise = Promise.promise();
-		request.bodyHandler(new Handler<Buffer>() {
-			@Override
-			public void handle(Buffer event) {
-				try {
-
-					String obj = XSSUtils.stripXSS(event.toString("UTF-8"));
-					final T body = JacksonCodec.decodeValue(obj, typeReference);
-					promise.complete(body);
-				} catch (RuntimeException e) {
-					log.warn(e.getMessage(), e);
-					promise.fail(e);
-					Renders.badRequest(request, e.getMessage());
+		JsonBodyDecoder.decode(request).onComplete(ar -> {
+			try {
+				if (ar.failed()) {
+					throw ar.cause() instanceof RuntimeException ?
+							(RuntimeException) ar.cause() : new DecodeException(ar.cause().getMessage(), ar.cause());
 				}
+				promise.complete(readValue(ar.result(), typeReference));
+			} catch (RuntimeException e) {
+				promise.fail(e);
+				badBody(request, e);
 			}
 		});
 		return promise.future();
@@ -163,31 +188,31 @@ public class RequestUtils {
 
 	public static void bodyToJson(final HttpServerRequest request, final String schema,
 			final Handler<JsonObject> handler) {
-		request.bodyHandler(new Handler<Buffer>() {
-			@Override
-			public void handle(Buffer event) {
-				try {
-					final JsonObject json = new fr.wseduc.webutils.collections.JsonObject(XSSUtils.stripXSS(event.toString("UTF-8")));
-					validator.validate(schema, json, event1 -> {
-						if (event1.succeeded()) {
-							if ("ok".equals(event1.result().body().getString("status"))) {
-								handler.handle(json);
-							} else {
-								final String message = event1.result().body().getString("message");
-								log.debug(message);
-								log.debug(event1.result().body()
-										.getJsonArray("report", new JsonArray()).encodePrettily());
-								Renders.badRequest(request, event1.result().body().getString("error", message));
-							}
+		JsonBodyDecoder.decode(request).onComplete(ar -> {
+			try {
+				if (ar.failed()) {
+					badBody(request, ar.cause());
+					return;
+				}
+				final JsonObject json = toJsonObject(ar.result());
+				validator.validate(schema, json).onComplete(event1 -> {
+					if (event1.succeeded()) {
+						if ("ok".equals(event1.result().getString("status"))) {
+							handler.handle(json);
 						} else {
-							log.error("Validate async error.", event1.cause());
-							Renders.badRequest(request, event1.cause().getMessage());
+							final String message = event1.result().getString("message");
+							log.debug(message);
+							log.debug(event1.result()
+									.getJsonArray("report", new JsonArray()).encodePrettily());
+							Renders.badRequest(request, event1.result().getString("error", message));
 						}
-					});
-				} catch (RuntimeException e) {
-					log.warn(e.getMessage(), e);
-					Renders.badRequest(request, e.getMessage());
-				}
+					} else {
+						log.error("Validate async error.", event1.cause());
+						Renders.badRequest(request, event1.cause().getMessage());
+					}
+				});
+			} catch (RuntimeException e) {
+				badBody(request, e);
 			}
 		});
 		resumeQuietly(request);
@@ -18,14 +18,19 @@ package fr.wseduc.webutils.request.filter;
 
 
 import fr.wseduc.webutils.security.SecureHttpServerRequest;
+import fr.wseduc.webutils.security.Sha256;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpServerRequest;
 
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.List;
 
 public abstract class AbstractBasicFilter {
 
+	private volatile ScopeCache scopeCache;
+
 	public void validate(final SecureHttpServerRequest request, final Handler<Boolean> handler) {
 		String authorization = request.headers().get("Authorization");
 		if (authorization != null && authorization.startsWith("Basic ")) {
@@ -36,7 +41,7 @@ public abstract class AbstractBasicFilter {
 			final String[] c = credentials.split(":");
 			if (c.length == 2) {
 				request.pause();
-				validateClientScope(c[0], c[1], new Handler<String>() {
+				validateClientScopeCached(c[0], c[1], new Handler<String>() {
 					@Override
 					public void handle(String scope) {
 						boolean res = scope != null && !scope.trim().isEmpty();
@@ -62,6 +67,45 @@ public abstract class AbstractBasicFilter {
 		return authorization != null && authorization.startsWith("Basic ");
 	}
 
+	private void validateClientScopeCached(String clientId, String secret, Handler<String> handler) {
+		final ScopeCache cache = scopeCache;
+		if (cache == null) {
+			validateClientScope(clientId, secret, handler);
+			return;
+		}
+		final String key;
+		try {
+			key = ScopeCache.key(clientId, Base64.getEncoder().encodeToString(
+					Sha256.hash(secret.getBytes(StandardCharsets.UTF_8))));
+		} catch (NoSuchAlgorithmException e) {
+			validateClientScope(clientId, secret, handler);
+			return;
+		}
+		cache.get(key, h -> validateClientScope(clientId, secret, h), handler);
+	}
+
+	/**
+	 * Cache the scopes returned by {@link #validateClientScope(String, String, Handler)}.
+	 * @param scopeCache The cache to use, or null to look up the scope on each request (the default)
+	 */
+	public void setScopeCache(ScopeCache scopeCache) {
+		this.scopeCache = scopeCache;
+	}
+
+	public ScopeCache getScopeCache() {
+		return scopeCache;
+	}
+
+	/**
+	 * Drop the cached scopes of a client, to be called when its secret or its scope changes.
+	 */
+	public void invalidateClient(String clientId) {
+		final ScopeCache cache = scopeCache;
+		if (cache != null) {
+			cache.invalidate(clientId);
+		}
+	}
+
 	protected abstract void validateClientScope(String clientId, String secret, Handler<String> handler);
 
 }
@@ -9,6 +9,7 @@ abstract public class AbstractQueryParamTokenFilter {
 
 	public static String QUERYPARAM_TOKEN = "queryparam_token";
 	private JWT jwt;
+	private volatile ScopeCache scopeCache;
 
 	public AbstractQueryParamTokenFilter init(Vertx vertx) {
 		this.jwt = new JWT(vertx, (String) vertx.sharedData().getLocalMap("server").get("signKey"), null);
@@ -39,7 +40,7 @@ abstract public class AbstractQueryParamTokenFilter {
 			final String clientId = payload.getString("aud");
 			// Token has been verified, let's retrieve its associated scope.
 			request.pause();
-			retrieveClientScope(clientId, scope -> {
+			retrieveClientScopeCached(clientId, scope -> {
 				request.resume();
 				boolean res = scope != null && !scope.trim().isEmpty();
 				if (res) {
@@ -56,6 +57,37 @@ abstract public class AbstractQueryParamTokenFilter {
 		});
 	}
 
+	private void retrieveClientScopeCached(String clientId, Handler<String> handler) {
+		final ScopeCache cache = scopeCache;
+		if (cache == null) {
+			retrieveClientScope(clientId, handler);
+		} else {
+			cache.get(ScopeCache.key(clientId, null), h -> retrieveClientScope(clientId, h), handler);
+		}
+	}
+
+	/**
+	 * Cache the scopes returned by {@link #retrieveClientScope(String, Handler)}.
+	 * @param scopeCache The cache to use, or null to look up the scope on each request (the default)
+	 */
+	public void setScopeCache(ScopeCache scopeCache) {
+		this.scopeCache = scopeCache;
+	}
+
+	public ScopeCache getScopeCache() {
+		return scopeCache;
+	}
+
+	/**
+	 * Drop the cached scope of a client, to be called when its scope changes.
+	 */
+	public void invalidateClient(String clientId) {
+		final ScopeCache cache = scopeCache;
+		if (cache != null) {
+			cache.invalidate(clientId);
+		}
+	}
+
 	protected abstract void retrieveClientScope(String clientId, Handler<String> handler);
 
 	protected boolean customValidation(SecureHttpServerRequest request) {
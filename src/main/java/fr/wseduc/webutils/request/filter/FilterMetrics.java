@@ -0,0 +1,68 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.request.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.concurrent.TimeUnit;
+
+import static fr.wseduc.webutils.metrics.MetricsUtils.setTimerSla;
+import static java.util.Collections.emptyList;
+
+/**
+ * Latency and denials of one filter of a {@link SecurityHandler}.
+ */
+final class FilterMetrics {
+
+	private final Timer time;
+	private final Counter denied;
+
+	private FilterMetrics(MeterRegistry registry, String filter) {
+		time = setTimerSla(
+				Timer.builder("security.filter.time")
+				.tag("filter", filter)
+				.description("time taken by a security filter to grant or deny the access"),
+				emptyList(), 1000
+		).register(registry);
+		denied = Counter.builder("security.filter.denied")
+				.tag("filter", filter)
+				.description("number of requests denied by a security filter")
+				.register(registry);
+	}
+
+	/**
+	 * @return the metrics of the filter, or null if no registry is configured
+	 */
+	static FilterMetrics create(Filter filter) {
+		final MeterRegistry registry = BackendRegistries.getDefaultNow();
+		if (registry == null) {
+			return null;
+		}
+		return new FilterMetrics(registry, filter.getClass().getName());
+	}
+
+	void record(long startNanos, boolean granted) {
+		time.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+		if (!granted) {
+			denied.increment();
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.request.filter;
+
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Filters of a {@link SecurityHandler}, compiled once.<p>
+ * A request goes through the filters in order and stops at the first one denying the access. Each request only
+ * allocates its own cursor in the pipeline.
+ */
+final class FilterPipeline {
+
+	private static final Logger log = LoggerFactory.getLogger(FilterPipeline.class);
+
+	private final Filter[] filters;
+	private final FilterMetrics[] metrics;
+
+	FilterPipeline(List<Filter> chain) {
+		filters = chain.toArray(new Filter[0]);
+		metrics = new FilterMetrics[filters.length];
+		try {
+			for (int i = 0; i < filters.length; i++) {
+				metrics[i] = FilterMetrics.create(filters[i]);
+			}
+		} catch (LinkageError e) {
+			log.debug("Micrometer isn't available, security filters won't be measured");
+		}
+	}
+
+	boolean isEmpty() {
+		return filters.length == 0;
+	}
+
+	/**
+	 * @param granted Called with the request when every filter granted the access
+	 */
+	void execute(HttpServerRequest request, Handler<HttpServerRequest> granted) {
+		new Execution(request, granted).next();
+	}
+
+	private final class Execution implements Handler<Boolean> {
+
+		private final HttpServerRequest request;
+		private final Handler<HttpServerRequest> granted;
+		private int index;
+		private long start;
+
+		private Execution(HttpServerRequest request, Handler<HttpServerRequest> granted) {
+			this.request = request;
+			this.granted = granted;
+		}
+
+		private void next() {
+			if (index == filters.length) {
+				granted.handle(request);
+				return;
+			}
+			start = System.nanoTime();
+			filters[index].canAccess(request, this);
+		}
+
+		@Override
+		public void handle(Boolean access) {
+			final boolean allowed = Boolean.TRUE.equals(access);
+			if (metrics[index] != null) {
+				metrics[index].record(start, allowed);
+			}
+			if (allowed) {
+				index++;
+				next();
+			} else {
+				filters[index].deny(request);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.request.filter;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the client scopes looked up by the Basic and query param token filters.<p>
+ * A scope is kept for the ttl. A client without scope (unknown client or wrong secret) is remembered for the
+ * negative ttl, in a separate map with its own bound, so that failed lookups never evict valid clients.
+ * Entries of a client can be dropped with {@link #invalidate(String)} when its scope changes.<p>
+ * The filters only cache the scopes when configured, see {@link #create(JsonObject)}.
+ */
+public final class ScopeCache {
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	public static final long DEFAULT_TTL = 60 * 1000L;
+	public static final int DEFAULT_NEGATIVE_MAX_SIZE = 1000;
+	public static final long DEFAULT_NEGATIVE_TTL = 10 * 1000L;
+
+	private static final char SEPARATOR = '\0';
+
+	private final int maxSize;
+	private final long ttl;
+	private final int negativeMaxSize;
+	private final long negativeTtl;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Map<String, Entry> rejected = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public ScopeCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_TTL, DEFAULT_NEGATIVE_MAX_SIZE, DEFAULT_NEGATIVE_TTL);
+	}
+
+	/**
+	 * @param maxSize Maximum number of scopes
+	 * @param ttl Time in ms a scope is kept
+	 * @param negativeMaxSize Maximum number of failed lookups
+	 * @param negativeTtl Time in ms a failed lookup is kept, 0 to disable negative caching
+	 */
+	public ScopeCache(int maxSize, long ttl, int negativeMaxSize, long negativeTtl) {
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		this.negativeMaxSize = negativeMaxSize;
+		this.negativeTtl = negativeTtl;
+	}
+
+	/**
+	 * Create the cache described by a configuration, e.g. the "scope-cache" object of the server config :
+	 * <pre>
+	 * {
+	 *   "enabled" : true,
+	 *   "max-size" : 1000,
+	 *   "ttl" : 60000,              // ms
+	 *   "negative-max-size" : 1000,
+	 *   "negative-ttl" : 10000      // ms, 0 to disable negative caching
+	 * }
+	 * </pre>
+	 * @return the cache, or null if the configuration is null or disabled
+	 */
+	public static ScopeCache create(JsonObject config) {
+		if (config == null || !config.getBoolean("enabled", true)) {
+			return null;
+		}
+		return new ScopeCache(
+				config.getInteger("max-size", DEFAULT_MAX_SIZE),
+				config.getLong("ttl", DEFAULT_TTL),
+				config.getInteger("negative-max-size", DEFAULT_NEGATIVE_MAX_SIZE),
+				config.getLong("negative-ttl", DEFAULT_NEGATIVE_TTL));
+	}
+
+	private static final class Entry {
+
+		private final String scope;
+		private final long expiresAt;
+
+		private Entry(String scope, long expiresAt) {
+			this.scope = scope;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * @param clientId Client id
+	 * @param discriminant Secret digest or other value the scope depends on, may be null
+	 */
+	static String key(String clientId, String discriminant) {
+		return discriminant != null ? clientId + SEPARATOR + discriminant : clientId;
+	}
+
+	/**
+	 * Give the cached scope to the handler, or look it up with the loader and cache the result.
+	 * @param loader Lookup of the scope, called with the handler receiving the scope
+	 */
+	void get(String key, Handler<Handler<String>> loader, Handler<String> handler) {
+		final long now = System.currentTimeMillis();
+		Entry entry = entries.get(key);
+		Map<String, Entry> map = entries;
+		if (entry == null) {
+			entry = rejected.get(key);
+			map = rejected;
+		}
+		if (entry != null && entry.expiresAt > now) {
+			hits.incrementAndGet();
+			handler.handle(entry.scope);
+			return;
+		}
+		if (entry != null) {
+			map.remove(key, entry);
+		}
+		misses.incrementAndGet();
+		loader.handle(scope -> {
+			final long loaded = System.currentTimeMillis();
+			if (scope != null && !scope.trim().isEmpty()) {
+				put(entries, maxSize, key, new Entry(scope, loaded + ttl), loaded);
+			} else if (negativeTtl > 0) {
+				put(rejected, negativeMaxSize, key, new Entry(scope, loaded + negativeTtl), loaded);
+			}
+			handler.handle(scope);
+		});
+	}
+
+	private void put(Map<String, Entry> map, int max, String key, Entry entry, long now) {
+		if (map.size() >= max) {
+			evict(map, max, now);
+		}
+		map.put(key, entry);
+	}
+
+	private synchronized void evict(Map<String, Entry> map, int max, long now) {
+		if (map.size() < max) {
+			return;
+		}
+		final Iterator<Entry> it = map.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().expiresAt <= now) {
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+		if (map.size() < max) {
+			return;
+		}
+		final int target = max - Math.max(1, max / 4);
+		final Iterator<Entry> live = map.values().iterator();
+		while (map.size() > target && live.hasNext()) {
+			live.next();
+			live.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drop the cached scopes and failed lookups of a client, whatever the secret used.
+	 */
+	public void invalidate(String clientId) {
+		if (clientId == null) {
+			return;
+		}
+		final String prefix = clientId + SEPARATOR;
+		entries.keySet().removeIf(k -> k.equals(clientId) || k.startsWith(prefix));
+		rejected.keySet().removeIf(k -> k.equals(clientId) || k.startsWith(prefix));
+	}
+
+	public void clear() {
+		entries.clear();
+		rejected.clear();
+	}
+
+	/**
+	 * @return the number of cached scopes
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of cached failed lookups
+	 */
+	public int negativeSize() {
+		return rejected.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+}
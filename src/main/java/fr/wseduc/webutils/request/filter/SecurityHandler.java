@@ -24,49 +24,57 @@ public class SecurityHandler implements Handler<HttpServerRequest> {
 	// Chaque instance peut recevoir son propre Vert.x si nécessaire
 	private final Vertx vertx;
 
+	// Compilé à la première requête, après l'ajout des filtres
+	private volatile FilterPipeline pipeline;
+
+	private final Handler<HttpServerRequest> granted = request -> {
+		request.resume();
+		filter(request);
+	};
+
 	public SecurityHandler(Vertx vertx) {
-		this.vertx = vertx;
-		chain.add(new AccessLoggerFilter(new AccessLogger()));
-		chain.add(new UserAuthFilter());
+		this(vertx, defaultFilters());
 	}
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private Handler<Boolean> chainToHandler(final HttpServerRequest request) {
-		final Handler[] handlers = new Handler[chain.size()];
-		request.pause();
-		handlers[chain.size() - 1] = access -> {
-			if (Boolean.TRUE.equals(access)) {
-				request.resume();
-				filter(request);
-			} else {
-				chain.get(chain.size() - 1).deny(request);
-			}
-		};
-		for (int i = chain.size() - 2; i >= 0; i--) {
-			final int idx = i;
-
-			handlers[i] = access -> {
-				if (Boolean.TRUE.equals(access)) {
-					chain.get(idx + 1).canAccess(request, handlers[idx + 1]);
-				} else {
-					chain.get(idx).deny(request);
-				}
-			};
-		}
+	/**
+	 * @param filters The chain of filters, replacing the default one
+	 */
+	public SecurityHandler(Vertx vertx, List<Filter> filters) {
+		this.vertx = vertx;
+		chain.addAll(filters);
+	}
 
-		return handlers[0];
+	/**
+	 * @return a new default chain : the access logger then the user authentication
+	 */
+	public static List<Filter> defaultFilters() {
+		final List<Filter> filters = new ArrayList<>();
+		filters.add(new AccessLoggerFilter(new AccessLogger()));
+		filters.add(new UserAuthFilter());
+		return filters;
 	}
 
 	@Override
 	public void handle(HttpServerRequest request) {
-		if (!chain.isEmpty()) {
+		final FilterPipeline p = pipeline();
+		if (!p.isEmpty()) {
 			SecureHttpServerRequest sr = new XssSecuredHttpServerRequest(request);
-			chain.get(0).canAccess(sr, chainToHandler(sr));
+			sr.pause();
+			p.execute(sr, granted);
 		} else {
 			filter(request);
 		}
 	}
 
+	private FilterPipeline pipeline() {
+		FilterPipeline p = pipeline;
+		if (p == null) {
+			p = new FilterPipeline(chain);
+			pipeline = p;
+		}
+		return p;
+	}
+
 	public void addFilter(Filter filter) {
 		// add only once in case of multiple instances per verticle
 		for (final Filter f : chain) {
@@ -76,10 +84,12 @@ public class SecurityHandler implements Handler<HttpServerRequest> {
 			}
 		}
 		chain.add(filter);
+		pipeline = null;
 	}
 
 	public void clearFilters() {
 		chain.clear();
+		pipeline = null;
 	}
 
 	public void setVertx() {
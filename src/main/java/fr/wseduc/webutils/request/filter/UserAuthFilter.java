@@ -195,6 +195,24 @@ public class UserAuthFilter implements Filter, WithVertx {
 		if( queryParamFilter != null ) {
 			queryParamFilter.init(vertx);
 		}
+		configureScopeCaches(vertx.sharedData().getLocalMap("server").get("scope-cache"));
+	}
+
+	/**
+	 * Cache the client scopes of the Basic and query param token filters when the server config has a
+	 * "scope-cache" object, see {@link ScopeCache#create(JsonObject)}. A cache already set on a filter is kept.
+	 */
+	private void configureScopeCaches(Object config) {
+		if (config == null) {
+			return;
+		}
+		final JsonObject conf = config instanceof JsonObject ? (JsonObject) config : new JsonObject(config.toString());
+		if (basicFilter != null && basicFilter.getScopeCache() == null) {
+			basicFilter.setScopeCache(ScopeCache.create(conf));
+		}
+		if (queryParamFilter != null && queryParamFilter.getScopeCache() == null) {
+			queryParamFilter.setScopeCache(ScopeCache.create(conf));
+		}
 	}
 
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.security;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.json.jackson.DatabindCodec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Compact serialization of a JWT : <code>header.payload.signature</code>, each part base64url encoded.<p>
+ * The token is scanned once to find the two dots. The parts are decoded from the token bytes and the signing
+ * input is given to the verifier as a range of these bytes, so no intermediate String is built.
+ */
+final class CompactJwt {
+
+	private static final byte[] ENCODE =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+	private static final int[] DECODE = new int[128];
+
+	static {
+		Arrays.fill(DECODE, -1);
+		for (int i = 0; i < ENCODE.length; i++) {
+			DECODE[ENCODE[i]] = i;
+		}
+		// tokens and certificates are sometimes encoded with the standard alphabet
+		DECODE['+'] = 62;
+		DECODE['/'] = 63;
+	}
+
+	private final byte[] token;
+	private final int headerEnd;
+	private final int payloadEnd;
+
+	private CompactJwt(byte[] token, int headerEnd, int payloadEnd) {
+		this.token = token;
+		this.headerEnd = headerEnd;
+		this.payloadEnd = payloadEnd;
+	}
+
+	/**
+	 * @return the parsed token, or null if the token isn't made of three parts
+	 */
+	static CompactJwt parse(String token) {
+		if (token == null) {
+			return null;
+		}
+		final int length = token.length();
+		final byte[] bytes = new byte[length];
+		int headerEnd = -1;
+		int payloadEnd = -1;
+		for (int i = 0; i < length; i++) {
+			final char c = token.charAt(i);
+			if (c >= 128) {
+				return null;
+			}
+			if (c == '.') {
+				if (headerEnd < 0) {
+					headerEnd = i;
+				} else if (payloadEnd < 0) {
+					payloadEnd = i;
+				} else {
+					return null;
+				}
+			}
+			bytes[i] = (byte) c;
+		}
+		if (payloadEnd < 0 || payloadEnd == length - 1) {
+			return null;
+		}
+		return new CompactJwt(bytes, headerEnd, payloadEnd);
+	}
+
+	JsonObject header() throws IOException {
+		return toJson(decode(token, 0, headerEnd));
+	}
+
+	JsonObject payload() throws IOException {
+		return toJson(decode(token, headerEnd + 1, payloadEnd));
+	}
+
+	byte[] signature() {
+		return decode(token, payloadEnd + 1, token.length);
+	}
+
+	/**
+	 * @return the token bytes, the signing input is the range [0, {@link #signingInputLength()})
+	 */
+	byte[] bytes() {
+		return token;
+	}
+
+	int signingInputLength() {
+		return payloadEnd;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JsonObject toJson(byte[] json) throws IOException {
+		return new JsonObject(DatabindCodec.mapper().readValue(json, Map.class));
+	}
+
+	/**
+	 * Encode the header and the payload of a token in a buffer which has room for the signature.
+	 * @param signatureLength Expected length of the signature
+	 * @return the buffer, the signing input is the range [0, {@link #signingInputLength(byte[], int)})
+	 */
+	static byte[] signingInput(JsonObject header, JsonObject payload, int signatureLength) {
+		// not toBuffer(), which escapes the characters outside of the BMP where encode() writes them in UTF-8
+		final byte[] h = header.encode().getBytes(StandardCharsets.UTF_8);
+		final byte[] p = payload.encode().getBytes(StandardCharsets.UTF_8);
+		final byte[] buffer = new byte[encodedLength(h.length) + 1 + encodedLength(p.length) + 1 +
+				encodedLength(signatureLength)];
+		int pos = encode(h, buffer, 0);
+		buffer[pos++] = '.';
+		pos = encode(p, buffer, pos);
+		buffer[pos] = '.';
+		return buffer;
+	}
+
+	static int signingInputLength(byte[] buffer, int signatureLength) {
+		return buffer.length - 1 - encodedLength(signatureLength);
+	}
+
+	/**
+	 * Append the signature to a buffer returned by {@link #signingInput(JsonObject, JsonObject, int)}.
+	 * @return the token
+	 */
+	static String sign(byte[] buffer, int signingInputLength, byte[] signature) {
+		final int length = signingInputLength + 1 + encodedLength(signature.length);
+		final byte[] out = length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+		out[signingInputLength] = '.';
+		encode(signature, out, signingInputLength + 1);
+		return new String(out, StandardCharsets.US_ASCII);
+	}
+
+	static int encodedLength(int length) {
+		return (length + 2) / 3 * 4;
+	}
+
+	/**
+	 * Encode in base64url with padding, like {@link java.util.Base64#getUrlEncoder()}.
+	 * @return the position after the last written byte
+	 */
+	static int encode(byte[] src, byte[] dst, int pos) {
+		final int full = src.length - src.length % 3;
+		int i = 0;
+		while (i < full) {
+			final int bits = (src[i++] & 0xff) << 16 | (src[i++] & 0xff) << 8 | (src[i++] & 0xff);
+			dst[pos++] = ENCODE[bits >>> 18 & 0x3f];
+			dst[pos++] = ENCODE[bits >>> 12 & 0x3f];
+			dst[pos++] = ENCODE[bits >>> 6 & 0x3f];
+			dst[pos++] = ENCODE[bits & 0x3f];
+		}
+		final int remaining = src.length - full;
+		if (remaining > 0) {
+			final int bits = (src[i] & 0xff) << 16 | (remaining == 2 ? (src[i + 1] & 0xff) << 8 : 0);
+			dst[pos++] = ENCODE[bits >>> 18 & 0x3f];
+			dst[pos++] = ENCODE[bits >>> 12 & 0x3f];
+			dst[pos++] = remaining == 2 ? ENCODE[bits >>> 6 & 0x3f] : (byte) '=';
+			dst[pos++] = '=';
+		}
+		return pos;
+	}
+
+	/**
+	 * Decode a base64 range, in the url or the standard alphabet, with or without padding. New lines are ignored.
+	 * @throws IllegalArgumentException if the range isn't valid base64
+	 */
+	static byte[] decode(byte[] src, int from, int to) {
+		final byte[] out = new byte[(to - from) / 4 * 3 + 3];
+		int pos = 0;
+		int bits = 0;
+		int count = 0;
+		int i = from;
+		for (; i < to; i++) {
+			final int c = src[i];
+			if (c == '\n') {
+				continue;
+			}
+			if (c == '=') {
+				break;
+			}
+			final int value = c >= 0 ? DECODE[c] : -1;
+			if (value < 0) {
+				throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(c));
+			}
+			bits = bits << 6 | value;
+			if (++count == 4) {
+				out[pos++] = (byte) (bits >> 16);
+				out[pos++] = (byte) (bits >> 8);
+				out[pos++] = (byte) bits;
+				bits = 0;
+				count = 0;
+			}
+		}
+		for (; i < to; i++) {
+			if (src[i] != '=' && src[i] != '\n') {
+				throw new IllegalArgumentException("Input byte array has incorrect ending");
+			}
+		}
+		switch (count) {
+			case 1:
+				throw new IllegalArgumentException("Last unit does not have enough valid bits");
+			case 2:
+				out[pos++] = (byte) (bits >> 4);
+				break;
+			case 3:
+				out[pos++] = (byte) (bits >> 10);
+				out[pos++] = (byte) (bits >> 2);
+				break;
+			default:
+		}
+		return pos == out.length ? out : Arrays.copyOf(out, pos);
+	}
+
+}
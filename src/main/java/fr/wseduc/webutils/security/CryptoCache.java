@@ -0,0 +1,124 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.security;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Per thread cache of the cryptographic primitives used on each request.<p>
+ * {@link Mac} instances are kept initialized for each (algorithm, key) so that the provider lookup and the key
+ * setup are only done once per thread. {@link Signature} instances are kept per algorithm and initialized with
+ * the key on each use, which is cheap compared to the provider lookup. {@link MessageDigest} instances are kept
+ * per algorithm.<p>
+ * The returned instances must not escape the calling thread nor be used after another call on the same thread.
+ */
+final class CryptoCache {
+
+	private static final int MAX_MACS_PER_THREAD = 16;
+
+	private static final ThreadLocal<Map<MacKey, Mac>> macs = ThreadLocal.withInitial(() ->
+			new LinkedHashMap<MacKey, Mac>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<MacKey, Mac> eldest) {
+					return size() > MAX_MACS_PER_THREAD;
+				}
+			});
+
+	private static final ThreadLocal<Map<String, Signature>> signatures = ThreadLocal.withInitial(HashMap::new);
+
+	private static final ThreadLocal<Map<String, MessageDigest>> digests = ThreadLocal.withInitial(HashMap::new);
+
+	private CryptoCache() {}
+
+	static Mac mac(String algorithm, byte[] key) throws NoSuchAlgorithmException, InvalidKeyException {
+		final Map<MacKey, Mac> cache = macs.get();
+		final MacKey macKey = new MacKey(algorithm, key);
+		Mac mac = cache.get(macKey);
+		if (mac == null) {
+			mac = Mac.getInstance(algorithm);
+			mac.init(new SecretKeySpec(key, algorithm));
+			cache.put(macKey.copy(), mac);
+		} else {
+			mac.reset();
+		}
+		return mac;
+	}
+
+	static Signature signature(String algorithm) throws NoSuchAlgorithmException {
+		final Map<String, Signature> cache = signatures.get();
+		Signature signature = cache.get(algorithm);
+		if (signature == null) {
+			signature = Signature.getInstance(algorithm);
+			cache.put(algorithm, signature);
+		}
+		return signature;
+	}
+
+	static MessageDigest digest(String algorithm) throws NoSuchAlgorithmException {
+		final Map<String, MessageDigest> cache = digests.get();
+		MessageDigest digest = cache.get(algorithm);
+		if (digest == null) {
+			digest = MessageDigest.getInstance(algorithm);
+			cache.put(algorithm, digest);
+		} else {
+			digest.reset();
+		}
+		return digest;
+	}
+
+	private static final class MacKey {
+
+		private final String algorithm;
+		private final byte[] key;
+		private final int hash;
+
+		private MacKey(String algorithm, byte[] key) {
+			this.algorithm = algorithm;
+			this.key = key;
+			this.hash = 31 * algorithm.hashCode() + Arrays.hashCode(key);
+		}
+
+		private MacKey copy() {
+			// the caller keeps ownership of its array
+			return new MacKey(algorithm, key.clone());
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof MacKey)) return false;
+			final MacKey other = (MacKey) o;
+			return hash == other.hash && algorithm.equals(other.algorithm) && Arrays.equals(key, other.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+}
@@ -21,20 +21,19 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 
 public class HmacSha1 {
 
 	public static String sign(String content, String key)
 			throws NoSuchAlgorithmException, InvalidKeyException,
 			IllegalStateException, UnsupportedEncodingException {
-		SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), "HmacSHA1");
-		Mac mac = Mac.getInstance("HmacSHA1");
-		mac.init(signingKey);
-		byte[] signed = mac.doFinal(content.getBytes("UTF-8"));
+		byte[] signed = sign(content.getBytes("UTF-8"), key.getBytes());
 		return Base64.getEncoder().encodeToString(signed);
 	}
 
+	public static byte[] sign(byte[] content, byte[] key)
+			throws NoSuchAlgorithmException, InvalidKeyException {
+		return CryptoCache.mac("HmacSHA1", key).doFinal(content);
+	}
+
 }
@@ -21,9 +21,6 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 
 public class HmacSha256 {
 
@@ -36,10 +33,12 @@ public class HmacSha256 {
 	public static byte[] sign(String content, byte[] key)
 			throws NoSuchAlgorithmException,
 			IllegalStateException, UnsupportedEncodingException, InvalidKeyException {
-		SecretKeySpec signingKey = new SecretKeySpec(key, "HmacSHA256");
-		Mac mac = Mac.getInstance("HmacSHA256");
-		mac.init(signingKey);
-		return mac.doFinal(content.getBytes("UTF-8"));
+		return sign(content.getBytes("UTF-8"), key);
+	}
+
+	public static byte[] sign(byte[] content, byte[] key)
+			throws NoSuchAlgorithmException, InvalidKeyException {
+		return CryptoCache.mac("HmacSHA256", key).doFinal(content);
 	}
 
 }
@@ -18,7 +18,9 @@ package fr.wseduc.webutils.security;
 
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.*;
@@ -28,26 +30,28 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
+import java.security.interfaces.RSAKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static fr.wseduc.webutils.Utils.isEmpty;
@@ -59,8 +63,18 @@ public final class JWT {
 	private String secret;
 	private HttpClient httpClient;
 	private String certsPath;
-	private final ConcurrentMap<String, PublicKey> certificates = new ConcurrentHashMap<>();
+	private static final long DEFAULT_REFRESH_PERIOD = 15 * 60 * 1000L;
+	private static final long DEFAULT_MIN_REFRESH_INTERVAL = 30 * 1000L;
+	private static final long MAX_REFRESH_PERIOD = 24 * 60 * 60 * 1000L;
+	private Vertx vertx;
+	private volatile Map<String, PublicKey> certificates = Collections.emptyMap();
+	private Future<Void> pendingRefresh;
+	private long lastRefresh;
+	private long refreshTimer = -1L;
+	private long refreshPeriod = DEFAULT_REFRESH_PERIOD;
+	private long minRefreshInterval = DEFAULT_MIN_REFRESH_INTERVAL;
 	private final List<Key> privateKeys = new ArrayList<>();
+	private volatile VerifiedTokenCache verifiedTokens = new VerifiedTokenCache();
 
 	private class Key {
 		private final String kid;
@@ -98,10 +112,11 @@ public final class JWT {
 					.setDefaultPort(certsUri.getPort())
 					.setSsl("https".equals(certsUri.getScheme()))
 					.setMaxPoolSize(4)
-					.setKeepAlive(false);
+					.setKeepAlive(true);
+			this.vertx = vertx;
 			this.httpClient = vertx.createHttpClient(options);
 			this.certsPath = certsUri.getPath();
-			findCertificates(null);
+			findCertificates();
 		}
 		this.secret = secret;
 	}
@@ -178,65 +193,173 @@ public final class JWT {
 		});
 	}
 
-	@SuppressWarnings("deprecation")
-	private void findCertificates(final Handler<Void> handler) {
-    String stringLog = "GET %s %d rt=%d";
-    long startTime = System.currentTimeMillis();
-    httpClient.request(HttpMethod.GET, certsPath)
-		.flatMap(HttpClientRequest::send)
-		.onSuccess(response -> {
-      long endTime = System.currentTimeMillis();
-      long responseTime = endTime - startTime;
-      log.info(String.format(stringLog, response.request().path(), response.statusCode(), responseTime));
-      if (response.statusCode() == 200) {
-				response.bodyHandler(buffer -> {
-                    JsonObject cert =  new JsonObject(buffer.toString("UTF-8"));
-                    JsonArray certificateKeys = cert.getJsonArray("keys");
-                    if(certificateKeys != null)
-                    {
-                        for(int i = 0; i < certificateKeys.size(); ++i)
-                        {
-                            JsonObject JWT = certificateKeys.getJsonObject(i);
-									if (JWT != null)
-										readJWT(JWT, false);
-                        }
-                    }
-                    else
-                        readJWT(cert, true);
-
-                    if (handler != null) {
-                        handler.handle(null);
-                    }
-                });
-			} else if (handler != null) {
-				handler.handle(null);
+	/**
+	 * Fetch the keys published on the certificates uri, and replace the known keys with them.<p>
+	 * Only one fetch is in flight at a time, concurrent callers share its result. The next fetch is scheduled
+	 * according to the Cache-Control max-age of the response, or the refresh period.
+	 */
+	private synchronized Future<Void> findCertificates() {
+		if (pendingRefresh != null) {
+			return pendingRefresh;
+		}
+		final Promise<Void> promise = Promise.promise();
+		pendingRefresh = promise.future();
+		lastRefresh = System.currentTimeMillis();
+		final String stringLog = "GET %s %d rt=%d";
+		final long startTime = System.currentTimeMillis();
+		httpClient.request(HttpMethod.GET, certsPath)
+			.flatMap(HttpClientRequest::send)
+			.onSuccess(response -> {
+				final long responseTime = System.currentTimeMillis() - startTime;
+				log.info(String.format(stringLog, response.request().path(), response.statusCode(), responseTime));
+				if (response.statusCode() == 200) {
+					final long maxAge = maxAge(response.getHeader("Cache-Control"));
+					response.body().onComplete(ar -> {
+						if (ar.succeeded()) {
+							readCertificates(ar.result());
+						} else {
+							log.error("JWT::Error while reading certificates", ar.cause());
+						}
+						refreshed(promise, maxAge);
+					});
+				} else {
+					// the body is read so that the connection goes back to the pool
+					response.body().onComplete(ar -> refreshed(promise, -1L));
+				}
+			})
+			.onFailure(th -> {
+				log.error("JWT::Error while fetching certificates", th);
+				refreshed(promise, -1L);
+			});
+		return pendingRefresh;
+	}
+
+	private void readCertificates(Buffer buffer) {
+		final Map<String, PublicKey> keys = new HashMap<>();
+		try {
+			final JsonObject cert = new JsonObject(buffer.toString("UTF-8"));
+			final JsonArray certificateKeys = cert.getJsonArray("keys");
+			if (certificateKeys != null) {
+				for (int i = 0; i < certificateKeys.size(); ++i) {
+					final JsonObject JWT = certificateKeys.getJsonObject(i);
+					if (JWT != null) {
+						readJWT(JWT, false, keys);
+					}
+				}
+			} else {
+				readJWT(cert, true, keys);
 			}
-		})
-		.onFailure(th -> {
-			log.error("JWT::Error while fetching certificates", th);
-			if (handler != null) {
-				handler.handle(null);
+		} catch (RuntimeException e) {
+			log.error("JWT::Invalid certificates document", e);
+		}
+		if (keys.isEmpty()) {
+			log.warn("JWT::No key found in certificates, keeping the previous ones");
+		} else {
+			certificates = Collections.unmodifiableMap(keys);
+		}
+	}
+
+	private void refreshed(Promise<Void> promise, long maxAge) {
+		synchronized (this) {
+			pendingRefresh = null;
+			if (refreshTimer != -1L) {
+				vertx.cancelTimer(refreshTimer);
 			}
-		});
+			final long delay = maxAge >= 0 ?
+					Math.min(Math.max(maxAge, minRefreshInterval), MAX_REFRESH_PERIOD) : refreshPeriod;
+			refreshTimer = vertx.setTimer(delay, id -> {
+				synchronized (this) {
+					refreshTimer = -1L;
+				}
+				findCertificates();
+			});
+		}
+		promise.complete();
+	}
+
+	/**
+	 * Refresh the keys because a token uses an unknown key id.
+	 * @return the refresh to wait for, or null if the keys were refreshed too recently to try again
+	 */
+	private synchronized Future<Void> refreshOnUnknownKid() {
+		if (httpClient == null) {
+			return null;
+		}
+		if (pendingRefresh == null && System.currentTimeMillis() - lastRefresh < minRefreshInterval) {
+			return null;
+		}
+		return findCertificates();
+	}
+
+	/**
+	 * @param cacheControl The Cache-Control header of the certificates response
+	 * @return the max-age in ms, 0 if the response must not be cached, or -1 if the header doesn't tell
+	 */
+	static long maxAge(String cacheControl) {
+		if (cacheControl == null) {
+			return -1L;
+		}
+		for (String directive : cacheControl.split(",")) {
+			final String d = directive.trim().toLowerCase(Locale.ROOT);
+			if (d.equals("no-cache") || d.equals("no-store")) {
+				return 0L;
+			}
+			if (d.startsWith("max-age=")) {
+				try {
+					return Long.parseLong(d.substring(8).replace("\"", "").trim()) * 1000L;
+				} catch (NumberFormatException e) {
+					return -1L;
+				}
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * @param refreshPeriod Period in ms between two fetches of the certificates when the response has no max-age
+	 */
+	public synchronized void setRefreshPeriod(long refreshPeriod) {
+		this.refreshPeriod = refreshPeriod;
+	}
+
+	/**
+	 * @param minRefreshInterval Minimum time in ms between two fetches of the certificates, also used to limit
+	 *                           the fetches triggered by tokens with an unknown key id
+	 */
+	public synchronized void setMinRefreshInterval(long minRefreshInterval) {
+		this.minRefreshInterval = minRefreshInterval;
+	}
+
+	/**
+	 * Stop refreshing the certificates and release the http client.
+	 */
+	public synchronized void close() {
+		if (refreshTimer != -1L) {
+			vertx.cancelTimer(refreshTimer);
+			refreshTimer = -1L;
+		}
+		if (httpClient != null) {
+			httpClient.close();
+		}
 	}
 
-	private boolean readJWT(JsonObject JWT, boolean fallbackPlain)
+	private boolean readJWT(JsonObject JWT, boolean fallbackPlain, Map<String, PublicKey> keys)
 	{
 		String keyType = JWT.getString("kty");
 		String keyId = JWT.getString("kid");
 		if(keyType != null)
 		{
 			if("RSA".equals(keyType))
-				return readJWT_RSA(JWT, keyId);
+				return readJWT_RSA(JWT, keyId, keys);
 		}
 		else if(fallbackPlain == true)
 		{
-			readPlainCertificate(JWT);
+			readPlainCertificate(JWT, keys);
 		}
 		return false;
 	}
 
-	private boolean readJWT_RSA(JsonObject JWT, String keyId)
+	private boolean readJWT_RSA(JsonObject JWT, String keyId, Map<String, PublicKey> keys)
 	{
 		JsonArray x5cArray = JWT.getJsonArray("x5c");
 		String x5c = null;
@@ -250,7 +373,7 @@ public final class JWT {
 				CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
 				Certificate certificate = certFactory.generateCertificate(new ByteArrayInputStream(base64DecodeToByte(x5c)));
 				PublicKey pKey = certificate.getPublicKey();
-				certificates.putIfAbsent(keyId, pKey);
+				keys.putIfAbsent(keyId, pKey);
 				return true;
 			} catch (Exception e) {
 				log.error(e.getMessage(), e);
@@ -264,9 +387,9 @@ public final class JWT {
 			if(exponent != null && modulus != null)
 			{
 				try {
-					KeySpec kSpec = new RSAPublicKeySpec(new BigInteger(base64DecodeToByte(modulus)),new BigInteger(base64DecodeToByte(exponent)));
+					KeySpec kSpec = new RSAPublicKeySpec(new BigInteger(1, base64DecodeToByte(modulus)), new BigInteger(1, base64DecodeToByte(exponent)));
 					PublicKey pKey = KeyFactory.getInstance("RSA").generatePublic(kSpec);
-					certificates.putIfAbsent(keyId, pKey);
+					keys.putIfAbsent(keyId, pKey);
 				} catch (Exception e) {
 					log.error(e.getMessage(), e);
 				}
@@ -276,7 +399,7 @@ public final class JWT {
 		return false;
 	}
 
-	private void readPlainCertificate(JsonObject plainCertificate)
+	private void readPlainCertificate(JsonObject plainCertificate, Map<String, PublicKey> keys)
 	{
 		try {
 			CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
@@ -287,7 +410,7 @@ public final class JWT {
 						Certificate certificate = certFactory.generateCertificate(
 								new ByteArrayInputStream(cert.getBytes("UTF-8")));
 						PublicKey pKey = certificate.getPublicKey();
-						certificates.putIfAbsent(field, pKey);
+						keys.putIfAbsent(field, pKey);
 					} catch (CertificateException | UnsupportedEncodingException e) {
 						log.error(e.getMessage(), e);
 					}
@@ -309,7 +432,7 @@ public final class JWT {
 //		for (int i = 0; i < repeat; i++) {
 //			b.append("=");
 //		}
-		return Base64.getUrlDecoder().decode(s.replaceAll("\n", "").replaceAll("\\+", "-").replaceAll("\\/", "_")); // + b.toString());
+		return CompactJwt.decode(s.getBytes(StandardCharsets.ISO_8859_1), 0, s.length());
 	}
 
 	public static String base64Encode(String s) throws UnsupportedEncodingException {
@@ -340,20 +463,40 @@ public final class JWT {
 
 
 	public void verifyAndGet(final String token, final Handler<JsonObject> handler) {
-		String[] t = token.split("\\.");
-		if (t.length != 3) {
+		final CompactJwt t = CompactJwt.parse(token);
+		if (t == null) {
 			handler.handle(null);
 			return;
 		}
+		final VerifiedTokenCache cache = verifiedTokens;
+		final String cacheKey;
+		if (cache != null) {
+			cacheKey = VerifiedTokenCache.key(token);
+			final VerifiedTokenCache.Entry entry = cache.get(cacheKey);
+			if (entry != null) {
+				handler.handle(entry.payload());
+				return;
+			}
+		} else {
+			cacheKey = null;
+		}
 		JsonObject header;
 		try {
-			header = new JsonObject(base64Decode(t[0]));
-		} catch (UnsupportedEncodingException e) {
+			header = t.header();
+		} catch (Exception e) {
 			log.error(e.getMessage(), e);
 			handler.handle(null);
 			return;
 		}
-		switch (Algorithm.valueOf(header.getString("alg"))) {
+		final Algorithm algorithm;
+		try {
+			algorithm = Algorithm.valueOf(header.getString("alg"));
+		} catch (RuntimeException e) {
+			log.error("Unsupported signature algorithm.");
+			handler.handle(null);
+			return;
+		}
+		switch (algorithm) {
 			case RS256:
 			case RS384:
 			case RS512:
@@ -361,14 +504,18 @@ public final class JWT {
 				if (kid != null) {
 					PublicKey publicKey = certificates.get(kid);
 					if (publicKey == null) {
-						findCertificates(new Handler<Void>() {
-							@Override
-							public void handle(Void v) {
-								handler.handle(verifyAndGet(token, certificates.get(kid)));
-							}
+						final Future<Void> refresh = refreshOnUnknownKid();
+						if (refresh == null) {
+							log.debug("unknown key id " + kid);
+							handler.handle(null);
+							return;
+						}
+						refresh.onComplete(v -> {
+							final PublicKey key = certificates.get(kid);
+							handler.handle(key != null ? verified(cache, cacheKey, verify(t, algorithm, key)) : null);
 						});
 					} else {
-						handler.handle(verifyAndGet(token, publicKey));
+						handler.handle(verified(cache, cacheKey, verify(t, algorithm, publicKey)));
 					}
 				} else {
 					log.error("missing key id");
@@ -376,7 +523,7 @@ public final class JWT {
 				}
 			break;
 			case HS256:
-				handler.handle(verifyAndGet(token, secret));
+				handler.handle(isEmpty(secret) ? null : verified(cache, cacheKey, verify(t, algorithm, secret)));
 				break;
 			default:
 				log.error("Unsupported signature algorithm.");
@@ -384,22 +531,37 @@ public final class JWT {
 
 	}
 
+	private static JsonObject verified(VerifiedTokenCache cache, String cacheKey, JsonObject payload) {
+		if (cache != null) {
+			if (payload != null) {
+				cache.putVerified(cacheKey, payload);
+			} else {
+				cache.putRejected(cacheKey);
+			}
+		}
+		return payload;
+	}
+
+	/**
+	 * Cache the tokens verified by {@link #verifyAndGet(String, Handler)}.
+	 * @param verifiedTokens The cache to use, or null to verify every token
+	 */
+	public void setVerifiedTokenCache(VerifiedTokenCache verifiedTokens) {
+		this.verifiedTokens = verifiedTokens;
+	}
+
+	public VerifiedTokenCache getVerifiedTokenCache() {
+		return verifiedTokens;
+	}
+
 	public static JsonObject verifyAndGet(String token, PublicKey publicKey) {
 		log.debug(token);
-		String[] t = token.split("\\.");
-		if (t.length != 3 || publicKey == null) {
+		final CompactJwt t = CompactJwt.parse(token);
+		if (t == null || publicKey == null) {
 			return null;
 		}
 		try {
-			JsonObject header = new JsonObject(base64Decode(t[0]));
-			JsonObject payload = new JsonObject(base64Decode(t[1]));
-			byte[] signature = base64DecodeToByte(t[2]);
-			Signature sign = Signature.getInstance(Algorithm.valueOf(header.getString("alg")).getAlgo());
-			sign.initVerify(publicKey);
-			sign.update((t[0] + "." + t[1]).getBytes("UTF-8"));
-			if (sign.verify(signature)) {
-				return payload;
-			}
+			return verify(t, Algorithm.valueOf(t.header().getString("alg")), publicKey);
 		} catch (Exception e) {
 			log.error(e.getMessage(), e);
 		}
@@ -408,21 +570,38 @@ public final class JWT {
 
 	public static JsonObject verifyAndGet(String token, String secret) {
 		log.debug(token);
-		final String[] t = token.split("\\.");
-		if (t.length != 3 || isEmpty(secret)) {
+		final CompactJwt t = CompactJwt.parse(token);
+		if (t == null || isEmpty(secret)) {
 			return null;
 		}
 		try {
-			final JsonObject header = new JsonObject(base64Decode(t[0]));
-			final JsonObject payload = new JsonObject(base64Decode(t[1]));
-			final String algo = Algorithm.valueOf(header.getString("alg")).getAlgo();
-			final SecretKeySpec signingKey = new SecretKeySpec(secret.getBytes(), algo);
-			final Mac mac = Mac.getInstance(algo);
-			mac.init(signingKey);
-			byte[] signed = mac.doFinal((t[0] + "." + t[1]).getBytes("UTF-8"));
-			byte[] signature = base64DecodeToByte(t[2]);
-			if (Arrays.equals(signature, signed)) {
-				return payload;
+			return verify(t, Algorithm.valueOf(t.header().getString("alg")), secret);
+		} catch (Exception e) {
+			log.error(e.getMessage(), e);
+		}
+		return null;
+	}
+
+	private static JsonObject verify(CompactJwt t, Algorithm algorithm, PublicKey publicKey) {
+		try {
+			Signature sign = CryptoCache.signature(algorithm.getAlgo());
+			sign.initVerify(publicKey);
+			sign.update(t.bytes(), 0, t.signingInputLength());
+			if (sign.verify(t.signature())) {
+				return t.payload();
+			}
+		} catch (Exception e) {
+			log.error(e.getMessage(), e);
+		}
+		return null;
+	}
+
+	private static JsonObject verify(CompactJwt t, Algorithm algorithm, String secret) {
+		try {
+			final Mac mac = CryptoCache.mac(algorithm.getAlgo(), secret.getBytes());
+			mac.update(t.bytes(), 0, t.signingInputLength());
+			if (MessageDigest.isEqual(t.signature(), mac.doFinal())) {
+				return t.payload();
 			}
 		} catch (Exception e) {
 			log.error(e.getMessage(), e);
@@ -438,14 +617,12 @@ public final class JWT {
 	public String encodeAndSignHmac(JsonObject payload) throws Exception {
 		if (isEmpty(secret)) return null;
 		final JsonObject header = new JsonObject().put("typ", "JWT").put("alg", "HS256");
-		final StringBuilder sb = new StringBuilder();
-		sb.append(base64Encode(header.encode())).append(".").append(base64Encode(payload.encode()));
-		SecretKeySpec signingKey = new SecretKeySpec(secret.getBytes(), "HmacSHA256");
-		Mac mac = Mac.getInstance("HmacSHA256");
-		mac.init(signingKey);
-		final String sign = base64Encode(mac.doFinal(sb.toString().getBytes("UTF-8")));
-		sb.append(".").append(sign);
-		return sb.toString();
+		final Mac mac = CryptoCache.mac("HmacSHA256", secret.getBytes());
+		final int signatureLength = mac.getMacLength();
+		final byte[] buffer = CompactJwt.signingInput(header, payload, signatureLength);
+		final int length = CompactJwt.signingInputLength(buffer, signatureLength);
+		mac.update(buffer, 0, length);
+		return CompactJwt.sign(buffer, length, mac.doFinal());
 	}
 
 	public static String encodeAndSign(JsonObject payload, String kid, PrivateKey privateKey) throws Exception {
@@ -453,13 +630,14 @@ public final class JWT {
 		if (isNotEmpty(kid)) {
 			header.put("kid", kid);
 		}
-		final StringBuilder sb = new StringBuilder();
-		sb.append(base64Encode(header.encode())).append(".").append(base64Encode(payload.encode()));
-		Signature sign = Signature.getInstance("SHA256withRSA");
+		final int signatureLength = (privateKey instanceof RSAKey) ?
+				(((RSAKey) privateKey).getModulus().bitLength() + 7) / 8 : 256;
+		final byte[] buffer = CompactJwt.signingInput(header, payload, signatureLength);
+		final int length = CompactJwt.signingInputLength(buffer, signatureLength);
+		Signature sign = CryptoCache.signature("SHA256withRSA");
 		sign.initSign(privateKey);
-		sign.update(sb.toString().getBytes("UTF-8"));
-		sb.append(".").append(base64Encode(sign.sign()));
-		return sb.toString();
+		sign.update(buffer, 0, length);
+		return CompactJwt.sign(buffer, length, sign.sign());
 	}
 
 }
@@ -86,13 +86,16 @@ public class RSA
   public static String sign(String plainText, PrivateKey privateKey)
     throws NoSuchAlgorithmException, InvalidKeyException, SignatureException
   {
-    Signature privateSignature = Signature.getInstance("SHA256withRSA");
-    privateSignature.initSign(privateKey);
-    privateSignature.update(plainText.getBytes(UTF_8));
-
-    byte[] signature = privateSignature.sign();
+    return Base64.getEncoder().encodeToString(sign(plainText.getBytes(UTF_8), privateKey));
+  }
 
-    return Base64.getEncoder().encodeToString(signature);
+  public static byte[] sign(byte[] data, PrivateKey privateKey)
+    throws NoSuchAlgorithmException, InvalidKeyException, SignatureException
+  {
+    Signature privateSignature = CryptoCache.signature("SHA256withRSA");
+    privateSignature.initSign(privateKey);
+    privateSignature.update(data);
+    return privateSignature.sign();
   }
 
 	public static String signFile(String path, PrivateKey privateKey) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, IOException
@@ -173,12 +176,15 @@ public class RSA
   public static boolean verify(String plainText, String signature, PublicKey publicKey)
     throws NoSuchAlgorithmException, InvalidKeyException, SignatureException
   {
-    Signature publicSignature = Signature.getInstance("SHA256withRSA");
-    publicSignature.initVerify(publicKey);
-    publicSignature.update(plainText.getBytes(UTF_8));
-
-    byte[] signatureBytes = Base64.getDecoder().decode(signature);
+    return verify(plainText.getBytes(UTF_8), Base64.getDecoder().decode(signature), publicKey);
+  }
 
-    return publicSignature.verify(signatureBytes);
+  public static boolean verify(byte[] data, byte[] signature, PublicKey publicKey)
+    throws NoSuchAlgorithmException, InvalidKeyException, SignatureException
+  {
+    Signature publicSignature = CryptoCache.signature("SHA256withRSA");
+    publicSignature.initVerify(publicKey);
+    publicSignature.update(data);
+    return publicSignature.verify(signature);
   }
 }
\ No newline at end of file
@@ -28,6 +28,7 @@ import javax.security.cert.X509Certificate;
 import fr.wseduc.webutils.http.response.BufferHttpResponse;
 import fr.wseduc.webutils.request.HttpServerRequestWithBuffering;
 import fr.wseduc.webutils.request.ProxyHttpRequest;
+import fr.wseduc.webutils.request.RequestCookies;
 import io.netty.handler.codec.DecoderResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -46,6 +47,7 @@ public class SecureHttpServerRequest implements HttpServerRequest, HttpServerReq
 	private final Map<String, String> attributes;
 	private Buffer body;
 	private boolean end;
+	private RequestCookies cookies;
 
 	public SecureHttpServerRequest(HttpServerRequest request) {
 		this.request = request;
@@ -300,6 +302,17 @@ public class SecureHttpServerRequest implements HttpServerRequest, HttpServerReq
 		return attributes.get(attr);
 	}
 
+	/**
+	 * @return the cookies of the request, decoded on the first call
+	 */
+	public RequestCookies getCookies() {
+		final String header = request.headers().get("Cookie");
+		if (cookies == null || !cookies.isDecodedFrom(header)) {
+			cookies = new RequestCookies(header);
+		}
+		return cookies;
+	}
+
 	@Override
 	public HttpServerRequest streamPriorityHandler(Handler<StreamPriority> handler)
 	{
@@ -0,0 +1,199 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.security;
+
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the tokens verified by a {@link JWT} instance.<p>
+ * Tokens are keyed by the SHA-256 of their bytes. A verified token keeps its payload until its <code>exp</code>
+ * claim or the ttl, whichever comes first. A token whose signature was checked and rejected is remembered
+ * for a shorter time, so a client replaying a bad token doesn't cost a signature verification on each request.
+ */
+public final class VerifiedTokenCache {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	public static final long DEFAULT_TTL = 5 * 60 * 1000L;
+	public static final long DEFAULT_NEGATIVE_TTL = 5 * 1000L;
+
+	private final int maxSize;
+	private final long ttl;
+	private final long negativeTtl;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong negativeHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public VerifiedTokenCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+	}
+
+	/**
+	 * @param maxSize Maximum number of tokens kept
+	 * @param ttl Maximum time in ms a verified token is trusted without checking its signature again
+	 * @param negativeTtl Time in ms a rejected token is remembered, 0 to disable negative caching
+	 */
+	public VerifiedTokenCache(int maxSize, long ttl, long negativeTtl) {
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+	}
+
+	static final class Entry {
+
+		private final JsonObject payload;
+		private final long expiresAt;
+
+		private Entry(JsonObject payload, long expiresAt) {
+			this.payload = payload;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isRejected() {
+			return payload == null;
+		}
+
+		/**
+		 * @return a copy of the payload, the callers are free to modify it
+		 */
+		JsonObject payload() {
+			return payload != null ? payload.copy() : null;
+		}
+	}
+
+	static String key(String token) {
+		try {
+			final byte[] hash = CryptoCache.digest("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+			return Base64.getEncoder().encodeToString(hash);
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is mandatory on every JVM
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the entry of the token, or null if the token must be verified
+	 */
+	Entry get(String key) {
+		final Entry entry = entries.get(key);
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		if (entry.expiresAt <= System.currentTimeMillis()) {
+			entries.remove(key, entry);
+			misses.incrementAndGet();
+			return null;
+		}
+		if (entry.isRejected()) {
+			negativeHits.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	void putVerified(String key, JsonObject payload) {
+		final long now = System.currentTimeMillis();
+		long expiresAt = now + ttl;
+		final Object exp = payload.getValue("exp");
+		if (exp instanceof Number) {
+			expiresAt = Math.min(expiresAt, ((Number) exp).longValue() * 1000L);
+		}
+		if (expiresAt > now) {
+			put(key, new Entry(payload.copy(), expiresAt), now);
+		}
+	}
+
+	void putRejected(String key) {
+		if (negativeTtl > 0) {
+			final long now = System.currentTimeMillis();
+			put(key, new Entry(null, now + negativeTtl), now);
+		}
+	}
+
+	private void put(String key, Entry entry, long now) {
+		if (entries.size() >= maxSize) {
+			evict(now);
+		}
+		entries.put(key, entry);
+	}
+
+	private synchronized void evict(long now) {
+		if (entries.size() < maxSize) {
+			return;
+		}
+		final Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().expiresAt <= now) {
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+		if (entries.size() < maxSize) {
+			return;
+		}
+		// still full of live tokens : drop a quarter of them rather than scanning on each insert
+		final int target = maxSize - Math.max(1, maxSize / 4);
+		final Iterator<Entry> live = entries.values().iterator();
+		while (entries.size() > target && live.hasNext()) {
+			live.next();
+			live.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getNegativeHits() {
+		return negativeHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public double getHitRate() {
+		final long found = hits.get() + negativeHits.get();
+		final long total = found + misses.get();
+		return total == 0 ? 0.0 : (double) found / total;
+	}
+
+}
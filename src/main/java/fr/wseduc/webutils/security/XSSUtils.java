@@ -19,25 +19,98 @@ package fr.wseduc.webutils.security;
 import io.vertx.core.MultiMap;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 
 public final class XSSUtils {
 
+	// characters needed by the patterns removed by stripXSS : markup, script urls, event handlers, expressions
+	private static final String UNSAFE_CHARS = "<>()=:&%\\\"'`";
+
+	private static volatile Set<String> skippedHeaders = Collections.emptySet();
+
 	private XSSUtils() {}
 
+	/**
+	 * Headers never sanitized, like Cookie or Authorization whose values are opaque and checked elsewhere.
+	 * @param headers Header names, case insensitive
+	 */
+	public static void setSkippedHeaders(Collection<String> headers) {
+		final Set<String> skipped = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		if (headers != null) {
+			skipped.addAll(headers);
+		}
+		skippedHeaders = Collections.unmodifiableSet(skipped);
+	}
+
+	public static Set<String> getSkippedHeaders() {
+		return skippedHeaders;
+	}
+
 	public static MultiMap safeMultiMap(MultiMap m) {
+		return safeMultiMap(m, null, null);
+	}
+
+	/**
+	 * Sanitize a map in place.
+	 * @param m The map to sanitize
+	 * @param skippedNames Names whose values are kept as is, may be null
+	 * @param sanitized Identity set of the values already sanitized by a previous call on the same map, updated
+	 *                  by this call ; may be null
+	 * @return the map
+	 */
+	public static MultiMap safeMultiMap(MultiMap m, Set<String> skippedNames, Set<String> sanitized) {
 		for (String name : m.names()) {
+			if (skippedNames != null && skippedNames.contains(name)) continue;
 			List<String> values = m.getAll(name);
-			List<String> safeValues = new ArrayList<>();
 			if (values == null) continue;
-			for (String value: values) {
-				safeValues.add(stripXSS(value));
+			List<String> safeValues = null;
+			for (int i = 0; i < values.size(); i++) {
+				final String value = values.get(i);
+				if (sanitized != null && sanitized.contains(value)) continue;
+				final String safeValue = isSafe(value) ? value : stripXSS(value);
+				if (sanitized != null) {
+					sanitized.add(safeValue);
+				}
+				if (safeValues == null && !Objects.equals(safeValue, value)) {
+					safeValues = new ArrayList<>(values.subList(0, i));
+				}
+				if (safeValues != null) {
+					safeValues.add(safeValue);
+				}
+			}
+			// the map is only rewritten when a value has changed
+			if (safeValues != null) {
+				m.set(name, safeValues);
 			}
-			m.set(name, safeValues);
 		}
 		return m;
 	}
 
+	/**
+	 * Fast check of the values which can't be modified by {@link #stripXSS(String)}.
+	 */
+	public static boolean isSafe(String value) {
+		if (value == null) {
+			return true;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				if (c < 0x20 || c == 0x7f || UNSAFE_CHARS.indexOf(c) >= 0) {
+					return false;
+				}
+			} else if (!Character.isLetterOrDigit(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public static String stripXSS(String value) {
 		return io.edifice.xss.XSSUtils.stripXSS(value);
 	}
@@ -19,28 +19,35 @@ package fr.wseduc.webutils.security;
 import io.vertx.core.MultiMap;
 import io.vertx.core.http.HttpServerRequest;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
 import static fr.wseduc.webutils.security.XSSUtils.safeMultiMap;
 
 
 public class XssSecuredHttpServerRequest extends SecureHttpServerRequest {
 
+	// values already sanitized, so that each value is stripped at most once per request
+	private final Set<String> sanitized = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+
 	public XssSecuredHttpServerRequest(HttpServerRequest request) {
 		super(request);
 	}
 
 	@Override
 	public MultiMap formAttributes() {
-		return safeMultiMap(super.formAttributes());
+		return safeMultiMap(super.formAttributes(), null, sanitized);
 	}
 
 	@Override
 	public MultiMap params() {
-		return safeMultiMap(super.params());
+		return safeMultiMap(super.params(), null, sanitized);
 	}
 
 	@Override
 	public MultiMap headers() {
-		return safeMultiMap(super.headers());
+		return safeMultiMap(super.headers(), XSSUtils.getSkippedHeaders(), sanitized);
 	}
 
 }
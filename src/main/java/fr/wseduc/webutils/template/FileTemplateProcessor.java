@@ -47,6 +47,7 @@ public class FileTemplateProcessor extends TemplateProcessor
 
   private final ConcurrentMap<String, Template> cache = new ConcurrentHashMap<String, Template>();
   private boolean useCache = false;
+  private TemplateCache sharedCache;
 
   public FileTemplateProcessor(Vertx vertx, String module, String templateFolder)
   {
@@ -69,19 +70,45 @@ public class FileTemplateProcessor extends TemplateProcessor
     this.useCache = useCache;
   }
 
+  /**
+   * Use the process-wide cache instead of the cache of this processor : the compiled templates are then shared
+   * with the other processors and reloaded when their file is modified.
+   * @param sharedCache The shared cache, or null to come back to the cache of this processor
+   */
+  public void setSharedCache(TemplateCache sharedCache)
+  {
+    this.sharedCache = sharedCache;
+  }
+
   public void clearCache()
   {
     this.cache.clear();
+    if (this.sharedCache != null)
+      this.sharedCache.invalidate(absolutePath(module, this.templateFolder));
   }
 
   // ============================================= TEMPLATE PROCESSING ============================================
 
   public void processTemplate(String resourceName, JsonObject params, Reader r, final Handler<Writer> handler)
+  {
+    this.processTemplate(resourceName, params, r, null, handler);
+  }
+
+  public void processTemplate(String resourceName, JsonObject params, Reader r, RenderContext context, final Handler<Writer> handler)
   {
     if(r != null)
-      this.processTemplate(compiler.compile(r), params, handler);
+      this.processTemplate(compiler.compile(r), params, context, handler);
     else
-      this.processTemplateToWriter(resourceName, params, handler);
+      this.processTemplateToWriter(resourceName, params, context, handler);
+  }
+
+  public void processTemplate(String resourceName, JsonObject params, Reader r, RenderContext context,
+      final Writer out, final Handler<Boolean> handler)
+  {
+    if(r != null)
+      handler.handle(this.execute(compiler.compile(r), params, context, out));
+    else
+      this.processTemplateToWriter(resourceName, params, context, out, handler);
   }
 
   @Override
@@ -90,6 +117,11 @@ public class FileTemplateProcessor extends TemplateProcessor
     String path = this.templateFolder + resourceName;
 
     final String p = absolutePath(module, path);
+    if (this.sharedCache != null)
+    {
+      this.sharedCache.getTemplate(this.vertx, p, compiler, handler);
+      return;
+    }
     if (this.useCache == true)
     {
       Template cacheEntry = cache.get(p);
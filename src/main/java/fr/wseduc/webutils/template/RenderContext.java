@@ -0,0 +1,56 @@
+/*
+ * Copyright © "Open Digital Education", 2020
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package fr.wseduc.webutils.template;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.samskivert.mustache.Mustache;
+
+/**
+ * Request scoped data given to a {@link TemplateProcessor} for one rendering, so that concurrent renderings
+ * never share request lambdas through the processor.
+ *
+ * Instances are immutable and can be cached and reused by all the renderings of the same kind of request.
+ */
+public final class RenderContext
+{
+  public static final RenderContext EMPTY = new RenderContext(Collections.<String, Mustache.Lambda>emptyMap());
+
+  private final Map<String, Mustache.Lambda> lambdas;
+
+  private RenderContext(Map<String, Mustache.Lambda> lambdas)
+  {
+    this.lambdas = lambdas;
+  }
+
+  public RenderContext withLambda(String identifier, Mustache.Lambda lambda)
+  {
+    final Map<String, Mustache.Lambda> l = new HashMap<String, Mustache.Lambda>(this.lambdas);
+    l.put(identifier, lambda);
+    return new RenderContext(Collections.unmodifiableMap(l));
+  }
+
+  public Map<String, Mustache.Lambda> getLambdas()
+  {
+    return this.lambdas;
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright © "Open Digital Education", 2020
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package fr.wseduc.webutils.template;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Process-wide cache of the compiled Mustache templates, shared by all the {@link FileTemplateProcessor}.
+ *
+ * Templates are keyed by absolute path and compiler settings. Concurrent misses on the same template trigger
+ * a single read and compilation, the least recently used templates are evicted above the maximum size, and
+ * the file modification time is checked at most once per check period so that redeployed templates are reloaded.
+ */
+public class TemplateCache
+{
+  private static final Logger log = LoggerFactory.getLogger(TemplateCache.class);
+  private static final TemplateCache INSTANCE = new TemplateCache();
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private volatile int maxSize = 512;
+  private volatile long checkPeriod = 2000L;
+
+  private TemplateCache()
+  {
+  }
+
+  public static TemplateCache getInstance()
+  {
+    return INSTANCE;
+  }
+
+  // ================================================= CONFIGURATION ==============================================
+
+  public TemplateCache setMaxSize(int maxSize)
+  {
+    this.maxSize = maxSize;
+    return this;
+  }
+
+  /**
+   * @param checkPeriod Minimum delay in milliseconds between two modification time checks of a template,
+   *                    a negative value disables the checks
+   */
+  public TemplateCache setCheckPeriod(long checkPeriod)
+  {
+    this.checkPeriod = checkPeriod;
+    return this;
+  }
+
+  public int size()
+  {
+    return entries.size();
+  }
+
+  public void clear()
+  {
+    entries.clear();
+  }
+
+  /**
+   * Drop the templates stored under a folder.
+   * @param pathPrefix Absolute path of the folder
+   */
+  public void invalidate(String pathPrefix)
+  {
+    entries.values().removeIf(e -> e.path.startsWith(pathPrefix));
+  }
+
+  // ================================================== TEMPLATES =================================================
+
+  /**
+   * The handler is called on the context of the caller, not on the one of the verticle which loaded the template.
+   */
+  public void getTemplate(Vertx vertx, String path, Mustache.Compiler compiler, final Handler<Template> handler)
+  {
+    final Context context = vertx.getOrCreateContext();
+    final String key = key(path, compiler);
+    Entry entry = entries.get(key);
+    if (entry == null)
+    {
+      final Entry created = new Entry(path);
+      entry = entries.putIfAbsent(key, created);
+      if (entry == null)
+      {
+        entry = created;
+        load(vertx, key, created, compiler);
+        evict();
+      }
+    }
+    else
+    {
+      revalidate(vertx, key, entry, compiler);
+    }
+    entry.lastAccess = System.nanoTime();
+    entry.template.future().onComplete(ar -> {
+      final Template template = ar.succeeded() ? ar.result() : null;
+      if (Vertx.currentContext() == context)
+        handler.handle(template);
+      else
+        context.runOnContext(v -> handler.handle(template));
+    });
+  }
+
+  private void load(Vertx vertx, String key, Entry entry, Mustache.Compiler compiler)
+  {
+    vertx.fileSystem().props(entry.path)
+      .compose(props -> {
+        entry.lastModified = props.lastModifiedTime();
+        entry.lastCheck = System.currentTimeMillis();
+        return vertx.fileSystem().readFile(entry.path);
+      })
+      .map(buffer -> compiler.compile(buffer.toString("UTF-8")))
+      .onSuccess(entry.template::complete)
+      .onFailure(e -> {
+        entries.remove(key, entry);
+        entry.template.fail(e);
+      });
+  }
+
+  private void revalidate(Vertx vertx, String key, Entry entry, Mustache.Compiler compiler)
+  {
+    final long period = checkPeriod;
+    if (period < 0 || System.currentTimeMillis() - entry.lastCheck < period ||
+        !entry.template.future().isComplete() || !entry.checking.compareAndSet(false, true))
+      return;
+
+    vertx.fileSystem().props(entry.path).onComplete(ar -> {
+      entry.lastCheck = System.currentTimeMillis();
+      entry.checking.set(false);
+      if (ar.succeeded() && ar.result().lastModifiedTime() == entry.lastModified)
+        return;
+
+      // the current template is still served until the new version is compiled
+      final Entry reloaded = new Entry(entry.path);
+      reloaded.lastAccess = entry.lastAccess;
+      if (entries.replace(key, entry, reloaded))
+      {
+        log.debug("Reload template " + entry.path);
+        load(vertx, key, reloaded, compiler);
+      }
+    });
+  }
+
+  private void evict()
+  {
+    final int max = maxSize;
+    while (entries.size() > max)
+    {
+      String eldestKey = null;
+      long eldestAccess = Long.MAX_VALUE;
+      for (Map.Entry<String, Entry> e : entries.entrySet())
+      {
+        if (e.getValue().lastAccess < eldestAccess)
+        {
+          eldestAccess = e.getValue().lastAccess;
+          eldestKey = e.getKey();
+        }
+      }
+      if (eldestKey == null)
+        return;
+      entries.remove(eldestKey);
+    }
+  }
+
+  private static String key(String path, Mustache.Compiler compiler)
+  {
+    return path + '\u0000' + System.identityHashCode(compiler.escaper) + '\u0000' + compiler.nullValue;
+  }
+
+  private static final class Entry
+  {
+    private final String path;
+    private final Promise<Template> template = Promise.promise();
+    private final AtomicBoolean checking = new AtomicBoolean(false);
+    private volatile long lastModified;
+    private volatile long lastCheck;
+    private volatile long lastAccess = System.nanoTime();
+
+    private Entry(String path)
+    {
+      this.path = path;
+    }
+  }
+}
@@ -22,6 +22,7 @@ package fr.wseduc.webutils.template;
 import java.io.Writer;
 import java.io.StringWriter;
 import java.io.Reader;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -92,39 +93,73 @@ public class TemplateProcessor
   }
 
   public void processTemplateToWriter(String templateString, JsonObject params, final Handler<Writer> handler)
+  {
+    this.processTemplateToWriter(templateString, params, null, handler);
+  }
+
+  public void processTemplateToWriter(String templateString, JsonObject params, final RenderContext context, final Handler<Writer> handler)
   {
     this.getTemplate(templateString, new Handler<Template>()
     {
       @Override
       public void handle(Template t)
       {
-        processTemplate(t, params, handler);
+        processTemplate(t, params, context, handler);
       }
     });
   }
 
-  protected void processTemplate(Template t, JsonObject params, final Handler<Writer> handler)
+  /**
+   * Render a template directly into a writer, without buffering the whole output.
+   * @param templateString The template to render
+   * @param params The template parameters
+   * @param context The request scoped lambdas, may be null
+   * @param out The writer receiving the output, it is not closed
+   * @param handler Called with true when the template has been rendered, false otherwise
+   */
+  public void processTemplateToWriter(String templateString, JsonObject params, final RenderContext context,
+      final Writer out, final Handler<Boolean> handler)
   {
-    final JsonObject ctxParams = (params == null) ? new JsonObject() : params.copy();
-    final Map<String, Object> ctx = JsonUtils.convertMap(ctxParams);
-    this.applyLambdas(ctx);
-
-    if (t != null)
+    this.getTemplate(templateString, new Handler<Template>()
     {
-      try
-      {
-        Writer writer = new StringWriter();
-        t.execute(ctx, writer);
-        handler.handle(writer);
-      }
-      catch (Exception e)
+      @Override
+      public void handle(Template t)
       {
-        log.error(e.getMessage(), e);
-        handler.handle(null);
+        handler.handle(execute(t, params, context, out));
       }
+    });
+  }
+
+  protected void processTemplate(Template t, JsonObject params, final Handler<Writer> handler)
+  {
+    this.processTemplate(t, params, null, handler);
+  }
+
+  protected void processTemplate(Template t, JsonObject params, RenderContext context, final Handler<Writer> handler)
+  {
+    Writer writer = new StringWriter();
+    handler.handle(this.execute(t, params, context, writer) ? writer : null);
+  }
+
+  protected boolean execute(Template t, JsonObject params, RenderContext context, Writer writer)
+  {
+    if (t == null)
+      return false;
+
+    // convertMap builds a new map, the params are never modified by the rendering
+    final Map<String, Object> ctx = (params == null) ? new HashMap<String, Object>() : JsonUtils.convertMap(params);
+    this.applyLambdas(ctx, context);
+
+    try
+    {
+      t.execute(ctx, writer);
+      return true;
+    }
+    catch (Exception e)
+    {
+      log.error(e.getMessage(), e);
+      return false;
     }
-    else
-      handler.handle(null);
   }
 
   protected void getTemplate(String templateString, final Handler<Template> handler)
@@ -134,11 +169,13 @@ public class TemplateProcessor
 
   // ================================================ PRIVATE UTILS ===============================================
 
-  private void applyLambdas(Map<String, Object> context)
+  private void applyLambdas(Map<String, Object> ctx, RenderContext context)
   {
     for(Map.Entry<String, Mustache.Lambda> entry : this.templateLambdas.entrySet())
     {
-      context.put(entry.getKey(), entry.getValue());
+      ctx.put(entry.getKey(), entry.getValue());
     }
+    if (context != null)
+      ctx.putAll(context.getLambdas());
   }
 }
\ No newline at end of file
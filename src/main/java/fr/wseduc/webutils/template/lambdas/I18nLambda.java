@@ -27,6 +27,7 @@ import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Template;
 
 import fr.wseduc.webutils.I18n;
+import fr.wseduc.webutils.I18nMessage;
 
 public class I18nLambda implements Mustache.Lambda
 {
@@ -50,22 +51,19 @@ public class I18nLambda implements Mustache.Lambda
   {
     this.i18n = I18n.getInstance(module);
     this.host = host;
-    this.locale = I18n.getLocale(locale != null ? locale : "fr");
+    this.locale = this.i18n.getLocale(locale != null ? locale : "fr", host != null ? host : I18n.DEFAULT_DOMAIN);
     this.theme = theme;
   }
 
   @Override
   public void execute(Template.Fragment frag, Writer out) throws IOException {
     String key = frag.execute();
-    String text;
+    I18nMessage message = i18n.getMessage(key, this.host == null ? I18n.DEFAULT_DOMAIN : host, theme, locale);
 
-    if(this.host == null)
-      text = i18n.translate(key, I18n.DEFAULT_DOMAIN, theme, locale);
+    // This will handle translation units with embedded mustache templates, compiled when the bundle is loaded
+    if (message != null)
+      message.execute(frag.context(), out);
     else
-      text = i18n.translate(key, host, theme, locale);
-
-    // This will handle translation units with embedded mustache templates
-    Mustache.compiler().compile(text).execute(frag.context(), out);
-    //out.write(text);
+      out.write(key);
   }
 }
\ No newline at end of file
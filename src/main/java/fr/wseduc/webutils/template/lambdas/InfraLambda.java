@@ -27,10 +27,10 @@ import com.samskivert.mustache.Template;
 
 public class InfraLambda implements Mustache.Lambda
 {
-  private boolean https;
-  private String host;
-  private String rootFolderPath;
-  private boolean useDefaultPort;
+  private final boolean https;
+  private final String host;
+  private final String rootFolderPath;
+  private final boolean useDefaultPort;
 
   public InfraLambda(boolean https, String host, String rootFolderPath, boolean useDefaultPort)
   {
@@ -32,7 +32,7 @@ import org.joda.time.format.DateTimeFormatter;
 
 public class LocaleDateLambda implements Mustache.Lambda
 {
-  private DateTimeFormatter fmt;
+  private final DateTimeFormatter fmt;
 
   public LocaleDateLambda(String locale)
   {
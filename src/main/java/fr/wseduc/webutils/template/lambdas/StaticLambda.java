@@ -27,9 +27,9 @@ import com.samskivert.mustache.Template;
 
 public class StaticLambda implements Mustache.Lambda
 {
-  private boolean https;
-  private String host;
-  private String rootFolderPath;
+  private final boolean https;
+  private final String host;
+  private final String rootFolderPath;
 
   public StaticLambda(boolean https, String host, String rootFolderPath)
   {
@@ -18,7 +18,9 @@ package fr.wseduc.webutils.validation;
 
 import fr.wseduc.webutils.data.FileResolver;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.DeliveryOptions;
@@ -41,6 +43,7 @@ public class JsonSchemaValidator {
 	private EventBus eb;
 	private static final Logger log = LoggerFactory.getLogger(JsonSchemaValidator.class);
 	private final ConcurrentMap<String, JsonObject> schemas = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LocalJsonSchema> localSchemas = new ConcurrentHashMap<>();
 
 	private JsonSchemaValidator() {}
 
@@ -63,6 +66,8 @@ public class JsonSchemaValidator {
 	public void loadJsonSchema(final String keyPrefix, Vertx vertx, JsonObject config) {
 		String JSONSCHEMA_PATH = FileResolver.absolutePath(config.getString("main"), "jsonschema");
 		final FileSystem fs = vertx.fileSystem();
+		final boolean localValidation = config.getBoolean("json-schema-local-validation", false);
+		final String defaultDraft = config.getString("json-schema-draft", "DRAFT4");
 
 		fs.exists(JSONSCHEMA_PATH, event -> {
 			if (event.failed() || Boolean.FALSE.equals(event.result())) {
@@ -82,6 +87,9 @@ public class JsonSchemaValidator {
 								// Vérifie si le schéma est déjà chargé pour éviter les doublons
 								if (!schemas.containsKey(key)) {
 									schemas.put(key, schemaJson);
+									if (localValidation) {
+										compileLocally(key, schemaJson, defaultDraft);
+									}
 
 									// Envoie individuellement chaque schéma sans supprimer les autres
 									JsonObject addSchemaMessage = new JsonObject()
@@ -103,6 +111,39 @@ public class JsonSchemaValidator {
 		});
 	}
 
+	private void compileLocally(String key, JsonObject schema, String defaultDraft) {
+		try {
+			localSchemas.put(key, new LocalJsonSchema(key, schema, defaultDraft));
+		} catch (RuntimeException | LinkageError e) {
+			log.warn("Json schema " + key + " can't be validated locally, the validator verticle will be used.", e);
+		}
+	}
+
+	/**
+	 * Validate a json against a schema. Schemas compiled locally are validated synchronously on the caller
+	 * thread, the others are sent to the validator verticle.
+	 * @return the validation result : status "ok", or status "error" with a message and a report
+	 */
+	public Future<JsonObject> validate(String schema, JsonObject json) {
+		final LocalJsonSchema localSchema = localSchemas.get(schema);
+		if (localSchema != null) {
+			try {
+				return Future.succeededFuture(localSchema.validate(json));
+			} catch (RuntimeException e) {
+				log.error("Error validating json locally with schema " + schema + ", using the validator verticle.", e);
+			}
+		}
+		final Promise<JsonObject> promise = Promise.promise();
+		validate(schema, json, ar -> {
+			if (ar.succeeded()) {
+				promise.complete(ar.result().body());
+			} else {
+				promise.fail(ar.cause());
+			}
+		});
+		return promise.future();
+	}
+
 	public void validate(String schema, JsonObject json, Handler<AsyncResult<Message<JsonObject>>> handler) {
 		JsonObject j = new JsonObject()
 				.put("action", "validate")
@@ -0,0 +1,75 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.validation;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.json.schema.Draft;
+import io.vertx.json.schema.JsonSchema;
+import io.vertx.json.schema.JsonSchemaOptions;
+import io.vertx.json.schema.OutputFormat;
+import io.vertx.json.schema.OutputUnit;
+import io.vertx.json.schema.Validator;
+
+/**
+ * Json schema compiled once to be validated in process, without the validator verticle.
+ * Kept apart from {@link JsonSchemaValidator} so that vertx-json-schema is only needed when local validation
+ * is enabled.
+ */
+class LocalJsonSchema {
+
+	private static final String BASE_URI = "https://opendigitaleducation.com/jsonschema/";
+
+	private final Validator validator;
+
+	LocalJsonSchema(String key, JsonObject schema, String defaultDraft) {
+		final String draft = schema.getString("$schema");
+		final JsonSchemaOptions options = new JsonSchemaOptions()
+				.setBaseUri(BASE_URI + key)
+				.setDraft(draft != null ? Draft.fromIdentifier(draft) : Draft.valueOf(defaultDraft))
+				.setOutputFormat(OutputFormat.Basic);
+		this.validator = Validator.create(JsonSchema.of(schema), options);
+	}
+
+	/**
+	 * @return a result with the format of the validator verticle replies
+	 */
+	JsonObject validate(JsonObject json) {
+		final OutputUnit result = validator.validate(json);
+		if (Boolean.TRUE.equals(result.getValid())) {
+			return new JsonObject().put("status", "ok");
+		}
+		final JsonArray report = new JsonArray();
+		String message = result.getError();
+		if (result.getErrors() != null) {
+			for (OutputUnit error : result.getErrors()) {
+				report.add(new JsonObject()
+						.put("instanceLocation", error.getInstanceLocation())
+						.put("keywordLocation", error.getKeywordLocation())
+						.put("message", error.getError()));
+				if (message == null) {
+					message = error.getError();
+				}
+			}
+		}
+		return new JsonObject()
+				.put("status", "error")
+				.put("message", message != null ? message : "Invalid json")
+				.put("report", report);
+	}
+
+}
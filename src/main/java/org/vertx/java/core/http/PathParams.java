@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2011-2013 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package org.vertx.java.core.http;
+
+import io.vertx.core.MultiMap;
+import org.vertx.java.core.http.RouteMatcher.PatternBinding;
+
+import java.util.regex.Matcher;
+
+/**
+ * Parameters extracted from a request path by a {@link RouteMatcher}.<p>
+ * Values are kept as offset/length slices of the path and are only materialized as strings when read.
+ * Parameter names are shared with the binding which matched the path.
+ */
+public final class PathParams {
+
+	private static final int[] NO_BOUNDS = new int[0];
+
+	final PatternBinding binding;
+	private final String path;
+	private final String[] names;
+	private final int[] bounds;
+	private String[] values;
+
+	private PathParams(PatternBinding binding, String path, int[] bounds) {
+		this.binding = binding;
+		this.path = path;
+		this.names = binding.groupNames;
+		this.bounds = bounds;
+	}
+
+	static PathParams empty(PatternBinding binding) {
+		return new PathParams(binding, "", NO_BOUNDS);
+	}
+
+	static PathParams of(PatternBinding binding, String path) {
+		final int size = binding.groupNames.length;
+		if (size == 0) {
+			return binding.noParams;
+		}
+		final int[] bounds = new int[size * 2];
+		int start = 0;
+		for (int segment = 0, p = 0; p < size; segment++) {
+			int end = path.indexOf('/', start);
+			if (end < 0) {
+				end = path.length();
+			}
+			if (binding.paramSegments[p] == segment) {
+				bounds[2 * p] = start;
+				bounds[2 * p + 1] = end;
+				p++;
+			}
+			start = end + 1;
+		}
+		return new PathParams(binding, path, bounds);
+	}
+
+	static PathParams of(PatternBinding binding, Matcher m, String path) {
+		final int size = binding.groupNames.length;
+		if (size == 0) {
+			return binding.noParams;
+		}
+		final int[] bounds = new int[size * 2];
+		for (int i = 0; i < size; i++) {
+			if (binding.paramNames != null) {
+				bounds[2 * i] = m.start(binding.groupNames[i]);
+				bounds[2 * i + 1] = m.end(binding.groupNames[i]);
+			} else {
+				bounds[2 * i] = m.start(i + 1);
+				bounds[2 * i + 1] = m.end(i + 1);
+			}
+		}
+		return new PathParams(binding, path, bounds);
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String name(int i) {
+		return names[i];
+	}
+
+	/**
+	 * @param i The parameter index
+	 * @return the offset of the value in the path, or -1 if the group didn't capture anything
+	 */
+	public int offset(int i) {
+		return bounds[2 * i];
+	}
+
+	public int length(int i) {
+		return bounds[2 * i] < 0 ? 0 : bounds[2 * i + 1] - bounds[2 * i];
+	}
+
+	public String value(int i) {
+		if (bounds[2 * i] < 0) {
+			return null;
+		}
+		// racy memoization, instances may be shared by the resolution cache but strings are immutable
+		String[] v = values;
+		if (v == null) {
+			v = new String[names.length];
+			values = v;
+		}
+		String value = v[i];
+		if (value == null) {
+			value = path.substring(bounds[2 * i], bounds[2 * i + 1]);
+			v[i] = value;
+		}
+		return value;
+	}
+
+	public String get(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return value(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Copy the parameters in a request parameters map.
+	 * @param params The request parameters
+	 */
+	public void addTo(MultiMap params) {
+		for (int i = 0; i < names.length; i++) {
+			final String value = value(i);
+			if (value != null) {
+				params.add(names[i], value);
+			}
+		}
+	}
+
+}
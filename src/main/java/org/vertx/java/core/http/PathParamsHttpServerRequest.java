@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2011-2013 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package org.vertx.java.core.http;
+
+import fr.wseduc.webutils.security.WrappedHttpServerRequest;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpServerRequest;
+
+/**
+ * Request given to the handlers when {@link RouteMatcher#setLazyPathParams(boolean)} is enabled.
+ * The path parameters are added to {@link #params()} on first access only.
+ */
+public class PathParamsHttpServerRequest extends WrappedHttpServerRequest {
+
+	private final PathParams pathParams;
+	private boolean bound;
+
+	public PathParamsHttpServerRequest(HttpServerRequest request, PathParams pathParams) {
+		super(request);
+		this.pathParams = pathParams;
+	}
+
+	public PathParams pathParams() {
+		return pathParams;
+	}
+
+	@Override
+	public MultiMap params() {
+		final MultiMap params = super.params();
+		if (!bound) {
+			bound = true;
+			pathParams.addTo(params);
+		}
+		return params;
+	}
+
+	@Override
+	public String getParam(String paramName) {
+		return params().get(paramName);
+	}
+
+}
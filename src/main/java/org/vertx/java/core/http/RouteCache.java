@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011-2013 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package org.vertx.java.core.http;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the resolved bindings of one HTTP verb, keyed by request path.<p>
+ * Entries live in two generations: lookups never lock, hits in the old generation are promoted to the
+ * current one, and when the current generation is full it becomes the old one, dropping the least recently
+ * used paths. The cache holds at most twice the generation size.
+ */
+final class RouteCache {
+
+	private final int generationSize;
+	private final Stats stats;
+	private volatile Map<String, PathParams> current = new ConcurrentHashMap<>();
+	private volatile Map<String, PathParams> previous = new ConcurrentHashMap<>();
+
+	RouteCache(int maxSize, Stats stats) {
+		this.generationSize = Math.max(1, maxSize / 2);
+		this.stats = stats;
+	}
+
+	PathParams get(String path) {
+		PathParams params = current.get(path);
+		if (params == null) {
+			params = previous.get(path);
+			if (params == null) {
+				stats.misses.increment();
+				return null;
+			}
+			put(path, params);
+		}
+		stats.hits.increment();
+		return params;
+	}
+
+	void put(String path, PathParams params) {
+		final Map<String, PathParams> c = current;
+		c.put(path, params);
+		if (c.size() >= generationSize) {
+			rotate(c);
+		}
+	}
+
+	private synchronized void rotate(Map<String, PathParams> full) {
+		if (current == full) {
+			stats.evictions.add(previous.size());
+			previous = full;
+			current = new ConcurrentHashMap<>();
+		}
+	}
+
+	int size() {
+		return current.size() + previous.size();
+	}
+
+	static final class Stats {
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder evictions = new LongAdder();
+	}
+
+}
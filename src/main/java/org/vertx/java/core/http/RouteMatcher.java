@@ -19,11 +19,12 @@ package org.vertx.java.core.http;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpServerRequest;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -41,22 +42,30 @@ import java.util.regex.Pattern;
  * parameters do not have a name, so they are put into the HTTP request with names of param0, param1, param2 etc.<p>
  * Multiple matches can be specified for each HTTP verb. In the case there are more than one matching patterns for
  * a particular request, the first matching one will be used.<p>
+ * Simple patterns are compiled in a segment trie for each HTTP verb, so a request is resolved without scanning
+ * every binding. Regular expressions are only evaluated when they were registered before the best simple pattern.<p>
  * Instances of this class are not thread-safe<p>
  *
  * @author <a href="http://tfox.org">Tim Fox</a>
  */
 public class RouteMatcher implements Handler<HttpServerRequest> {
 
-	private final List<PatternBinding> getBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> putBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> postBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> deleteBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> optionsBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> headBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> traceBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> connectBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> patchBindings = new CopyOnWriteArrayList<>();
+	private final Bindings getBindings = new Bindings();
+	private final Bindings putBindings = new Bindings();
+	private final Bindings postBindings = new Bindings();
+	private final Bindings deleteBindings = new Bindings();
+	private final Bindings optionsBindings = new Bindings();
+	private final Bindings headBindings = new Bindings();
+	private final Bindings traceBindings = new Bindings();
+	private final Bindings connectBindings = new Bindings();
+	private final Bindings patchBindings = new Bindings();
+	private static final Pattern PARAM_TOKEN = Pattern.compile(":([A-Za-z][A-Za-z0-9_]*)");
+	private static final Map<String, SimplePattern> SIMPLE_PATTERNS = new ConcurrentHashMap<>();
+
 	private Handler<HttpServerRequest> noMatchHandler;
+	private boolean lazyPathParams;
+	private volatile int resolutionCacheMaxSize;
+	private final RouteCache.Stats cacheStats = new RouteCache.Stats();
 
 	@Override
 	public void handle(HttpServerRequest request) {
@@ -309,6 +318,64 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 		return this;
 	}
 
+	/**
+	 * Defer the copy of the path parameters in the request parameters. When enabled, the matching handler receives
+	 * a {@link PathParamsHttpServerRequest} which keeps the parameters as slices of the request path and only adds
+	 * them to {@link HttpServerRequest#params()} on first access.
+	 * @param lazyPathParams true to enable lazy path parameters binding
+	 */
+	public RouteMatcher setLazyPathParams(boolean lazyPathParams) {
+		this.lazyPathParams = lazyPathParams;
+		return this;
+	}
+
+	/**
+	 * Enable a bounded cache of the resolved bindings and path parameters, keyed by HTTP verb and request path.
+	 * The cache is dropped each time a binding is added.
+	 * @param resolutionCacheMaxSize The maximum number of cached paths for each HTTP verb, 0 to disable the cache
+	 */
+	public RouteMatcher setResolutionCacheMaxSize(int resolutionCacheMaxSize) {
+		this.resolutionCacheMaxSize = resolutionCacheMaxSize;
+		for (Bindings bindings : allBindings()) {
+			bindings.reset();
+		}
+		return this;
+	}
+
+	/**
+	 * @return the number of request paths currently cached for all the HTTP verbs
+	 */
+	public int getResolutionCacheSize() {
+		int size = 0;
+		for (Bindings bindings : allBindings()) {
+			size += bindings.cacheSize();
+		}
+		return size;
+	}
+
+	public long getResolutionCacheHits() {
+		return cacheStats.hits.sum();
+	}
+
+	public long getResolutionCacheMisses() {
+		return cacheStats.misses.sum();
+	}
+
+	public long getResolutionCacheEvictions() {
+		return cacheStats.evictions.sum();
+	}
+
+	public double getResolutionCacheHitRatio() {
+		final long hits = cacheStats.hits.sum();
+		final long total = hits + cacheStats.misses.sum();
+		return (total == 0) ? 0d : (double) hits / total;
+	}
+
+	private Bindings[] allBindings() {
+		return new Bindings[] { getBindings, putBindings, postBindings, deleteBindings, optionsBindings,
+				headBindings, traceBindings, connectBindings, patchBindings };
+	}
+
 	/**
 	 * Specify a handler that will be called when no other handlers match.
 	 * If this handler is not specified default behaviour is to return a 404
@@ -319,9 +386,24 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	}
 
 
-	private static void addPattern(String input, Handler<HttpServerRequest> handler, List<PatternBinding> bindings) {
+	/**
+	 * Compile a simple pattern, replacing the <code>:param</code> tokens with named capture groups.
+	 * Compiled patterns are shared, so a pattern registered for several verbs, or also used for
+	 * the bindings of a controller, is only compiled once.
+	 * @param input The simple pattern
+	 * @return the compiled regex
+	 */
+	public static Pattern compilePattern(String input) {
+		return simplePattern(input).pattern;
+	}
+
+	private static SimplePattern simplePattern(String input) {
+		SimplePattern simplePattern = SIMPLE_PATTERNS.get(input);
+		if (simplePattern != null) {
+			return simplePattern;
+		}
 		// We need to search for any :<token name> tokens in the String and replace them with named capture groups
-		Matcher m =  Pattern.compile(":([A-Za-z][A-Za-z0-9_]*)").matcher(input);
+		Matcher m = PARAM_TOKEN.matcher(input);
 		StringBuffer sb = new StringBuffer();
 		Set<String> groups = new HashSet<>();
 		while (m.find()) {
@@ -333,38 +415,63 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 			groups.add(group);
 		}
 		m.appendTail(sb);
-		String regex = sb.toString();
-		PatternBinding binding = new PatternBinding(Pattern.compile(regex), groups, handler);
-		bindings.add(binding);
+		simplePattern = new SimplePattern(Pattern.compile(sb.toString()), groups);
+		final SimplePattern previous = SIMPLE_PATTERNS.putIfAbsent(input, simplePattern);
+		return (previous != null) ? previous : simplePattern;
 	}
 
-	private static void addRegEx(String input, Handler<HttpServerRequest> handler, List<PatternBinding> bindings) {
-		PatternBinding binding = new PatternBinding(Pattern.compile(input), null, handler);
-		bindings.add(binding);
+	private static void addPattern(String input, Handler<HttpServerRequest> handler, Bindings bindings) {
+		final SimplePattern simplePattern = simplePattern(input);
+		bindings.add(new PatternBinding(simplePattern.pattern, simplePattern.groups, RouteTrie.segments(input), handler));
 	}
 
-	private void route(HttpServerRequest request, List<PatternBinding> bindings) {
-		for (PatternBinding binding: bindings) {
-			Matcher m = binding.pattern.matcher(request.path());
-			if (m.matches()) {
-				Map<String, String> params = new HashMap<>(m.groupCount());
-				if (binding.paramNames != null) {
-					// Named params
-					for (String param: binding.paramNames) {
-						params.put(param, m.group(param));
-					}
-				} else {
-					// Un-named params
-					for (int i = 0; i < m.groupCount(); i++) {
-						params.put("param" + i, m.group(i + 1));
-					}
-				}
-				request.params().addAll(params);
-				binding.handler.handle(request);
+	private static void addRegEx(String input, Handler<HttpServerRequest> handler, Bindings bindings) {
+		bindings.add(new PatternBinding(Pattern.compile(input), null, null, handler));
+	}
+
+	private void route(HttpServerRequest request, Bindings bindings) {
+		final String path = request.path();
+		final RouteTrie trie = bindings.trie();
+		final RouteCache cache = trie.cache;
+		PathParams params = (cache != null) ? cache.get(path) : null;
+		if (params == null) {
+			params = resolve(trie, path);
+			if (params == null) {
+				notFound(request);
 				return;
 			}
+			if (cache != null) {
+				cache.put(path, params);
+			}
+		}
+		dispatch(request, params);
+	}
+
+	private static PathParams resolve(RouteTrie trie, String path) {
+		// Best simple pattern candidate, regular expressions registered before it still have precedence
+		final PatternBinding candidate = trie.lookup(path);
+		for (PatternBinding binding: trie.regexBindings) {
+			if (candidate != null && binding.order > candidate.order) {
+				break;
+			}
+			Matcher m = binding.pattern.matcher(path);
+			if (m.matches()) {
+				return PathParams.of(binding, m, path);
+			}
+		}
+		return (candidate != null) ? PathParams.of(candidate, path) : null;
+	}
+
+	private void dispatch(HttpServerRequest request, PathParams params) {
+		final Handler<HttpServerRequest> handler = params.binding.handler;
+		if (params.size() == 0) {
+			handler.handle(request);
+		} else if (lazyPathParams) {
+			handler.handle(new PathParamsHttpServerRequest(request, params));
+		} else {
+			params.addTo(request.params());
+			handler.handle(request);
 		}
-		notFound(request);
 	}
 
 	private void notFound(HttpServerRequest request) {
@@ -377,15 +484,94 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 		}
 	}
 
-	private static class PatternBinding {
+	private static final class SimplePattern {
+		private final Pattern pattern;
+		private final Set<String> groups;
+
+		private SimplePattern(Pattern pattern, Set<String> groups) {
+			this.pattern = pattern;
+			this.groups = Collections.unmodifiableSet(groups);
+		}
+	}
+
+	static class PatternBinding {
 		final Pattern pattern;
 		final Handler<HttpServerRequest> handler;
 		final Set<String> paramNames;
-
-		private PatternBinding(Pattern pattern, Set<String> paramNames, Handler<HttpServerRequest> handler) {
+		/** Path segments of a simple pattern, null when the binding can only be matched with its regex. */
+		final String[] segments;
+		/** Names of the extracted parameters, precomputed to avoid any allocation while matching. */
+		final String[] groupNames;
+		/** Index of the path segment holding each parameter of a simple pattern. */
+		final int[] paramSegments;
+		/** Match result shared by all the paths matching a binding without parameters. */
+		final PathParams noParams;
+		/** Registration rank in the verb bindings, the lowest matching rank wins. */
+		int order;
+
+		private PatternBinding(Pattern pattern, Set<String> paramNames, String[] segments,
+				Handler<HttpServerRequest> handler) {
 			this.pattern = pattern;
 			this.paramNames = paramNames;
+			this.segments = segments;
 			this.handler = handler;
+			if (segments != null) {
+				groupNames = new String[paramNames.size()];
+				paramSegments = new int[paramNames.size()];
+				for (int i = 0, p = 0; i < segments.length; i++) {
+					if (RouteTrie.isParam(segments[i])) {
+						groupNames[p] = segments[i].substring(1);
+						paramSegments[p++] = i;
+					}
+				}
+			} else if (paramNames != null) {
+				groupNames = paramNames.toArray(new String[0]);
+				paramSegments = null;
+			} else {
+				groupNames = new String[pattern.matcher("").groupCount()];
+				for (int i = 0; i < groupNames.length; i++) {
+					groupNames[i] = "param" + i;
+				}
+				paramSegments = null;
+			}
+			noParams = PathParams.empty(this);
+		}
+	}
+
+	private class Bindings {
+		private final List<PatternBinding> patterns = new CopyOnWriteArrayList<>();
+		private volatile RouteTrie trie;
+
+		private synchronized void add(PatternBinding binding) {
+			binding.order = patterns.size();
+			patterns.add(binding);
+			trie = null;
+		}
+
+		private synchronized void reset() {
+			trie = null;
+		}
+
+		private RouteTrie trie() {
+			RouteTrie t = trie;
+			if (t == null) {
+				synchronized (this) {
+					t = trie;
+					if (t == null) {
+						// the resolution cache is bound to the trie, adding a binding drops both
+						final RouteCache cache = (resolutionCacheMaxSize > 0) ?
+								new RouteCache(resolutionCacheMaxSize, cacheStats) : null;
+						t = RouteTrie.compile(patterns, cache);
+						trie = t;
+					}
+				}
+			}
+			return t;
+		}
+
+		private int cacheSize() {
+			final RouteTrie t = trie;
+			return (t != null && t.cache != null) ? t.cache.size() : 0;
 		}
 	}
 
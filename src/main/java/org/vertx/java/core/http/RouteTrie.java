@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2011-2013 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package org.vertx.java.core.http;
+
+import org.vertx.java.core.http.RouteMatcher.PatternBinding;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Segment trie compiled from the bindings of one HTTP verb of a {@link RouteMatcher}.<p>
+ * Simple patterns made of static segments and <code>:param</code> segments are resolved by walking the
+ * request path once. Patterns which can't be split into such segments (regular expressions, or simple
+ * patterns containing regex meta characters) are kept in registration order and are only evaluated when
+ * they were registered before the best trie candidate, so the first-match semantics are preserved.<p>
+ * Instances are immutable once compiled.
+ */
+final class RouteTrie {
+
+	private static final Pattern PARAM = Pattern.compile(":[A-Za-z][A-Za-z0-9_]*");
+	private static final String REGEX_CHARS = "\\^$.|?*+()[]{}:";
+	private static final String[] NO_KEYS = new String[0];
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private final Node root;
+	final PatternBinding[] regexBindings;
+	final RouteCache cache;
+
+	private RouteTrie(Node root, PatternBinding[] regexBindings, RouteCache cache) {
+		this.root = root;
+		this.regexBindings = regexBindings;
+		this.cache = cache;
+	}
+
+	/**
+	 * Split a simple pattern in path segments.
+	 * @param pattern The simple pattern
+	 * @return the segments, or null if the pattern must be matched with its regex
+	 */
+	static String[] segments(String pattern) {
+		final String[] segments = pattern.split("/", -1);
+		for (String segment : segments) {
+			if (!isParam(segment) && !isLiteral(segment)) {
+				return null;
+			}
+		}
+		return segments;
+	}
+
+	static boolean isParam(String segment) {
+		return segment.length() > 1 && segment.charAt(0) == ':' && PARAM.matcher(segment).matches();
+	}
+
+	private static boolean isLiteral(String segment) {
+		for (int i = 0; i < segment.length(); i++) {
+			if (REGEX_CHARS.indexOf(segment.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static RouteTrie compile(List<PatternBinding> bindings, RouteCache cache) {
+		final Node root = new Node();
+		final List<PatternBinding> regex = new ArrayList<>();
+		for (PatternBinding binding : bindings) {
+			if (binding.segments == null) {
+				regex.add(binding);
+				continue;
+			}
+			Node node = root;
+			for (String segment : binding.segments) {
+				node = isParam(segment) ? node.param() : node.child(segment);
+			}
+			// bindings are iterated in registration order, a later identical shape can never win
+			if (node.leaf == null) {
+				node.leaf = binding;
+			}
+		}
+		root.freeze();
+		return new RouteTrie(root, regex.toArray(new PatternBinding[0]), cache);
+	}
+
+	/**
+	 * Find the first registered simple pattern matching the path.
+	 * @param path The request path
+	 * @return the binding with the lowest order, or null
+	 */
+	PatternBinding lookup(String path) {
+		return root.lookup(path, 0);
+	}
+
+	private static final class Node {
+
+		private Map<String, Node> building = new LinkedHashMap<>();
+		private String[] keys = NO_KEYS;
+		private int[] hashes;
+		private Node[] children = NO_CHILDREN;
+		private Node param;
+		private PatternBinding leaf;
+
+		private Node child(String segment) {
+			return building.computeIfAbsent(segment, k -> new Node());
+		}
+
+		private Node param() {
+			if (param == null) {
+				param = new Node();
+			}
+			return param;
+		}
+
+		private void freeze() {
+			final int size = building.size();
+			keys = building.keySet().toArray(new String[size]);
+			children = building.values().toArray(new Node[size]);
+			hashes = new int[size];
+			for (int i = 0; i < size; i++) {
+				hashes[i] = keys[i].hashCode();
+				children[i].freeze();
+			}
+			if (param != null) {
+				param.freeze();
+			}
+			building = null;
+		}
+
+		private PatternBinding lookup(String path, int start) {
+			int end = path.indexOf('/', start);
+			final boolean last = end < 0;
+			if (last) {
+				end = path.length();
+			}
+			PatternBinding best = null;
+			final Node child = staticChild(path, start, end);
+			if (child != null) {
+				best = last ? child.leaf : child.lookup(path, end + 1);
+			}
+			// a param needs a non empty segment, like [^\/]+ in the regex
+			if (param != null && end > start) {
+				final PatternBinding candidate = last ? param.leaf : param.lookup(path, end + 1);
+				if (candidate != null && (best == null || candidate.order < best.order)) {
+					best = candidate;
+				}
+			}
+			return best;
+		}
+
+		private Node staticChild(String path, int start, int end) {
+			final int length = end - start;
+			int h = 0;
+			for (int i = start; i < end; i++) {
+				h = 31 * h + path.charAt(i);
+			}
+			for (int i = 0; i < keys.length; i++) {
+				if (hashes[i] == h && keys[i].length() == length && path.regionMatches(start, keys[i], 0, length)) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+	}
+
+}
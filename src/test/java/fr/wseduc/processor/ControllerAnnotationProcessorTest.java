@@ -0,0 +1,145 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ControllerAnnotationProcessorTest {
+
+	private static final String IMPORTS =
+			"import fr.wseduc.bus.BusAddress;\n" +
+			"import fr.wseduc.rs.Get;\n" +
+			"import fr.wseduc.rs.Post;\n" +
+			"import fr.wseduc.webutils.Controller;\n" +
+			"import io.vertx.core.eventbus.Message;\n" +
+			"import io.vertx.core.http.HttpServerRequest;\n" +
+			"import io.vertx.core.json.JsonObject;\n" +
+			"import java.io.IOException;\n";
+
+	private Path output;
+
+	@Before
+	public void setUp() throws IOException {
+		output = Files.createTempDirectory("processor");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(output)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	public void routesClassIsGeneratedForController() throws IOException {
+		compile(source("fixture.SimpleController",
+				"public class SimpleController extends Controller {\n" +
+				"\tpublic SimpleController() { super(null, null, null, null); }\n" +
+				"\t@Get(\"/show\") public void show(HttpServerRequest request) {}\n" +
+				"\t@Post(\"/create\") public void create(HttpServerRequest request) throws IllegalStateException {}\n" +
+				"\t@BusAddress(\"fixture.address\") public void bus(Message<JsonObject> message) {}\n" +
+				"}\n"));
+		assertTrue(Files.exists(output.resolve("fixture/SimpleController_Routes.class")));
+		assertTrue(Files.exists(output.resolve("routes/fixture.SimpleController.json")));
+	}
+
+	@Test
+	public void checkedExceptionFallsBackToJson() throws IOException {
+		compile(source("fixture.ThrowingController",
+				"public class ThrowingController extends Controller {\n" +
+				"\tpublic ThrowingController() { super(null, null, null, null); }\n" +
+				"\t@Get(\"/show\") public void show(HttpServerRequest request) throws IOException {}\n" +
+				"\t@Get(\"/list\") public void list(HttpServerRequest request) {}\n" +
+				"}\n"));
+		assertFalse(Files.exists(output.resolve("fixture/ThrowingController_Routes.java")));
+		assertFalse(Files.exists(output.resolve("fixture/ThrowingController_Routes.class")));
+		final String routes = new String(Files.readAllBytes(output.resolve("routes/fixture.ThrowingController.json")),
+				StandardCharsets.UTF_8);
+		assertTrue(routes.contains("\"method\" : \"show\""));
+		assertTrue(routes.contains("\"method\" : \"list\""));
+	}
+
+	@Test
+	public void busAddressOutsideControllerFallsBackToJson() throws IOException {
+		compile(source("fixture.BusHandler",
+				"public class BusHandler {\n" +
+				"\t@BusAddress(\"fixture.address\") public void handle(Message<JsonObject> message) {}\n" +
+				"}\n"));
+		assertFalse(Files.exists(output.resolve("fixture/BusHandler_Routes.java")));
+		assertFalse(Files.exists(output.resolve("fixture/BusHandler_Routes.class")));
+		assertTrue(Files.exists(output.resolve("routes/fixture.BusHandler.json")));
+	}
+
+	private void compile(JavaFileObject... sources) throws IOException {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+			final List<String> options = new ArrayList<>(Arrays.asList(
+					"-classpath", System.getProperty("java.class.path"),
+					"-d", output.toString(), "-s", output.toString()));
+			final JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics, options, null,
+					Arrays.asList(sources));
+			task.setProcessors(Collections.singletonList(new ControllerAnnotationProcessor()));
+			final boolean success = task.call();
+			final StringBuilder errors = new StringBuilder();
+			for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+				if (d.getKind() == Diagnostic.Kind.ERROR) {
+					errors.append(d).append('\n');
+				}
+			}
+			assertTrue(errors.toString(), success);
+		}
+	}
+
+	private static JavaFileObject source(String className, String body) {
+		final String pkg = className.substring(0, className.lastIndexOf('.'));
+		final String code = "package " + pkg + ";\n\n" + IMPORTS + "\n" + body;
+		return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"),
+				JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return code;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,34 @@
+package fr.wseduc.webutils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test class for {@link I18nMessage}
+ */
+public class I18nMessageTest {
+
+	@Test
+	public void formatSlots() {
+		final I18nMessage message = I18nMessage.parse("{0} a partagé {1} avec vous.");
+		assertEquals("Marie a partagé un document avec vous.", message.format("Marie", "un document"));
+		assertEquals("Marie a partagé {1} avec vous.", message.format("Marie"));
+		assertEquals("{0} a partagé {1} avec vous.", message.format());
+	}
+
+	@Test
+	public void argumentsAreLiteral() {
+		final I18nMessage message = I18nMessage.parse("Total : {0}{1}");
+		assertEquals("Total : 10$ {1}", message.format("10$ {1}", ""));
+		assertEquals("x{0}", I18nMessage.parse("{1}{0}").format("{0}", "x"));
+	}
+
+	@Test
+	public void bracesWithoutIndex() {
+		final I18nMessage message = I18nMessage.parse("{ {a} {} {12 {3}");
+		assertEquals("{ {a} {} {12 three", message.format("0", "1", "2", "three"));
+		assertEquals("{{ user }}", I18nMessage.parse("{{ user }}").format("0"));
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.email;
+
+import fr.wseduc.webutils.data.FileResolver;
+import fr.wseduc.webutils.eventbus.ResultMessage;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncResult;
+
+@RunWith(VertxUnitRunner.class)
+public class BulkEmailTest {
+
+	private static final String MODULE = "bulk-email-test";
+
+	private Vertx vertx;
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		vertx = Vertx.vertx();
+		directory = Files.createTempDirectory("bulk-email");
+		Files.createDirectories(directory.resolve("view"));
+		Files.write(directory.resolve("view/mail.html"),
+				"Hello {{name}} {{#static}}logo.png{{/static}}".getBytes(StandardCharsets.UTF_8));
+		FileResolver.getInstance().setBasePath(MODULE, directory.toString());
+	}
+
+	@After
+	public void tearDown(TestContext test) throws IOException {
+		vertx.close(test.asyncAssertSuccess());
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	public void templateIsRenderedWithoutRequest(TestContext test) {
+		final StubSender sender = new StubSender();
+		final Async async = test.async();
+		sender.sendBulkEmail(config(), null,
+				Arrays.asList(new BulkRecipient("a@x", "fr"), new BulkRecipient("b@x", "en")).iterator(),
+				"subject", "mail.html", new JsonObject().put("name", "Alice"), false,
+				test.asyncAssertSuccess(message -> {
+					test.assertEquals(2L, message.body().getLong("sent"));
+					test.assertEquals(2, sender.mails.size());
+					final String body = sender.mails.get(0).getString("body");
+					test.assertTrue(body.startsWith("Hello Alice "), body);
+					test.assertTrue(body.contains("https://ent.example.org/"), body);
+					async.complete();
+				}));
+	}
+
+	@Test
+	public void contentErrorsAreCountedAsFailures(TestContext test) {
+		final StubSender sender = new StubSender();
+		final Async async = test.async();
+		new BulkEmail(sender, vertx.getOrCreateContext(),
+				Arrays.asList(new BulkRecipient("a@x"), new BulkRecipient("bad@x"), new BulkRecipient("c@x")).iterator(),
+				recipient -> {
+					if (recipient.getTo().startsWith("bad")) {
+						throw new IllegalStateException("render.error");
+					}
+					return Future.succeededFuture(new JsonObject().put("subject", "s").put("body", "b"));
+				}, new JsonObject().put("from", "noreply@x"), 2, 1, ar -> {
+					test.assertTrue(ar.failed());
+					final JsonObject result = new JsonObject(ar.cause().getMessage());
+					test.assertEquals(2L, result.getLong("sent"));
+					test.assertEquals(1L, result.getLong("failed"));
+					test.assertTrue(result.getJsonArray("errors").contains("render.error"));
+					async.complete();
+				}).start();
+	}
+
+	private static JsonObject config() {
+		return new JsonObject().put("main", MODULE).put("host", "https://ent.example.org");
+	}
+
+	private class StubSender extends NotificationHelper {
+
+		private final List<JsonObject> mails = Collections.synchronizedList(new ArrayList<>());
+
+		private StubSender() {
+			super(vertx, config());
+		}
+
+		@Override
+		protected void sendEmail(JsonObject json, Handler<AsyncResult<Message<JsonObject>>> handler) {
+			mails.add(json);
+			handleAsyncResult(new ResultMessage(), handler);
+		}
+	}
+
+}
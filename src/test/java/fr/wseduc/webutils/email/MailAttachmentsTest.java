@@ -0,0 +1,66 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.email;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MailAttachmentsTest {
+
+	private static final String TEXT = "Bonjour, voici le compte rendu du conseil de classe du premier trimestre.";
+
+	@Test
+	public void base64ContentIsDecoded() {
+		final String content = Base64.getEncoder().encodeToString(TEXT.getBytes(StandardCharsets.UTF_8));
+		assertEquals(TEXT, MailAttachments.data(attachment(content)).toString());
+	}
+
+	@Test
+	public void mimeLineBreaksAreIgnored() {
+		final String content = Base64.getMimeEncoder(16, "\r\n".getBytes(StandardCharsets.US_ASCII))
+				.encodeToString(TEXT.getBytes(StandardCharsets.UTF_8));
+		assertEquals(TEXT, MailAttachments.data(attachment(content)).toString());
+		assertEquals(TEXT, MailAttachments.data(attachment(content.replace("\r", ""))).toString());
+	}
+
+	@Test
+	public void textIsAttachedAsIs() {
+		// the MIME decoder would decode the base64 characters and skip the others
+		assertEquals("plain text, not base64", MailAttachments.data(attachment("plain text, not base64")).toString());
+		assertEquals("abc!defg", MailAttachments.data(attachment("abc!defg")).toString());
+	}
+
+	@Test
+	public void dataIsReturnedAndFilesAreNot() {
+		final JsonObject data = new JsonObject().put("name", "data.txt").put("data", Buffer.buffer(TEXT));
+		assertEquals(TEXT, MailAttachments.data(data).toString());
+		assertNull(MailAttachments.data(new JsonObject().put("name", "file.txt").put("path", "/tmp/file.txt")));
+	}
+
+	private static JsonObject attachment(String content) {
+		return new JsonObject().put("name", "file.txt").put("content", content);
+	}
+
+}
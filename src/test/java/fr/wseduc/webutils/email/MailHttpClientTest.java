@@ -0,0 +1,82 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.email;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URI;
+
+@RunWith(VertxUnitRunner.class)
+public class MailHttpClientTest {
+
+	private Vertx vertx;
+	private HttpServer server;
+
+	@Before
+	public void setUp(TestContext test) {
+		vertx = Vertx.vertx();
+		server = vertx.createHttpServer().requestHandler(request -> request.response().end("{}"));
+		server.listen(0, test.asyncAssertSuccess());
+	}
+
+	@After
+	public void tearDown(TestContext test) {
+		vertx.close(test.asyncAssertSuccess());
+	}
+
+	@Test
+	public void countersAreSharedByTheClientsOfAnUri(TestContext test) throws Exception {
+		final URI uri = new URI("http://localhost:" + server.actualPort());
+		final MailHttpClient first = new MailHttpClient(vertx, uri, new JsonObject(), "sendinblue");
+		final MailHttpClient second = new MailHttpClient(vertx, uri, new JsonObject(), "sendinblue");
+		final MailHttpClient other = new MailHttpClient(vertx, uri, new JsonObject(), "gomail");
+		final Async async = test.async();
+		get(first)
+				.compose(v -> get(second))
+				.compose(v -> get(second))
+				.onComplete(test.asyncAssertSuccess(v -> {
+					test.assertEquals(3L, first.getRequests());
+					test.assertEquals(3L, second.getRequests());
+					test.assertEquals(first.getConnections(), second.getConnections());
+					test.assertTrue(first.getConnections() >= 1L);
+					test.assertEquals(0L, other.getRequests());
+					async.complete();
+				}));
+	}
+
+	private static Future<Void> get(MailHttpClient client) {
+		return client.request(new RequestOptions().setMethod(HttpMethod.GET).setURI("/"))
+				.flatMap(HttpClientRequest::send)
+				.flatMap(HttpClientResponse::body)
+				.mapEmpty();
+	}
+
+}
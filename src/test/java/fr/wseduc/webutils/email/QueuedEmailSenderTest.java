@@ -0,0 +1,318 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.email;
+
+import fr.wseduc.webutils.eventbus.ResultMessage;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncError;
+import static fr.wseduc.webutils.DefaultAsyncResult.handleAsyncResult;
+
+@RunWith(VertxUnitRunner.class)
+public class QueuedEmailSenderTest {
+
+	private static final String HOLD = "hold";
+
+	private Vertx vertx;
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		vertx = Vertx.vertx();
+		directory = Files.createTempDirectory("mail-queue");
+	}
+
+	@After
+	public void tearDown(TestContext test) throws IOException {
+		vertx.close(test.asyncAssertSuccess());
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	public void queuedMailsAreSentAfterRestart(TestContext test) {
+		final StubSender held = new StubSender(mail -> HOLD);
+		final QueuedEmailSender first = new QueuedEmailSender(vertx, config(new JsonObject()), held);
+		final Async async = test.async();
+		queue(first, mail("a", "a@x"), mail("b", "b@x"), mail("c", "c@x"))
+				.compose(v -> waitFor(() -> held.mails.size() == 3))
+				.compose(v -> first.close())
+				.onComplete(test.asyncAssertSuccess(v -> {
+					final StubSender sender = new StubSender(mail -> null);
+					final QueuedEmailSender second = new QueuedEmailSender(vertx, config(new JsonObject()), sender);
+					waitFor(() -> sender.mails.size() == 3 && second.size() == 0).onComplete(test.asyncAssertSuccess(w -> {
+						test.assertEquals("a", sender.mails.get(0).getString("subject"));
+						test.assertEquals("b", sender.mails.get(1).getString("subject"));
+						test.assertEquals("c", sender.mails.get(2).getString("subject"));
+						async.complete();
+					}));
+				}));
+	}
+
+	@Test
+	public void mailsQueuedAfterATornLineAreKept(TestContext test) throws IOException {
+		final String record = EmailJournal.add("a", mail("a", "a@x"), System.currentTimeMillis(), 0).encode();
+		Files.write(directory.resolve("queue.log"), (record + "\n" + "{\"add\":\"b\",\"mail\":{\"to\"")
+				.getBytes(StandardCharsets.UTF_8));
+		final StubSender held = new StubSender(mail -> HOLD);
+		final QueuedEmailSender first = new QueuedEmailSender(vertx, config(new JsonObject()), held);
+		final Async async = test.async();
+		queue(first, mail("c", "c@x"))
+				.compose(v -> waitFor(() -> held.mails.size() == 2))
+				.compose(v -> first.close())
+				.onComplete(test.asyncAssertSuccess(v -> {
+					final StubSender sender = new StubSender(mail -> null);
+					final QueuedEmailSender second = new QueuedEmailSender(vertx, config(new JsonObject()), sender);
+					waitFor(() -> sender.mails.size() == 2 && second.size() == 0).onComplete(test.asyncAssertSuccess(w -> {
+						test.assertEquals("a", sender.mails.get(0).getString("subject"));
+						test.assertEquals("c", sender.mails.get(1).getString("subject"));
+						async.complete();
+					}));
+				}));
+	}
+
+	@Test
+	public void failedMailsAreRetriedThenLogged(TestContext test) {
+		final StubSender sender = new StubSender(mail -> "boom");
+		final QueuedEmailSender queue = new QueuedEmailSender(vertx, config(new JsonObject()
+				.put("max-attempts", 3).put("retry-delay", 50)), sender);
+		final Path failed = directory.resolve("failed.log");
+		final Async async = test.async();
+		queue(queue, mail("a", "a@x"))
+				.compose(v -> waitFor(() -> lines(failed).size() == 1))
+				.onComplete(test.asyncAssertSuccess(v -> {
+					test.assertEquals(3, sender.mails.size());
+					test.assertEquals(0, queue.size());
+					final long firstDelay = sender.times.get(1) - sender.times.get(0);
+					final long secondDelay = sender.times.get(2) - sender.times.get(1);
+					test.assertTrue(firstDelay >= 50L, "first retry after " + firstDelay + " ms");
+					test.assertTrue(secondDelay >= 100L, "second retry after " + secondDelay + " ms");
+					final JsonObject record = new JsonObject(lines(failed).get(0));
+					test.assertEquals(3, record.getInteger("attempts"));
+					test.assertEquals("boom", record.getString("error"));
+					test.assertEquals("a", record.getJsonObject("mail").getString("subject"));
+					async.complete();
+				}));
+	}
+
+	@Test
+	public void onlyFailedRecipientsAreRetried(TestContext test) {
+		final JsonObject error = new JsonObject().put("sent", 2).put("failed", 1)
+				.put("errors", new JsonObject().put("b@x", "550 mailbox unavailable"));
+		final StubSender partial = new StubSender(mail -> error.encode());
+		final QueuedEmailSender first = new QueuedEmailSender(vertx, config(new JsonObject()
+				.put("retry-delay", 60000)), partial);
+		final Async async = test.async();
+		queue(first, mail("a", "a@x", "b@x", "c@x"))
+				.compose(v -> waitFor(() -> String.join("\n", lines(directory.resolve("queue.log"))).contains("\"retry\"")))
+				.compose(v -> first.close())
+				.onComplete(test.asyncAssertSuccess(v -> {
+					test.assertEquals(new JsonArray().add("a@x").add("b@x").add("c@x"),
+							partial.mails.get(0).getJsonArray("to"));
+					final StubSender sender = new StubSender(mail -> null);
+					new QueuedEmailSender(vertx, config(new JsonObject()), sender);
+					waitFor(() -> sender.mails.size() == 1).onComplete(test.asyncAssertSuccess(w -> {
+						test.assertEquals(new JsonArray().add("b@x"), sender.mails.get(0).getJsonArray("to"));
+						test.assertEquals("a", sender.mails.get(0).getString("subject"));
+						async.complete();
+					}));
+				}));
+	}
+
+	@Test
+	public void sendsAreRateLimited(TestContext test) throws Exception {
+		final List<Long> requests = Collections.synchronizedList(new ArrayList<>());
+		final HttpServer server = vertx.createHttpServer().requestHandler(request -> request.body(ar -> {
+			requests.add(System.currentTimeMillis());
+			request.response().setStatusCode(201).end("{}");
+		}));
+		final Async async = test.async();
+		server.listen(0, test.asyncAssertSuccess(s -> {
+			final QueuedEmailSender queue;
+			try {
+				queue = new QueuedEmailSender(vertx, config(new JsonObject().put("rate", 20).put("burst", 1)),
+						new SendInBlueSender(vertx, new JsonObject()
+								.put("uri", "http://localhost:" + s.actualPort()).put("api-key", "key")));
+			} catch (Exception e) {
+				test.fail(e);
+				return;
+			}
+			// the first mail opens the connection, the bucket is empty after it
+			queue(queue, mail("a", "a@x"))
+					.compose(v -> waitFor(() -> requests.size() == 1))
+					.compose(v -> queue(queue, mail("b", "b@x"), mail("c", "c@x"), mail("d", "d@x"),
+							mail("e", "e@x"), mail("f", "f@x")))
+					.compose(v -> waitFor(() -> requests.size() == 6 && queue.size() == 0))
+					.onComplete(test.asyncAssertSuccess(v -> {
+						// one token every 50 ms
+						final long elapsed = requests.get(5) - requests.get(1);
+						test.assertTrue(elapsed >= 180L, "5 mails sent in " + elapsed + " ms");
+						async.complete();
+					}));
+		}));
+	}
+
+	@Test
+	public void compactionKeepsTheMailsQueuedMeanwhile(TestContext test) {
+		final List<QueuedEmailSender> queues = new ArrayList<>();
+		final Set<String> pending = Collections.synchronizedSet(new HashSet<>());
+		final StubSender sender = new StubSender(mail -> {
+			final String subject = mail.getString("subject");
+			if (subject.startsWith("ok")) {
+				// queued while the compaction following this send is written
+				final JsonObject late = mail("late" + subject.substring(2), "late@x");
+				pending.add(late.getString("subject"));
+				queues.get(0).sendEmail(late, ar -> {});
+				return null;
+			}
+			return HOLD;
+		});
+		final QueuedEmailSender first = new QueuedEmailSender(vertx, config(new JsonObject()
+				.put("compact-threshold", 2).put("max-in-flight", 32)), sender);
+		queues.add(first);
+		final List<JsonObject> mails = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			mails.add(mail("ok" + i, "ok@x"));
+			if (i % 2 == 0) {
+				mails.add(mail("hold" + i, "hold@x"));
+				pending.add("hold" + i);
+			}
+		}
+		final Async async = test.async();
+		queue(first, mails.toArray(new JsonObject[0]))
+				.compose(v -> waitFor(() -> sender.mails.size() == 25 && first.size() == 15))
+				.compose(v -> first.close())
+				.onComplete(test.asyncAssertSuccess(v -> {
+					final StubSender next = new StubSender(mail -> null);
+					final QueuedEmailSender second = new QueuedEmailSender(vertx, config(new JsonObject()), next);
+					waitFor(() -> next.mails.size() == 15 && second.size() == 0).onComplete(test.asyncAssertSuccess(w -> {
+						final Set<String> resent = new HashSet<>();
+						for (JsonObject mail : next.mails) {
+							resent.add(mail.getString("subject"));
+						}
+						test.assertEquals(pending, resent);
+						async.complete();
+					}));
+				}));
+	}
+
+	private JsonObject config(JsonObject queue) {
+		return new JsonObject().put("queue", queue.put("path", directory.toString())
+				.put("rate", queue.getValue("rate", 0)));
+	}
+
+	private static JsonObject mail(String subject, String... to) {
+		final JsonArray recipients = new JsonArray();
+		for (String recipient : to) {
+			recipients.add(recipient);
+		}
+		return new JsonObject().put("to", recipients).put("from", "noreply@x")
+				.put("subject", subject).put("body", "<p>" + subject + "</p>");
+	}
+
+	private static Future<Void> queue(QueuedEmailSender queue, JsonObject... mails) {
+		final List<Future<Message<JsonObject>>> queued = new ArrayList<>();
+		for (JsonObject mail : mails) {
+			final Promise<Message<JsonObject>> promise = Promise.promise();
+			queue.sendEmail(mail, promise);
+			queued.add(promise.future());
+		}
+		return Future.all(queued).mapEmpty();
+	}
+
+	private Future<Void> waitFor(BooleanSupplier condition) {
+		final Promise<Void> promise = Promise.promise();
+		final long deadline = System.currentTimeMillis() + 10000L;
+		vertx.setPeriodic(20L, id -> {
+			if (condition.getAsBoolean()) {
+				vertx.cancelTimer(id);
+				promise.complete();
+			} else if (System.currentTimeMillis() > deadline) {
+				vertx.cancelTimer(id);
+				promise.fail("timeout");
+			}
+		});
+		return promise.future();
+	}
+
+	private static List<String> lines(Path file) {
+		try {
+			return Files.exists(file) ? Files.readAllLines(file, StandardCharsets.UTF_8) : Collections.emptyList();
+		} catch (IOException e) {
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Sender answering with the error given by the function, a success if null, or never if {@link #HOLD}.
+	 */
+	private class StubSender extends NotificationHelper {
+
+		private final Function<JsonObject, String> error;
+		private final List<JsonObject> mails = Collections.synchronizedList(new ArrayList<>());
+		private final List<Long> times = Collections.synchronizedList(new ArrayList<>());
+
+		private StubSender(Function<JsonObject, String> error) {
+			super(vertx, new JsonObject());
+			this.error = error;
+		}
+
+		@Override
+		protected void sendEmail(JsonObject json, Handler<AsyncResult<Message<JsonObject>>> handler) {
+			times.add(System.currentTimeMillis());
+			mails.add(json);
+			final String e = error.apply(json);
+			if (e == null) {
+				handleAsyncResult(new ResultMessage(), handler);
+			} else if (!HOLD.equals(e)) {
+				handleAsyncError(e, handler);
+			}
+		}
+	}
+
+}
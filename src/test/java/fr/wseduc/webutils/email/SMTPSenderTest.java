@@ -0,0 +1,145 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.email;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mail.MailClient;
+import io.vertx.ext.mail.MailMessage;
+import io.vertx.ext.mail.MailResult;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(VertxUnitRunner.class)
+public class SMTPSenderTest {
+
+	private Vertx vertx;
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+	}
+
+	@After
+	public void tearDown(TestContext test) {
+		vertx.close(test.asyncAssertSuccess());
+	}
+
+	@Test
+	public void splitSendIsLimitedToMaxConcurrent(TestContext test) {
+		final StubMailClient client = new StubMailClient(Collections.emptySet());
+		final SMTPSender sender = new SMTPSender(vertx, config(3), client);
+		final Async async = test.async();
+		sender.sendEmail(mail(10), test.asyncAssertSuccess(message -> {
+			test.assertEquals(10, message.body().getInteger("sent"));
+			test.assertEquals(10, client.recipients.size());
+			test.assertEquals(new HashSet<>(recipients(10).getList()), new HashSet<>(client.recipients));
+			test.assertEquals(3, client.maxInFlight.get());
+			async.complete();
+		}));
+	}
+
+	@Test
+	public void splitSendReportsTheFailedRecipients(TestContext test) {
+		final StubMailClient client = new StubMailClient(new HashSet<>(Arrays.asList("user3@x", "user7@x")));
+		final SMTPSender sender = new SMTPSender(vertx, config(4), client);
+		final Async async = test.async();
+		sender.sendEmail(mail(10), ar -> {
+			test.assertTrue(ar.failed());
+			final JsonObject result = new JsonObject(ar.cause().getMessage());
+			test.assertEquals(8, result.getInteger("sent"));
+			test.assertEquals(2, result.getInteger("failed"));
+			final JsonObject errors = result.getJsonObject("errors");
+			test.assertEquals(new HashSet<>(Arrays.asList("user3@x", "user7@x")), errors.fieldNames());
+			test.assertEquals("550 mailbox unavailable", errors.getString("user3@x"));
+			test.assertTrue(client.maxInFlight.get() <= 4);
+			async.complete();
+		});
+	}
+
+	private static JsonObject config(int maxConcurrent) {
+		return new JsonObject().put("split-recipients", true).put("max-concurrent", maxConcurrent);
+	}
+
+	private static JsonArray recipients(int count) {
+		final JsonArray to = new JsonArray();
+		for (int i = 0; i < count; i++) {
+			to.add("user" + i + "@x");
+		}
+		return to;
+	}
+
+	private static JsonObject mail(int recipients) {
+		return new JsonObject().put("to", recipients(recipients)).put("from", "noreply@x")
+				.put("subject", "subject").put("body", "<p>body</p>");
+	}
+
+	/**
+	 * Client answering after a delay, failing for the given recipients.
+	 */
+	private class StubMailClient implements MailClient {
+
+		private final Set<String> failing;
+		private final List<String> recipients = new CopyOnWriteArrayList<>();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger maxInFlight = new AtomicInteger();
+
+		private StubMailClient(Set<String> failing) {
+			this.failing = failing;
+		}
+
+		@Override
+		public MailClient sendMail(MailMessage message, Handler<AsyncResult<MailResult>> handler) {
+			final String recipient = message.getTo().get(0);
+			recipients.add(recipient);
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			vertx.setTimer(20L, id -> {
+				inFlight.decrementAndGet();
+				if (failing.contains(recipient)) {
+					handler.handle(Future.failedFuture("550 mailbox unavailable"));
+				} else {
+					handler.handle(Future.succeededFuture(new MailResult()));
+				}
+			});
+			return this;
+		}
+
+		@Override
+		public void close(Handler<AsyncResult<Void>> handler) {
+			handler.handle(Future.succeededFuture());
+		}
+	}
+
+}
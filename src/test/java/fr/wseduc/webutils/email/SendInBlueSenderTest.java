@@ -0,0 +1,131 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.email;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@RunWith(VertxUnitRunner.class)
+public class SendInBlueSenderTest {
+
+	private Vertx vertx;
+	private HttpServer server;
+	private final List<Buffer> bodies = new CopyOnWriteArrayList<>();
+	private Path file;
+	private byte[] fileContent;
+
+	@Before
+	public void setUp(TestContext test) throws Exception {
+		vertx = Vertx.vertx();
+		// not a multiple of the chunk size, the last chunk is padded
+		fileContent = new byte[3 * MailAttachments.CHUNK_SIZE + 1];
+		new Random(42).nextBytes(fileContent);
+		file = Files.createTempFile("attachment", ".bin");
+		Files.write(file, fileContent);
+		server = vertx.createHttpServer().requestHandler(request -> request.body(ar -> {
+			bodies.add(ar.result());
+			request.response().setStatusCode(201).end("{}");
+		}));
+		server.listen(0, test.asyncAssertSuccess());
+	}
+
+	@After
+	public void tearDown(TestContext test) throws Exception {
+		Files.deleteIfExists(file);
+		vertx.close(test.asyncAssertSuccess());
+	}
+
+	@Test
+	public void streamedPayloadIsValidJson(TestContext test) throws Exception {
+		final Async async = test.async();
+		sender().sendEmail(mail("subject", "a@x"), test.asyncAssertSuccess(message -> {
+			test.assertEquals(1, bodies.size());
+			final JsonObject payload = new JsonObject(bodies.get(0));
+			test.assertEquals("subject", payload.getString("subject"));
+			test.assertEquals("a@x", payload.getJsonArray("to").getJsonObject(0).getString("email"));
+			assertAttachments(test, payload.getJsonArray("attachment"));
+			async.complete();
+		}));
+	}
+
+	@Test
+	public void streamedBatchPayloadIsValidJson(TestContext test) throws Exception {
+		final Async async = test.async();
+		sender().sendEmails(Arrays.asList(mail("subject", "a@x"), mail("other", "b@x")),
+				test.asyncAssertSuccess(message -> {
+					test.assertEquals(1, bodies.size());
+					final JsonObject payload = new JsonObject(bodies.get(0));
+					test.assertNull(payload.getValue("to"));
+					final JsonArray versions = payload.getJsonArray("messageVersions");
+					test.assertEquals(2, versions.size());
+					test.assertEquals("b@x", versions.getJsonObject(1).getJsonArray("to").getJsonObject(0).getString("email"));
+					test.assertEquals("other", versions.getJsonObject(1).getString("subject"));
+					assertAttachments(test, payload.getJsonArray("attachment"));
+					async.complete();
+				}));
+	}
+
+	private SendInBlueSender sender() throws Exception {
+		return new SendInBlueSender(vertx, new JsonObject()
+				.put("uri", "http://localhost:" + server.actualPort()).put("api-key", "key"));
+	}
+
+	private JsonObject mail(String subject, String to) {
+		final JsonArray attachments = new JsonArray()
+				.add(new JsonObject().put("name", "inline.txt")
+						.put("content", Base64.getEncoder().encodeToString("inline".getBytes(StandardCharsets.UTF_8))))
+				.add(new JsonObject().put("name", "data.txt").put("data", Buffer.buffer("data")))
+				.add(new JsonObject().put("name", "file.bin").put("path", file.toString()));
+		return new JsonObject().put("to", new JsonArray().add(to)).put("from", "noreply@x")
+				.put("subject", subject).put("body", "<p>" + subject + "</p>").put("attachments", attachments);
+	}
+
+	private void assertAttachments(TestContext test, JsonArray attachments) {
+		test.assertEquals(3, attachments.size());
+		test.assertEquals("inline.txt", attachments.getJsonObject(0).getString("name"));
+		test.assertEquals("inline", decode(attachments.getJsonObject(0)).toString());
+		test.assertEquals("data.txt", attachments.getJsonObject(1).getString("name"));
+		test.assertEquals("data", decode(attachments.getJsonObject(1)).toString());
+		test.assertEquals("file.bin", attachments.getJsonObject(2).getString("name"));
+		test.assertTrue(Arrays.equals(fileContent, decode(attachments.getJsonObject(2)).getBytes()));
+	}
+
+	private static Buffer decode(JsonObject attachment) {
+		return Buffer.buffer(Base64.getDecoder().decode(attachment.getString("content")));
+	}
+
+}
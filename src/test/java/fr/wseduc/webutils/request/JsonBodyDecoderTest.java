@@ -0,0 +1,123 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.request;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.json.jackson.DatabindCodec;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+
+@RunWith(VertxUnitRunner.class)
+public class JsonBodyDecoderTest {
+
+	private Vertx vertx;
+	private long defaultMaxBodySize;
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+		defaultMaxBodySize = JsonBodyDecoder.getDefaultMaxBodySize();
+	}
+
+	@After
+	public void tearDown(TestContext test) {
+		JsonBodyDecoder.setDefaultMaxBodySize(defaultMaxBodySize);
+		vertx.close(test.asyncAssertSuccess());
+	}
+
+	@Test
+	public void keysAndValuesAreStripped(TestContext test) {
+		final String body = "{\"<script>alert(1)</script>name\":\"a<script>alert(2)</script>b\"," +
+				"\"list\":[\"<script>x</script>c\",1,true],\"map\":{\"<script>y</script>key\":null}}";
+		final JsonBodyDecoder decoder = new JsonBodyDecoder(-1, true);
+		// chunks splitting the keys and the values
+		for (int i = 0; i < body.length(); i += 7) {
+			decoder.handle(Buffer.buffer(body.substring(i, Math.min(i + 7, body.length()))));
+		}
+		decoder.end();
+		decoder.future().onComplete(test.asyncAssertSuccess(parser -> {
+			try {
+				final JsonObject json = new JsonObject(DatabindCodec.mapper().readValue(parser, Map.class));
+				test.assertEquals("ab", json.getString("name"));
+				test.assertEquals("c", json.getJsonArray("list").getString(0));
+				test.assertEquals(1, json.getJsonArray("list").getInteger(1));
+				test.assertTrue(json.getJsonObject("map").containsKey("key"));
+				test.assertEquals(3, json.size());
+			} catch (Exception e) {
+				test.fail(e);
+			}
+		}));
+	}
+
+	@Test
+	public void keysAreKeptWithoutStripping(TestContext test) {
+		final JsonBodyDecoder decoder = new JsonBodyDecoder(-1, false);
+		decoder.handle(Buffer.buffer("{\"<b>key</b>\":\"<b>value</b>\"}"));
+		decoder.end();
+		decoder.future().onComplete(test.asyncAssertSuccess(parser -> {
+			try {
+				final Map<?, ?> json = DatabindCodec.mapper().readValue(parser, Map.class);
+				test.assertEquals("<b>value</b>", json.get("<b>key</b>"));
+			} catch (Exception e) {
+				test.fail(e);
+			}
+		}));
+	}
+
+	@Test
+	public void tooLargeBodyIsRejectedWith413(TestContext test) {
+		JsonBodyDecoder.setDefaultMaxBodySize(64);
+		final HttpServer server = vertx.createHttpServer().requestHandler(request ->
+				RequestUtils.bodyToJson(request, json -> request.response().end(json.encode())));
+		final StringBuilder body = new StringBuilder("{\"values\":[");
+		for (int i = 0; i < 100; i++) {
+			body.append(i > 0 ? "," : "").append('"').append(i).append('"');
+		}
+		final String large = body.append("]}").toString();
+		final Async async = test.async();
+		server.listen(0, test.asyncAssertSuccess(s -> vertx.createHttpClient()
+				.request(HttpMethod.POST, s.actualPort(), "localhost", "/")
+				.compose(request -> request.send(large))
+				.onComplete(test.asyncAssertSuccess(response -> {
+					test.assertEquals(413, response.statusCode());
+					vertx.createHttpClient()
+							.request(HttpMethod.POST, s.actualPort(), "localhost", "/")
+							.compose(request -> request.send("{\"a\":\"b\"}"))
+							.compose(r -> {
+								test.assertEquals(200, r.statusCode());
+								return r.body();
+							})
+							.onComplete(test.asyncAssertSuccess(b -> {
+								test.assertEquals("b", new JsonObject(b).getString("a"));
+								async.complete();
+							}));
+				}))));
+	}
+
+}
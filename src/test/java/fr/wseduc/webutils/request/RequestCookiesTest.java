@@ -0,0 +1,157 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.request;
+
+import io.netty.handler.codec.http.Cookie;
+import io.netty.handler.codec.http.CookieDecoder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RequestCookiesTest {
+
+	private static final String[] ATTRIBUTES = {
+			"Path=/", "Path=/auth", "Domain=ent.example.org", "Secure", "HttpOnly", "HTTPOnly=true", "Version=1",
+			"Max-Age=3600", "max-age=60", "Expires=Wed, 09 Jun 2021 10:18:14 GMT", "Comment=session",
+			"CommentURL=https://ent.example.org", "Discard", "Port=\"80,443\"", "path=/x", "DOMAIN=.example.org",
+			"$Version=1", "$Path=/", "$Domain=example.org"
+	};
+
+	@Test
+	public void sameCookiesAsNettyDecoder() {
+		final Random random = new Random(20261018L);
+		for (int n = 0; n < 2000; n++) {
+			assertSameAsLegacy(header(random, n % 4 == 0));
+		}
+	}
+
+	@Test
+	public void attributesAreDecodedByNetty() {
+		final String header = "oneSessionId=abc; Path=/auth; Domain=ent.example.org; authenticated=true";
+		assertSameAsLegacy(header);
+		final Cookie session = new RequestCookies(header).getCookie("oneSessionId");
+		assertEquals("/auth", session.getPath());
+		assertEquals("ent.example.org", session.getDomain());
+		assertNull(new RequestCookies(header).getCookie("Path"));
+		assertEquals("/auth", RequestCookies.find(header, "oneSessionId").getPath());
+	}
+
+	@Test
+	public void simpleHeaders() {
+		assertSameAsLegacy("a=1; b=2;c=3");
+		assertSameAsLegacy("a=1; a=2; b=");
+		assertSameAsLegacy("a; b=2; ;; c=x=y");
+		assertSameAsLegacy("a=\"quoted; value\"; b=2");
+		assertSameAsLegacy("token=eyJhbGciOiJIUzI1NiJ9.e30.c2lnbmF0dXJl==; _ga=GA1.2.1234.5678");
+		assertSameAsLegacy(" , a=1 , b=2");
+	}
+
+	private static void assertSameAsLegacy(String header) {
+		final Map<String, Cookie> expected = new HashMap<>();
+		for (Cookie c : CookieDecoder.decode(header, false)) {
+			expected.putIfAbsent(c.getName(), c);
+		}
+		final RequestCookies cookies = new RequestCookies(header);
+		for (Cookie e : expected.values()) {
+			final Cookie c = cookies.getCookie(e.getName());
+			assertSame(header, e, c);
+			assertSame(header, e, RequestCookies.find(header, e.getName()));
+		}
+		for (String name : names(header)) {
+			if (!expected.containsKey(name)) {
+				assertNull(header + " : " + name, cookies.getCookie(name));
+				assertNull(header + " : " + name, RequestCookies.find(header, name));
+			}
+		}
+	}
+
+	private static void assertSame(String header, Cookie expected, Cookie actual) {
+		final String message = header + " : " + expected.getName();
+		assertEquals(message, expected.getValue(), actual != null ? actual.getValue() : null);
+		assertEquals(message, expected.getPath(), actual.getPath());
+		assertEquals(message, expected.getDomain(), actual.getDomain());
+	}
+
+	private static List<String> names(String header) {
+		final List<String> names = new ArrayList<>();
+		for (String pair : header.split("[;,]")) {
+			final int eq = pair.indexOf('=');
+			final String name = (eq >= 0 ? pair.substring(0, eq) : pair).trim();
+			if (!name.isEmpty() && !names.contains(name)) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * A Cookie header of 2 to 4 KB, like the ones sent to the platform : session, xsrf, analytics and
+	 * application cookies, sometimes with attributes copied from a Set-Cookie.
+	 */
+	private static String header(Random random, boolean withAttributes) {
+		final int size = 2048 + random.nextInt(2048);
+		final StringBuilder header = new StringBuilder(size + 256);
+		header.append("oneSessionId=").append(UUID.nameUUIDFromBytes(new byte[] { (byte) random.nextInt() }));
+		header.append("; authenticated=true; XSRF-TOKEN=").append(Long.toHexString(random.nextLong()));
+		int i = 0;
+		while (header.length() < size) {
+			header.append(random.nextInt(8) == 0 ? ";" : "; ");
+			if (withAttributes && random.nextInt(6) == 0) {
+				header.append(ATTRIBUTES[random.nextInt(ATTRIBUTES.length)]);
+				continue;
+			}
+			switch (random.nextInt(6)) {
+				case 0:
+					header.append("_ga_").append(i).append("=GA1.2.").append(random.nextInt(Integer.MAX_VALUE))
+							.append('.').append(random.nextInt(Integer.MAX_VALUE));
+					break;
+				case 1:
+					header.append("app").append(i).append('=').append(base64(random));
+					break;
+				case 2:
+					header.append("pref").append(i).append("=%7B%22lang%22%3A%22fr%22%2C%22theme%22%3A%22dark%22%7D");
+					break;
+				case 3:
+					header.append("flag").append(i);
+					break;
+				case 4:
+					header.append("empty").append(i).append('=');
+					break;
+				default:
+					header.append("oneSessionId=").append(UUID.randomUUID());
+			}
+			i++;
+		}
+		return header.toString();
+	}
+
+	private static String base64(Random random) {
+		final byte[] bytes = new byte[16 + random.nextInt(48)];
+		random.nextBytes(bytes);
+		return java.util.Base64.getEncoder().encodeToString(bytes);
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.request.filter;
+
+import fr.wseduc.webutils.security.WrappedHttpServerRequest;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.http.HttpServerRequest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FilterPipelineTest {
+
+	private final List<String> calls = new ArrayList<>();
+	private final HttpServerRequest request = new WrappedHttpServerRequest(null);
+	private final Handler<HttpServerRequest> granted = r -> {
+		assertSame(request, r);
+		calls.add("granted");
+	};
+
+	@Test
+	public void grantedWhenEveryFilterAllows() {
+		execute(new Recording("a", true), new Recording("b", true), new Recording("c", true));
+		assertEquals(Arrays.asList("a", "b", "c", "granted"), calls);
+	}
+
+	@Test
+	public void firstDenyStopsThePipeline() {
+		execute(new Recording("a", true), new Recording("b", false), new Recording("c", true));
+		assertEquals(Arrays.asList("a", "b", "deny b"), calls);
+	}
+
+	@Test
+	public void nullAccessDenies() {
+		execute(new Recording("a", null), new Recording("b", true));
+		assertEquals(Arrays.asList("a", "deny a"), calls);
+	}
+
+	@Test
+	public void failedAsyncFilterDenies() {
+		execute(new Recording("a", true), new Async("b", Future.failedFuture("unavailable")), new Recording("c", true));
+		assertEquals(Arrays.asList("a", "b", "deny b"), calls);
+	}
+
+	@Test
+	public void asyncFilterDecisions() {
+		execute(new Async("a", Future.succeededFuture(true)), new Async("b", Future.succeededFuture(false)));
+		assertEquals(Arrays.asList("a", "b", "deny b"), calls);
+		calls.clear();
+		execute(new Async("a", Future.succeededFuture(null)), new Recording("b", true));
+		assertEquals(Arrays.asList("a", "deny a"), calls);
+	}
+
+	@Test
+	public void pendingAsyncFilterHoldsTheRequest() {
+		final Promise<Boolean> decision = Promise.promise();
+		execute(new Recording("a", true), new Async("b", decision.future()), new Recording("c", true));
+		assertEquals(Arrays.asList("a", "b"), calls);
+		decision.complete(true);
+		assertEquals(Arrays.asList("a", "b", "c", "granted"), calls);
+	}
+
+	@Test
+	public void eachExecutionHasItsOwnCursor() {
+		final FilterPipeline pipeline = new FilterPipeline(Arrays.<Filter>asList(
+				new Recording("a", true), new Recording("b", true)));
+		pipeline.execute(request, granted);
+		pipeline.execute(request, granted);
+		assertEquals(Arrays.asList("a", "b", "granted", "a", "b", "granted"), calls);
+	}
+
+	@Test
+	public void emptyPipeline() {
+		assertTrue(new FilterPipeline(Collections.<Filter>emptyList()).isEmpty());
+		assertFalse(new FilterPipeline(Collections.<Filter>singletonList(new Recording("a", true))).isEmpty());
+	}
+
+	private void execute(Filter... filters) {
+		new FilterPipeline(Arrays.asList(filters)).execute(request, granted);
+	}
+
+	private class Recording implements Filter {
+
+		private final String name;
+		private final Boolean access;
+
+		private Recording(String name, Boolean access) {
+			this.name = name;
+			this.access = access;
+		}
+
+		@Override
+		public void canAccess(HttpServerRequest r, Handler<Boolean> handler) {
+			assertSame(request, r);
+			calls.add(name);
+			handler.handle(access);
+		}
+
+		@Override
+		public void deny(HttpServerRequest r) {
+			assertSame(request, r);
+			calls.add("deny " + name);
+		}
+	}
+
+	private class Async implements AsyncFilter {
+
+		private final String name;
+		private final Future<Boolean> access;
+
+		private Async(String name, Future<Boolean> access) {
+			this.name = name;
+			this.access = access;
+		}
+
+		@Override
+		public Future<Boolean> canAccess(HttpServerRequest r) {
+			calls.add(name);
+			return access;
+		}
+
+		@Override
+		public void deny(HttpServerRequest r) {
+			calls.add("deny " + name);
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.request.filter;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScopeCacheTest {
+
+	private final Map<String, String> scopes = new HashMap<>();
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	public void scopeIsKeptForTheTtl() throws Exception {
+		final ScopeCache cache = new ScopeCache(10, 100L, 10, 100L);
+		scopes.put("app", "userinfo");
+		assertEquals("userinfo", get(cache, "app"));
+		assertEquals("userinfo", get(cache, "app"));
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getHits());
+		Thread.sleep(150L);
+		scopes.put("app", "userinfo openid");
+		assertEquals("userinfo openid", get(cache, "app"));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void failedLookupIsKeptForTheNegativeTtl() throws Exception {
+		final ScopeCache cache = new ScopeCache(10, 60000L, 10, 100L);
+		assertNull(get(cache, "unknown"));
+		assertNull(get(cache, "unknown"));
+		assertEquals(1, loads.get());
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.negativeSize());
+		Thread.sleep(150L);
+		scopes.put("unknown", "userinfo");
+		assertEquals("userinfo", get(cache, "unknown"));
+		assertEquals(2, loads.get());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void negativeCachingCanBeDisabled() {
+		final ScopeCache cache = new ScopeCache(10, 60000L, 10, 0L);
+		scopes.put("blank", " ");
+		assertEquals(" ", get(cache, "blank"));
+		assertEquals(" ", get(cache, "blank"));
+		assertEquals(2, loads.get());
+		assertEquals(0, cache.negativeSize());
+	}
+
+	@Test
+	public void failedLookupsDontEvictScopes() {
+		final ScopeCache cache = new ScopeCache(10, 60000L, 5, 60000L);
+		for (int i = 0; i < 10; i++) {
+			scopes.put("app" + i, "userinfo");
+			get(cache, "app" + i);
+		}
+		for (int i = 0; i < 100; i++) {
+			assertNull(get(cache, "app0" + '\0' + "wrong-secret-" + i));
+		}
+		assertTrue(cache.negativeSize() <= 5);
+		assertEquals(10, cache.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("userinfo", get(cache, "app" + i));
+		}
+		assertEquals(110, loads.get());
+	}
+
+	@Test
+	public void expiredEntriesAreEvictedFirst() throws Exception {
+		final ScopeCache cache = new ScopeCache(4, 100L, 4, 100L);
+		for (String client : new String[] { "a", "b", "c", "d", "e" }) {
+			scopes.put(client, "userinfo");
+		}
+		get(cache, "a");
+		get(cache, "b");
+		Thread.sleep(150L);
+		get(cache, "c");
+		get(cache, "d");
+		assertEquals(4, cache.size());
+		get(cache, "e");
+		assertEquals(3, cache.size());
+		assertEquals(2, cache.getEvictions());
+		final int before = loads.get();
+		get(cache, "c");
+		get(cache, "d");
+		get(cache, "e");
+		assertEquals(before, loads.get());
+	}
+
+	@Test
+	public void sizeIsBounded() {
+		final ScopeCache cache = new ScopeCache(8, 60000L, 8, 60000L);
+		for (int i = 0; i < 100; i++) {
+			scopes.put("app" + i, "userinfo");
+			get(cache, "app" + i);
+			assertTrue(cache.size() <= 8);
+		}
+		assertTrue(cache.getEvictions() >= 92);
+	}
+
+	@Test
+	public void invalidateDropsEveryEntryOfTheClient() {
+		final ScopeCache cache = new ScopeCache(10, 60000L, 10, 60000L);
+		final String secretA = ScopeCache.key("app", "a");
+		final String secretB = ScopeCache.key("app", "b");
+		final String other = ScopeCache.key("other", "a");
+		scopes.put(secretA, "userinfo");
+		scopes.put(other, "userinfo");
+		get(cache, secretA);
+		get(cache, secretB);
+		get(cache, other);
+		get(cache, "app");
+		cache.invalidate("app");
+		assertEquals(1, cache.size());
+		assertEquals(0, cache.negativeSize());
+		get(cache, secretA);
+		get(cache, secretB);
+		get(cache, other);
+		assertEquals(6, loads.get());
+	}
+
+	@Test
+	public void createFromConfig() {
+		assertNull(ScopeCache.create(null));
+		assertNull(ScopeCache.create(new JsonObject().put("enabled", false)));
+		final ScopeCache cache = ScopeCache.create(new JsonObject().put("max-size", 2).put("negative-ttl", 0));
+		assertNotNull(cache);
+		scopes.put("a", "userinfo");
+		scopes.put("b", "userinfo");
+		scopes.put("c", "userinfo");
+		get(cache, "a");
+		get(cache, "b");
+		get(cache, "c");
+		get(cache, "unknown");
+		assertTrue(cache.size() <= 2);
+		assertEquals(0, cache.negativeSize());
+	}
+
+	@Test
+	public void filtersOnlyCacheWhenConfigured() {
+		final BasicFilter basic = new BasicFilter();
+		final QueryParamFilter queryParam = new QueryParamFilter();
+		assertNull(basic.getScopeCache());
+		assertNull(queryParam.getScopeCache());
+		final Vertx vertx = Vertx.vertx();
+		try {
+			final UserAuthFilter filter = new UserAuthFilter(null, basic, queryParam);
+			filter.setVertx(vertx);
+			assertNull(basic.getScopeCache());
+			assertNull(queryParam.getScopeCache());
+			vertx.sharedData().getLocalMap("server").put("scope-cache", new JsonObject().put("ttl", 30000).encode());
+			filter.setVertx(vertx);
+			assertNotNull(basic.getScopeCache());
+			assertNotNull(queryParam.getScopeCache());
+		} finally {
+			vertx.close();
+		}
+	}
+
+	private String get(ScopeCache cache, String key) {
+		final String[] result = new String[1];
+		cache.get(key, loader(key), scope -> result[0] = scope);
+		return result[0];
+	}
+
+	private Handler<Handler<String>> loader(String key) {
+		return handler -> {
+			loads.incrementAndGet();
+			handler.handle(scopes.get(key));
+		};
+	}
+
+	private static class BasicFilter extends AbstractBasicFilter {
+		@Override
+		protected void validateClientScope(String clientId, String secret, Handler<String> handler) {
+			handler.handle(null);
+		}
+	}
+
+	private static class QueryParamFilter extends AbstractQueryParamTokenFilter {
+		@Override
+		protected void retrieveClientScope(String clientId, Handler<String> handler) {
+			handler.handle(null);
+		}
+	}
+
+}
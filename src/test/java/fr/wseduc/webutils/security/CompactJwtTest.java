@@ -0,0 +1,206 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.security;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CompactJwtTest {
+
+	private static final String SECRET = "4f9c1e0b7a2d48e6b3c5a1f7e9d2c8b0";
+	private static KeyPair keyPair;
+
+	@BeforeClass
+	public static void generateKey() throws Exception {
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		keyPair = generator.generateKeyPair();
+	}
+
+	@Test
+	public void decodeLikeBase64() {
+		final Random random = new Random(17L);
+		final Base64.Encoder[] encoders = {
+				Base64.getUrlEncoder(), Base64.getUrlEncoder().withoutPadding(),
+				Base64.getEncoder(), Base64.getEncoder().withoutPadding()
+		};
+		for (int length = 0; length < 200; length++) {
+			final byte[] data = new byte[length];
+			random.nextBytes(data);
+			for (Base64.Encoder encoder : encoders) {
+				final String encoded = encoder.encodeToString(data);
+				assertArrayEquals(encoded, data, decode(encoded));
+				assertArrayEquals(encoded, legacyDecode(encoded), decode(encoded));
+			}
+		}
+	}
+
+	@Test
+	public void decodeWrappedCertificate() {
+		final byte[] der = new byte[1200];
+		new Random(42L).nextBytes(der);
+		final String wrapped = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII))
+				.encodeToString(der) + "\n";
+		assertArrayEquals(der, decode(wrapped));
+		assertArrayEquals(der, JWT.base64DecodeToByte(wrapped));
+	}
+
+	@Test
+	public void encodeLikeUrlEncoder() {
+		final Random random = new Random(23L);
+		for (int length = 0; length < 200; length++) {
+			final byte[] data = new byte[length];
+			random.nextBytes(data);
+			final byte[] encoded = new byte[CompactJwt.encodedLength(length)];
+			assertEquals(encoded.length, CompactJwt.encode(data, encoded, 0));
+			assertEquals(Base64.getUrlEncoder().encodeToString(data), new String(encoded, StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test
+	public void invalidBase64() {
+		for (String invalid : new String[] { "A", "AAAAA", "QQ==QQ", "QQ=A", "Q Q=", "QQ==é" }) {
+			try {
+				decode(invalid);
+				fail(invalid);
+			} catch (IllegalArgumentException e) {
+				// expected, as with java.util.Base64
+			}
+			try {
+				legacyDecode(invalid);
+				fail(invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void malformedTokens() throws Exception {
+		final String token = new JWT(null, SECRET, null).encodeAndSignHmac(new JsonObject().put("sub", "alice"));
+		assertNotNull(CompactJwt.parse(token));
+		assertNull(CompactJwt.parse(null));
+		assertNull(CompactJwt.parse(""));
+		assertNull(CompactJwt.parse("header.payload"));
+		assertNull(CompactJwt.parse(token + ".extra"));
+		assertNull(CompactJwt.parse(token.substring(0, token.lastIndexOf('.') + 1)));
+		assertNull(CompactJwt.parse(token + "é"));
+		assertNull(CompactJwt.parse("é" + token));
+		assertNull(JWT.verifyAndGet(token + ".", SECRET));
+		// a signature with a single character in its last unit
+		final CompactJwt oneCharTail = CompactJwt.parse(token.substring(0, token.lastIndexOf('.') + 1) + "AAAAA");
+		assertNotNull(oneCharTail);
+		try {
+			oneCharTail.signature();
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertNull(JWT.verifyAndGet(token.substring(0, token.lastIndexOf('.') + 1) + "AAAAA", SECRET));
+		assertEquals("alice", JWT.verifyAndGet(token, SECRET).getString("sub"));
+	}
+
+	@Test
+	public void sameTokensAsStringBuilderEncoding() throws Exception {
+		final JWT jwt = new JWT(null, SECRET, null);
+		for (JsonObject payload : payloads()) {
+			assertEquals(legacyEncodeAndSignHmac(payload), jwt.encodeAndSignHmac(payload));
+			assertEquals(legacyEncodeAndSign(payload, "key-1", keyPair.getPrivate()),
+					JWT.encodeAndSign(payload, "key-1", keyPair.getPrivate()));
+			assertEquals(legacyEncodeAndSign(payload, null, keyPair.getPrivate()),
+					JWT.encodeAndSign(payload, null, keyPair.getPrivate()));
+		}
+	}
+
+	private static JsonObject[] payloads() {
+		final JsonObject[] payloads = new JsonObject[6];
+		for (int i = 0; i < 3; i++) {
+			// the three lengths modulo 3 give the three paddings
+			final StringBuilder sub = new StringBuilder("user");
+			for (int j = 0; j < i; j++) {
+				sub.append('a');
+			}
+			payloads[i] = new JsonObject().put("sub", sub.toString()).put("iat", 1760000000L);
+		}
+		payloads[3] = new JsonObject();
+		payloads[4] = new JsonObject().put("name", "Zoé Lefèvre – 😀").put("quote", "\"a\\b\"/\n");
+		payloads[5] = new JsonObject().put("scope", new JsonArray().add("userinfo").add("openid"))
+				.put("aud", new JsonObject().put("client", "app").put("exp", 1760003600L)).putNull("nonce");
+		return payloads;
+	}
+
+	private static byte[] decode(String s) {
+		final byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+		return CompactJwt.decode(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Decoding done before {@link CompactJwt}.
+	 */
+	private static byte[] legacyDecode(String s) {
+		return Base64.getUrlDecoder().decode(s.replaceAll("\n", "").replaceAll("\\+", "-").replaceAll("\\/", "_"));
+	}
+
+	/**
+	 * Encoding done before {@link CompactJwt}.
+	 */
+	private static String legacyEncodeAndSignHmac(JsonObject payload) throws Exception {
+		final JsonObject header = new JsonObject().put("typ", "JWT").put("alg", "HS256");
+		final StringBuilder sb = new StringBuilder();
+		sb.append(legacyEncode(header.encode())).append(".").append(legacyEncode(payload.encode()));
+		final Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(SECRET.getBytes(), "HmacSHA256"));
+		final String sign = Base64.getUrlEncoder().encodeToString(mac.doFinal(sb.toString().getBytes("UTF-8")));
+		return sb.append(".").append(sign).toString();
+	}
+
+	private static String legacyEncodeAndSign(JsonObject payload, String kid, PrivateKey privateKey) throws Exception {
+		final JsonObject header = new JsonObject().put("typ", "JWT").put("alg", "RS256");
+		if (kid != null) {
+			header.put("kid", kid);
+		}
+		final StringBuilder sb = new StringBuilder();
+		sb.append(legacyEncode(header.encode())).append(".").append(legacyEncode(payload.encode()));
+		final Signature sign = Signature.getInstance("SHA256withRSA");
+		sign.initSign(privateKey);
+		sign.update(sb.toString().getBytes("UTF-8"));
+		return sb.append(".").append(Base64.getUrlEncoder().encodeToString(sign.sign())).toString();
+	}
+
+	private static String legacyEncode(String s) throws Exception {
+		return Base64.getUrlEncoder().encodeToString(s.getBytes("UTF-8"));
+	}
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.security;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refresh of the certificates published by a local JWKS server.
+ */
+@RunWith(VertxUnitRunner.class)
+public class JWTTest {
+
+	private static final Map<String, KeyPair> KEYS = new HashMap<>();
+
+	private Vertx vertx;
+	private HttpServer server;
+	private JWT jwt;
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile JsonObject jwks;
+	private volatile String cacheControl;
+	private volatile long responseDelay = 100L;
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		for (String kid : new String[] { "k1", "k2", "k3" }) {
+			KEYS.put(kid, generator.generateKeyPair());
+		}
+	}
+
+	@Before
+	public void setUp(TestContext test) {
+		vertx = Vertx.vertx();
+		jwks = jwks("k1");
+		server = vertx.createHttpServer().requestHandler(request -> {
+			requests.incrementAndGet();
+			final JsonObject body = jwks;
+			final String cc = cacheControl;
+			vertx.setTimer(responseDelay, id -> {
+				if (cc != null) {
+					request.response().putHeader("Cache-Control", cc);
+				}
+				request.response().putHeader("Content-Type", "application/json").end(body.encode());
+			});
+		});
+		server.listen(0, test.asyncAssertSuccess());
+	}
+
+	@After
+	public void tearDown(TestContext test) {
+		if (jwt != null) {
+			jwt.close();
+		}
+		vertx.close(test.asyncAssertSuccess());
+	}
+
+	@Test
+	public void concurrentVerificationsShareOneFetch(TestContext test) throws Exception {
+		jwt = newJwt();
+		final String token = token("k1", "alice");
+		final Async async = test.async(10);
+		for (int i = 0; i < 10; i++) {
+			jwt.verifyAndGet(token, payload -> {
+				test.assertNotNull(payload);
+				test.assertEquals("alice", payload.getString("sub"));
+				test.assertEquals(1, requests.get());
+				async.countDown();
+			});
+		}
+	}
+
+	@Test
+	public void unknownKidRefreshIsLimited(TestContext test) throws Exception {
+		jwt = newJwt();
+		jwt.setMinRefreshInterval(500L);
+		final String k2 = token("k2", "bob");
+		final String k3 = token("k3", "carol");
+		final Async async = test.async();
+		jwt.verifyAndGet(token("k1", "alice"), loaded -> {
+			test.assertNotNull(loaded);
+			jwks = jwks("k1", "k2");
+			// fetched less than 500 ms ago : the unknown key is rejected without fetching again
+			jwt.verifyAndGet(k2, rejected -> {
+				test.assertNull(rejected);
+				test.assertEquals(1, requests.get());
+				vertx.setTimer(600L, id -> jwt.verifyAndGet(k2, refreshed -> {
+					test.assertNotNull(refreshed);
+					test.assertEquals("bob", refreshed.getString("sub"));
+					test.assertEquals(2, requests.get());
+					jwt.verifyAndGet(k3, unknown -> {
+						test.assertNull(unknown);
+						test.assertEquals(2, requests.get());
+						async.complete();
+					});
+				}));
+			});
+		});
+	}
+
+	@Test
+	public void refreshFollowsMaxAge(TestContext test) throws Exception {
+		cacheControl = "public, max-age=1";
+		final long start = System.currentTimeMillis();
+		jwt = newJwt();
+		jwt.setMinRefreshInterval(0L);
+		final Async async = test.async();
+		vertx.setPeriodic(50L, id -> {
+			if (requests.get() >= 2) {
+				vertx.cancelTimer(id);
+				final long elapsed = System.currentTimeMillis() - start;
+				test.assertTrue(elapsed >= 1000L, "refreshed after " + elapsed + " ms");
+				test.assertTrue(elapsed < 3000L, "refreshed after " + elapsed + " ms");
+				async.complete();
+			}
+		});
+	}
+
+	@Test
+	public void removedKeysAreDropped(TestContext test) throws Exception {
+		jwks = jwks("k1", "k2");
+		cacheControl = "max-age=1";
+		jwt = newJwt();
+		jwt.setMinRefreshInterval(0L);
+		// other subjects than the first verified token, which is cached
+		final String removed = token("k2", "dave");
+		final String kept = token("k1", "dave");
+		final Async async = test.async();
+		jwt.verifyAndGet(token("k2", "bob"), before -> {
+			test.assertNotNull(before);
+			jwks = jwks("k1");
+			vertx.setPeriodic(50L, id -> {
+				if (requests.get() < 2) {
+					return;
+				}
+				vertx.cancelTimer(id);
+				// the second response is sent after the response delay
+				vertx.setTimer(responseDelay + 200L, t -> jwt.verifyAndGet(removed, after -> {
+					test.assertNull(after);
+					jwt.verifyAndGet(kept, k1 -> {
+						test.assertNotNull(k1);
+						async.complete();
+					});
+				}));
+			});
+		});
+	}
+
+	private JWT newJwt() throws Exception {
+		return new JWT(vertx, new URI("http://localhost:" + server.actualPort() + "/auth/certs"));
+	}
+
+	private static String token(String kid, String subject) throws Exception {
+		return JWT.encodeAndSign(new JsonObject().put("sub", subject), kid, KEYS.get(kid).getPrivate());
+	}
+
+	private static JsonObject jwks(String... kids) {
+		final JsonArray keys = new JsonArray();
+		for (String kid : kids) {
+			final RSAPublicKey key = (RSAPublicKey) KEYS.get(kid).getPublic();
+			keys.add(new JsonObject()
+					.put("kty", "RSA")
+					.put("kid", kid)
+					.put("n", unsigned(key.getModulus().toByteArray()))
+					.put("e", unsigned(key.getPublicExponent().toByteArray())));
+		}
+		return new JsonObject().put("keys", keys);
+	}
+
+	/**
+	 * Base64url of a big endian unsigned integer, without the sign byte, as published in a JWK.
+	 */
+	private static String unsigned(byte[] bytes) {
+		int start = 0;
+		while (start < bytes.length - 1 && bytes[start] == 0) {
+			start++;
+		}
+		final byte[] value = new byte[bytes.length - start];
+		System.arraycopy(bytes, start, value, 0, value.length);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(value);
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package fr.wseduc.webutils.template;
+
+import com.samskivert.mustache.Mustache;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.ThreadingModel;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(VertxUnitRunner.class)
+public class TemplateCacheTest {
+
+	private Vertx vertx;
+	private File template;
+
+	@Before
+	public void setUp() throws Exception {
+		vertx = Vertx.vertx();
+		template = File.createTempFile("template", ".html");
+		Files.write(template.toPath(), "Hello {{name}}".getBytes(StandardCharsets.UTF_8));
+		TemplateCache.getInstance().clear();
+	}
+
+	@After
+	public void tearDown(TestContext context) {
+		template.delete();
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void handlersAreCalledOnTheCallerContext(TestContext test) {
+		final Mustache.Compiler compiler = Mustache.compiler();
+		final String path = template.getAbsolutePath();
+		final Async async = test.async(2);
+		final Context waiter = vertx.getOrCreateContext();
+		final CountDownLatch waiting = new CountDownLatch(1);
+		// the loader is a worker, so that holding it does not hold the event loop of the waiter
+		vertx.deployVerticle(new AbstractVerticle() {
+			@Override
+			public void start() throws Exception {
+				final Context loader = Vertx.currentContext();
+				TemplateCache.getInstance().getTemplate(vertx, path, compiler, t -> {
+					test.assertEquals(loader, Vertx.currentContext());
+					async.countDown();
+				});
+				waiter.runOnContext(v -> {
+					TemplateCache.getInstance().getTemplate(vertx, path, compiler, t -> {
+						test.assertNotNull(t);
+						test.assertEquals(waiter, Vertx.currentContext());
+						test.assertEquals("Hello world", t.execute(Collections.singletonMap("name", "world")));
+						async.countDown();
+					});
+					waiting.countDown();
+				});
+				// the template is loaded on this context, hold it until the waiter is registered
+				test.assertTrue(waiting.await(5, TimeUnit.SECONDS));
+			}
+		}, new DeploymentOptions().setThreadingModel(ThreadingModel.WORKER), test.asyncAssertSuccess());
+	}
+
+	@Test
+	public void missingTemplateIsNotCached(TestContext context) {
+		final Async async = context.async();
+		final String path = template.getAbsolutePath() + ".missing";
+		TemplateCache.getInstance().getTemplate(vertx, path, Mustache.compiler(), t -> {
+			context.assertNull(t);
+			context.assertEquals(0, TemplateCache.getInstance().size());
+			async.complete();
+		});
+	}
+
+}
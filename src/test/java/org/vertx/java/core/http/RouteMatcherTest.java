@@ -0,0 +1,224 @@
+package org.vertx.java.core.http;
+
+import fr.wseduc.webutils.security.WrappedHttpServerRequest;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link RouteMatcher}
+ */
+public class RouteMatcherTest {
+
+	private RouteMatcher rm;
+	private AtomicReference<String> matched;
+
+	@Before
+	public void setUp() {
+		rm = new RouteMatcher();
+		matched = new AtomicReference<>();
+		rm.noMatch(request -> matched.set("noMatch"));
+	}
+
+	private RouteMatcher get(String pattern, String name) {
+		return rm.get(pattern, request -> matched.set(name));
+	}
+
+	private RouteMatcher getWithRegEx(String regex, String name) {
+		return rm.getWithRegEx(regex, request -> matched.set(name));
+	}
+
+	private FakeRequest request(HttpMethod method, String path) {
+		final FakeRequest request = new FakeRequest(method, path);
+		rm.handle(request);
+		return request;
+	}
+
+	@Test
+	public void staticAndParamSegments() {
+		get("/conversation/count/INBOX", "count");
+		get("/conversation/message/:id", "message");
+		get("/conversation/message/:id/attachment/:attachmentId", "attachment");
+
+		request(HttpMethod.GET, "/conversation/count/INBOX");
+		assertEquals("count", matched.get());
+
+		FakeRequest r = request(HttpMethod.GET, "/conversation/message/42");
+		assertEquals("message", matched.get());
+		assertEquals("42", r.params().get("id"));
+
+		r = request(HttpMethod.GET, "/conversation/message/42/attachment/abc");
+		assertEquals("attachment", matched.get());
+		assertEquals("42", r.params().get("id"));
+		assertEquals("abc", r.params().get("attachmentId"));
+
+		request(HttpMethod.GET, "/conversation/message/");
+		assertEquals("noMatch", matched.get());
+		request(HttpMethod.GET, "/conversation/count/INBOX/");
+		assertEquals("noMatch", matched.get());
+		request(HttpMethod.POST, "/conversation/count/INBOX");
+		assertEquals("noMatch", matched.get());
+	}
+
+	@Test
+	public void firstRegisteredMatchWins() {
+		get("/timeline/:type", "param");
+		get("/timeline/lastNotifications", "static");
+		request(HttpMethod.GET, "/timeline/lastNotifications");
+		assertEquals("param", matched.get());
+
+		setUp();
+		get("/timeline/lastNotifications", "static");
+		get("/timeline/:type", "param");
+		request(HttpMethod.GET, "/timeline/lastNotifications");
+		assertEquals("static", matched.get());
+		request(HttpMethod.GET, "/timeline/other");
+		assertEquals("param", matched.get());
+	}
+
+	@Test
+	public void regexKeepsRegistrationOrder() {
+		getWithRegEx("\\/workspace\\/document\\/(.+)", "regex");
+		get("/workspace/document/:id", "param");
+		FakeRequest r = request(HttpMethod.GET, "/workspace/document/42");
+		assertEquals("regex", matched.get());
+		assertEquals("42", r.params().get("param0"));
+
+		setUp();
+		get("/workspace/document/:id", "param");
+		getWithRegEx("\\/workspace\\/document\\/(.+)", "regex");
+		request(HttpMethod.GET, "/workspace/document/42");
+		assertEquals("param", matched.get());
+		request(HttpMethod.GET, "/workspace/document/42/versions");
+		assertEquals("regex", matched.get());
+	}
+
+	@Test
+	public void patternWithRegexCharsFallsBackToRegex() {
+		get("/directory/conf/public.json", "conf");
+		request(HttpMethod.GET, "/directory/conf/public.json");
+		assertEquals("conf", matched.get());
+		request(HttpMethod.GET, "/directory/conf/publicXjson");
+		assertEquals("conf", matched.get());
+
+		get("/directory/user/:id.json", "user");
+		FakeRequest r = request(HttpMethod.GET, "/directory/user/42.json");
+		assertEquals("user", matched.get());
+		assertEquals("42", r.params().get("id"));
+	}
+
+	@Test
+	public void emptyPrefix() {
+		get("", "root");
+		request(HttpMethod.GET, "");
+		assertEquals("root", matched.get());
+		request(HttpMethod.GET, "/");
+		assertEquals("noMatch", matched.get());
+		assertNull(request(HttpMethod.GET, "/").params().get("id"));
+	}
+
+	@Test
+	public void lazyPathParams() {
+		final AtomicReference<HttpServerRequest> routed = new AtomicReference<>();
+		rm.setLazyPathParams(true);
+		rm.get("/conversation/message/:id", routed::set);
+		rm.get("/conversation/count/INBOX", routed::set);
+		rm.getWithRegEx("\\/workspace\\/document\\/([^\\/]+)(\\/versions)?", routed::set);
+
+		final FakeRequest r = request(HttpMethod.GET, "/conversation/message/42");
+		final PathParamsHttpServerRequest lazy = (PathParamsHttpServerRequest) routed.get();
+		assertEquals(1, lazy.pathParams().size());
+		assertEquals(22, lazy.pathParams().offset(0));
+		assertEquals(2, lazy.pathParams().length(0));
+		assertNull(r.params().get("id"));
+		assertEquals("42", lazy.getParam("id"));
+		assertEquals("42", r.params().get("id"));
+
+		request(HttpMethod.GET, "/conversation/count/INBOX");
+		assertFalse(routed.get() instanceof PathParamsHttpServerRequest);
+
+		request(HttpMethod.GET, "/workspace/document/42");
+		final PathParams params = ((PathParamsHttpServerRequest) routed.get()).pathParams();
+		assertEquals("42", params.get("param0"));
+		assertNull(params.value(1));
+		assertEquals("42", routed.get().params().get("param0"));
+		assertFalse(routed.get().params().contains("param1"));
+	}
+
+	@Test
+	public void resolutionCache() {
+		rm.setResolutionCacheMaxSize(4);
+		get("/conversation/message/:id", "message");
+		get("/conversation/count/INBOX", "count");
+
+		request(HttpMethod.GET, "/conversation/count/INBOX");
+		FakeRequest r = request(HttpMethod.GET, "/conversation/count/INBOX");
+		assertEquals("count", matched.get());
+		assertEquals(1, rm.getResolutionCacheHits());
+		assertEquals(1, rm.getResolutionCacheMisses());
+
+		request(HttpMethod.GET, "/conversation/message/1");
+		r = request(HttpMethod.GET, "/conversation/message/1");
+		assertEquals("1", r.params().get("id"));
+		request(HttpMethod.GET, "/conversation/message/2");
+		request(HttpMethod.GET, "/conversation/message/3");
+		request(HttpMethod.GET, "/conversation/message/4");
+		assertTrue(rm.getResolutionCacheSize() <= 4);
+		assertTrue(rm.getResolutionCacheEvictions() > 0);
+
+		get("/conversation/count/:folder", "folder");
+		request(HttpMethod.GET, "/conversation/count/INBOX");
+		assertEquals("count", matched.get());
+		assertEquals(1, rm.getResolutionCacheSize());
+		request(HttpMethod.GET, "/conversation/count/OUTBOX");
+		assertEquals("folder", matched.get());
+
+		request(HttpMethod.GET, "/unknown");
+		request(HttpMethod.GET, "/unknown");
+		assertEquals("noMatch", matched.get());
+		assertEquals(2, rm.getResolutionCacheSize());
+	}
+
+	static class FakeRequest extends WrappedHttpServerRequest {
+
+		private final HttpMethod method;
+		private final String path;
+		private final MultiMap params = MultiMap.caseInsensitiveMultiMap();
+
+		FakeRequest(HttpMethod method, String path) {
+			super(null);
+			this.method = method;
+			this.path = path;
+		}
+
+		@Override
+		public HttpMethod method() {
+			return method;
+		}
+
+		@Override
+		public String path() {
+			return path;
+		}
+
+		@Override
+		public MultiMap params() {
+			return params;
+		}
+
+		@Override
+		public String getParam(String paramName) {
+			return params.get(paramName);
+		}
+	}
+
+}